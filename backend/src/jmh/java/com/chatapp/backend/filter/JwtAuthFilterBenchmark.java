@@ -0,0 +1,136 @@
+package com.chatapp.backend.filter;
+
+import com.chatapp.backend.model.User;
+import com.chatapp.backend.utils.JwtUtils;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of authenticating one request in {@link JwtAuthFilter}.
+ * <p>
+ * {@code legacyFilter} reproduces the previous behaviour: the signing key and parser were rebuilt for
+ * every call, the token was parsed twice (validate, then extract the username) and the user was loaded
+ * through the {@link UserDetailsService}. {@code statelessFilter} is the current filter, which parses once
+ * with the cached parser and builds the principal from the claims. The database lookup is simulated by
+ * spinning for {@code userLookupMicros}; 0 isolates the JWT handling itself.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtAuthFilterBenchmark {
+
+    private static final String SECRET = "BjfdkB2OVEAfWA41INn0vDxf+Uknf6Cf3ED1NZTUf8g=";
+
+    @Param({"0", "300"})
+    public long userLookupMicros;
+
+    private OncePerRequestFilter legacyFilter;
+    private OncePerRequestFilter statelessFilter;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        JwtUtils jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", 3_600_000);
+        jwtUtils.init();
+
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("benchmark-user");
+        user.setPassword("encoded");
+        token = jwtUtils.generateToken(user);
+
+        UserDetailsService userDetailsService = username -> {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(userLookupMicros);
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            return user;
+        };
+        legacyFilter = new LegacyJwtAuthFilter(userDetailsService);
+        statelessFilter = new JwtAuthFilter(jwtUtils, userDetailsService);
+    }
+
+    @Benchmark
+    public Authentication legacyFilter() throws Exception {
+        return authenticate(legacyFilter);
+    }
+
+    @Benchmark
+    public Authentication statelessFilter() throws Exception {
+        return authenticate(statelessFilter);
+    }
+
+    private Authentication authenticate(OncePerRequestFilter filter) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/rooms");
+        request.addHeader("Authorization", "Bearer " + token);
+        try {
+            filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+            return SecurityContextHolder.getContext().getAuthentication();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * The filter as it was before the signing key and parser were cached, minus its console logging.
+     */
+    static class LegacyJwtAuthFilter extends OncePerRequestFilter {
+
+        private final UserDetailsService userDetailsService;
+
+        LegacyJwtAuthFilter(UserDetailsService userDetailsService) {
+            this.userDetailsService = userDetailsService;
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws IOException, ServletException {
+            String token = request.getHeader("Authorization").substring(7);
+            if (validateToken(token)) {
+                String username = parser().parseClaimsJws(token).getBody().getSubject();
+                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+                SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities()));
+            }
+            filterChain.doFilter(request, response);
+        }
+
+        private boolean validateToken(String token) {
+            try {
+                parser().parseClaimsJws(token);
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private JwtParser parser() {
+            return Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes())).build();
+        }
+    }
+}
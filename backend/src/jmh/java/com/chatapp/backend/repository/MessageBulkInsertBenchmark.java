@@ -0,0 +1,138 @@
+package com.chatapp.backend.repository;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.jpa.JpaRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second written to {@code messages} by {@link MessageRepository#saveAll} (JPA, with Hibernate JDBC
+ * batching), {@link MessageRepository#insertAll} (multi-row INSERT) and {@link MessageRepository#copyAll}
+ * (binary COPY), for a few batch sizes.
+ * <p>
+ * Needs a PostgreSQL to write to; the one from docker-compose.yml is used unless {@code -Dbenchmark.db.url},
+ * {@code -Dbenchmark.db.username} and {@code -Dbenchmark.db.password} point elsewhere. Flyway migrates it on
+ * start, and the rows written are deleted after every iteration.
+ * <p>
+ * Run with {@code docker compose up -d postgres} and then {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBulkInsertBenchmark {
+
+    private static final String ROOM_NAME = "jmh-bulk-insert";
+
+    @Param({"100", "1000", "10000"})
+    public int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private MessageRepository messageRepository;
+    private JdbcTemplate jdbcTemplate;
+    private long chatRoomId;
+    private final SnowflakeIdGenerator idGenerator = new SnowflakeIdGenerator(1023, Clock.systemUTC());
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({DataSourceAutoConfiguration.class, FlywayAutoConfiguration.class,
+            HibernateJpaAutoConfiguration.class, JpaRepositoriesAutoConfiguration.class,
+            JdbcTemplateAutoConfiguration.class, TransactionAutoConfiguration.class})
+    @EntityScan(basePackageClasses = ChatMessage.class)
+    @EnableJpaRepositories(basePackageClasses = MessageRepository.class)
+    static class PersistenceOnly {
+    }
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(PersistenceOnly.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=" + System.getProperty("benchmark.db.url", "jdbc:postgresql://localhost:5432/chatdb"),
+                        "spring.datasource.username=" + System.getProperty("benchmark.db.username", "chat_user"),
+                        "spring.datasource.password=" + System.getProperty("benchmark.db.password", "chat_password"),
+                        "spring.jpa.properties.hibernate.jdbc.batch_size=1000",
+                        "spring.jpa.properties.hibernate.order_inserts=true")
+                .run();
+        messageRepository = context.getBean(MessageRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        chatRoomId = jdbcTemplate.queryForObject("INSERT INTO chat_rooms (name) VALUES (?) " +
+                "ON CONFLICT (name) DO UPDATE SET name = EXCLUDED.name RETURNING id", Long.class, ROOM_NAME);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteRows() {
+        jdbcTemplate.update("DELETE FROM messages WHERE room_id = ?", chatRoomId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ChatMessage> saveAll(BatchCounter counter) {
+        return messageRepository.saveAll(messages(counter));
+    }
+
+    @Benchmark
+    public List<ChatMessage> insertAll(BatchCounter counter) {
+        return messageRepository.insertAll(messages(counter));
+    }
+
+    @Benchmark
+    public List<ChatMessage> copyAll(BatchCounter counter) {
+        return messageRepository.copyAll(messages(counter));
+    }
+
+    private List<ChatMessage> messages(BatchCounter counter) {
+        counter.rows += batchSize;
+        Instant now = Instant.now();
+        List<ChatMessage> messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setId(idGenerator.nextId());
+            message.setRoomId(ROOM_NAME);
+            message.setChatRoomId(chatRoomId);
+            message.setSender("bench");
+            message.setContent("Benchmark message number " + i + " with a realistic amount of text in it");
+            message.setTimestamp(now);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Reports rows written per second next to the batches per second JMH measures itself.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class BatchCounter {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.chatapp.backend.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ids per second from {@link SnowflakeIdGenerator}, uncontended and with eight threads sharing one generator.
+ * <p>
+ * {@code synchronizedGenerator} is the textbook implementation that waits for the next millisecond under a lock
+ * when the sequence runs out; {@code snowflake} is the lock-free generator the application uses.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnowflakeIdGeneratorBenchmark {
+
+    private final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, Clock.systemUTC());
+    private final SynchronizedGenerator synchronizedGenerator = new SynchronizedGenerator(1);
+
+    @Benchmark
+    @Threads(1)
+    public long snowflake() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long snowflakeContended() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long synchronizedGenerator() {
+        return synchronizedGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long synchronizedGeneratorContended() {
+        return synchronizedGenerator.nextId();
+    }
+
+    private static final class SynchronizedGenerator {
+
+        private final long workerBits;
+        private long lastMillis = -1;
+        private long sequence;
+
+        SynchronizedGenerator(int workerId) {
+            this.workerBits = (long) workerId << SnowflakeIdGenerator.SEQUENCE_BITS;
+        }
+
+        synchronized long nextId() {
+            long now = System.currentTimeMillis() - SnowflakeIdGenerator.EPOCH_MILLIS;
+            if (now == lastMillis) {
+                sequence = (sequence + 1) & ((1L << SnowflakeIdGenerator.SEQUENCE_BITS) - 1);
+                if (sequence == 0) {
+                    while (now <= lastMillis) {
+                        now = System.currentTimeMillis() - SnowflakeIdGenerator.EPOCH_MILLIS;
+                    }
+                }
+            } else {
+                sequence = 0;
+            }
+            lastMillis = now;
+            return (now << (SnowflakeIdGenerator.WORKER_ID_BITS + SnowflakeIdGenerator.SEQUENCE_BITS)) | workerBits | sequence;
+        }
+    }
+}
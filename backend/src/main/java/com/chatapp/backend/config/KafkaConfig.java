@@ -1,10 +1,13 @@
 package com.chatapp.backend.config;
 
 import com.chatapp.backend.model.ChatMessage;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.ContainerProperties;
@@ -15,6 +18,50 @@ import org.springframework.util.backoff.FixedBackOff;
 @Configuration
 public class KafkaConfig {
 
+    @Value("${app.kafka.topics.chat-messages}")
+    private String chatMessagesTopic;
+
+    @Value("${app.kafka.topics.chat-messages-dlt}")
+    private String chatMessagesDltTopic;
+
+    @Value("${app.kafka.topics.chat-broadcast}")
+    private String chatBroadcastTopic;
+
+    // Records are keyed by roomId, so a room always maps to one partition and keeps its order
+    // while different rooms are consumed in parallel, up to one consumer thread per partition.
+    @Value("${app.kafka.topics.partitions:6}")
+    private int partitions;
+
+    @Value("${app.kafka.topics.replicas:1}")
+    private int replicas;
+
+    @Value("${app.kafka.consumer.concurrency:3}")
+    private int concurrency;
+
+    @Bean
+    public NewTopic chatMessagesTopic() {
+        return TopicBuilder.name(chatMessagesTopic)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    @Bean
+    public NewTopic chatMessagesDltTopic() {
+        return TopicBuilder.name(chatMessagesDltTopic)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    @Bean
+    public NewTopic chatBroadcastTopic() {
+        return TopicBuilder.name(chatBroadcastTopic)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, ChatMessage> kafkaListenerContainerFactory(
             ConsumerFactory<String, ChatMessage> consumerFactory,
@@ -22,11 +69,54 @@ public class KafkaConfig {
 
         ConcurrentKafkaListenerContainerFactory<String, ChatMessage> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(concurrency);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
         factory.setCommonErrorHandler(defaultErrorHandler(dlqKafkaTemplate));
         return factory;
     }
 
+    /**
+     * Container factory for listeners that receive a whole poll as one {@code List}.
+     * Offsets are committed once per batch; a listener reports a poison record by throwing a
+     * {@link org.springframework.kafka.listener.BatchListenerFailedException}, so the error handler can
+     * commit everything before it, retry from that record and eventually publish it to the DLT.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ChatMessage> batchKafkaListenerContainerFactory(
+            ConsumerFactory<String, ChatMessage> consumerFactory,
+            KafkaTemplate<String, Object> dlqKafkaTemplate) {
+
+        ConcurrentKafkaListenerContainerFactory<String, ChatMessage> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        factory.setCommonErrorHandler(defaultErrorHandler(dlqKafkaTemplate));
+        return factory;
+    }
+
+    /**
+     * Container factory for the per-instance broadcast listener. Delivery to local sessions is best effort:
+     * offsets are committed after every poll and a failing record is logged and skipped rather than retried
+     * or dead-lettered, since the message is already persisted by the shared consumer group.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ChatMessage> broadcastKafkaListenerContainerFactory(
+            ConsumerFactory<String, ChatMessage> consumerFactory) {
+
+        ConcurrentKafkaListenerContainerFactory<String, ChatMessage> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(concurrency);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(new FixedBackOff(0L, 0L)));
+        return factory;
+    }
+
+    /**
+     * Blocking error handler for the batch listener, which non-blocking retry topics do not support.
+     * The per-record listener retries through retry topics instead, see
+     * {@link com.chatapp.backend.service.KafkaConsumerService}.
+     */
     @Bean
     public DefaultErrorHandler defaultErrorHandler(KafkaTemplate<String, Object> dlqKafkaTemplate) {
         // Retry 3 times with a 1-second delay between attempts
@@ -34,7 +124,7 @@ public class KafkaConfig {
 
         DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(dlqKafkaTemplate,
                 (record, exception) -> {
-                    return new TopicPartition("chat-messages-dlt", -1); // -1 for default partitioner
+                    return new TopicPartition(chatMessagesDltTopic, -1); // -1 for default partitioner
                 });
 
         DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, backOff);
@@ -0,0 +1,54 @@
+package com.chatapp.backend.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+/**
+ * Identifies this backend instance among the others running behind the load balancer.
+ * <p>
+ * The node id is stable across restarts: {@code app.node-id} when set, otherwise the host name, which is the pod or
+ * container name in Kubernetes and Docker. It names the per-node Kafka consumer groups, so a restarted node resumes
+ * its own groups instead of leaving orphaned ones behind. Instances sharing a host name, e.g. several started on one
+ * development machine, must each set {@code app.node-id}.
+ * <p>
+ * The instance id adds a random suffix and changes on every start. It is for things that must tell two running
+ * processes apart but are never persisted, like the origin of messages relayed over Redis.
+ */
+@Component
+public class NodeIdentity {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeIdentity.class);
+
+    private final String nodeId;
+    private final String instanceId;
+
+    public NodeIdentity(@Value("${app.node-id:}") String configuredNodeId) {
+        this.nodeId = StringUtils.hasText(configuredNodeId) ? configuredNodeId : resolveHostName();
+        this.instanceId = nodeId + "-" + UUID.randomUUID().toString().substring(0, 8);
+        log.info("Running as node '{}' (instance '{}')", nodeId, instanceId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    private static String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            log.warn("Could not resolve the host name; set app.node-id so consumer groups survive restarts");
+            return "node";
+        }
+    }
+}
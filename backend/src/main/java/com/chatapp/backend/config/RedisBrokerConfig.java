@@ -0,0 +1,49 @@
+package com.chatapp.backend.config;
+
+import com.chatapp.backend.interceptor.RedisBrokerBridge;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * Beans for {@code app.websocket.broker.mode=redis}: local simple brokers kept in sync through Redis pub/sub.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.websocket.broker.mode", havingValue = WebSocketConfig.BROKER_MODE_REDIS)
+public class RedisBrokerConfig {
+
+    @Value("${app.websocket.broker.redis-channel:chat-broker}")
+    private String brokerChannelName;
+
+    // The broker channel and handlers are created after this bridge, which is registered as one of their interceptors
+    @Bean
+    public RedisBrokerBridge redisBrokerBridge(RedisTemplate<String, String> redisTemplate,
+                                               ObjectMapper objectMapper,
+                                               NodeIdentity nodeIdentity,
+                                               @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                                               @Lazy @Qualifier("userDestinationMessageHandler") MessageHandler userDestinationMessageHandler,
+                                               @Lazy @Qualifier("userRegistryMessageHandler") MessageHandler userRegistryMessageHandler) {
+        return new RedisBrokerBridge(redisTemplate, objectMapper, brokerChannelName, nodeIdentity.getInstanceId(),
+                brokerChannel, userDestinationMessageHandler, userRegistryMessageHandler,
+                WebSocketConfig.USER_DESTINATION_BROADCAST, WebSocketConfig.USER_REGISTRY_BROADCAST);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisBrokerListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                      RedisBrokerBridge redisBrokerBridge) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(redisBrokerBridge, new ChannelTopic(brokerChannelName));
+        return container;
+    }
+}
@@ -0,0 +1,107 @@
+package com.chatapp.backend.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends connections of {@code @Transactional(readOnly = true)} work to the read replicas, round robin, and
+ * everything else to the primary. It must sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * because the transaction manager opens its connection before the read-only flag of the transaction is bound.
+ * <p>
+ * Replicas lag behind the primary, so a user that just wrote something could read their own change back as missing.
+ * Whenever a read-write connection is taken on behalf of an authenticated user, that user's reads go to the primary
+ * for the following {@code readYourWrites} window. Work without a user, like the Kafka consumer's inserts, always
+ * runs on the primary.
+ * <p>
+ * The pin is limited: it is kept in memory, so only the instance that handled the write knows about it, and it is
+ * only set by writes made with the user's security context. Chat messages are neither: they are sent over STOMP and
+ * persisted by the Kafka consumer, on any instance and without a user. A replica can therefore miss a message its
+ * sender just saw acknowledged. Until pins are shared, message history is read outside read-only transactions and
+ * stays on the primary (see {@link com.chatapp.backend.repository.MessageRepository}); replicas serve search and
+ * room lookups, where a moment of lag is harmless.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    private final List<String> replicaKeys;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Cache<String, Boolean> recentWriters;
+    private final Counter primaryRoutes;
+    private final Counter replicaRoutes;
+    private final Counter pinnedRoutes;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration readYourWrites,
+                                    MeterRegistry meterRegistry) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one replica is required");
+        }
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        this.replicaKeys = new ArrayList<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            String key = "replica-" + (i + 1);
+            targets.put(key, replicas.get(i));
+            replicaKeys.add(key);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(readYourWrites)
+                .build();
+        this.primaryRoutes = Counter.builder("chat.db.routing")
+                .description("Connections handed out, by target")
+                .tag("target", "primary").tag("reason", "read-write")
+                .register(meterRegistry);
+        this.pinnedRoutes = Counter.builder("chat.db.routing")
+                .description("Connections handed out, by target")
+                .tag("target", "primary").tag("reason", "read-your-writes")
+                .register(meterRegistry);
+        this.replicaRoutes = Counter.builder("chat.db.routing")
+                .description("Connections handed out, by target")
+                .tag("target", "replica").tag("reason", "read-only")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String username = currentUsername();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (username != null) {
+                recentWriters.put(username, Boolean.TRUE);
+            }
+            primaryRoutes.increment();
+            return PRIMARY;
+        }
+        if (username != null && recentWriters.getIfPresent(username) != null) {
+            pinnedRoutes.increment();
+            return PRIMARY;
+        }
+        replicaRoutes.increment();
+        return replicaKeys.get(Math.floorMod(nextReplica.getAndIncrement(), replicaKeys.size()));
+    }
+
+    private static String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null && authentication.isAuthenticated() && !(authentication instanceof AnonymousAuthenticationToken)
+                ? authentication.getName()
+                : null;
+    }
+}
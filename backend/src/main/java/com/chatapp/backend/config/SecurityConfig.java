@@ -1,6 +1,8 @@
 package com.chatapp.backend.config;
 
 import com.chatapp.backend.filter.JwtAuthFilter;
+import com.chatapp.backend.model.AuthenticatedUser;
+import com.chatapp.backend.model.User;
 import com.chatapp.backend.service.ChatRoomService;
 import com.chatapp.backend.service.CustomUserDetailsService;
 import com.chatapp.backend.utils.JwtUtils;
@@ -118,7 +120,10 @@ public class SecurityConfig {
                             if (roomId == null) {
                                 return new AuthorizationDecision(false);
                             }
-                            boolean isMember = chatRoomService.isUserMemberOfRoom(username, roomId);
+                            Long userId = resolveUserId(authentication);
+                            boolean isMember = userId != null
+                                    ? chatRoomService.isUserMemberOfRoom(userId, roomId)
+                                    : chatRoomService.isUserMemberOfRoom(username, roomId);
                             return new AuthorizationDecision(isMember);
                         }
                 )
@@ -129,6 +134,17 @@ public class SecurityConfig {
         return messages.build();
     }
 
+    private static Long resolveUserId(Authentication authentication) {
+        Object principal = authentication.getPrincipal();
+        if (principal instanceof AuthenticatedUser authenticatedUser) {
+            return authenticatedUser.getId();
+        }
+        if (principal instanceof User user) {
+            return user.getId();
+        }
+        return null;
+    }
+
     @Bean
     public AuthorizationChannelInterceptor messageAuthorizationChannelInterceptor(AuthorizationManager<Message<?>> authorizationManager) {
         return new AuthorizationChannelInterceptor(authorizationManager);
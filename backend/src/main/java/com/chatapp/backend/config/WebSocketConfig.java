@@ -1,6 +1,11 @@
 package com.chatapp.backend.config;
 
 import com.chatapp.backend.interceptor.AuthChannelInterceptor;
+import com.chatapp.backend.interceptor.RedisBrokerBridge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
@@ -13,10 +18,53 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 
 import java.util.List;
 
+/**
+ * STOMP endpoint and broker setup. {@code app.websocket.broker.mode} selects the broker:
+ * <ul>
+ *     <li>{@code simple}: in-JVM broker, enough for a single instance, local development and tests.</li>
+ *     <li>{@code relay}: relays to an external STOMP broker (e.g. RabbitMQ or ActiveMQ) shared by all instances.</li>
+ *     <li>{@code redis}: in-JVM broker per instance, kept in sync through Redis pub/sub by {@link RedisBrokerBridge}.</li>
+ * </ul>
+ * In the shared modes the user registry is broadcast between instances, and user destinations that cannot be
+ * resolved locally are handed to the other instances, so {@code /user/...} messages reach users on any node.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private static final Logger log = LoggerFactory.getLogger(WebSocketConfig.class);
+
+    public static final String BROKER_MODE_SIMPLE = "simple";
+    public static final String BROKER_MODE_RELAY = "relay";
+    public static final String BROKER_MODE_REDIS = "redis";
+
+    public static final String USER_DESTINATION_BROADCAST = "/topic/unresolved-user-destination";
+    public static final String USER_REGISTRY_BROADCAST = "/topic/simp-user-registry";
+
+    @Value("${app.websocket.broker.mode:" + BROKER_MODE_SIMPLE + "}")
+    private String brokerMode;
+
+    @Value("${app.websocket.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${app.websocket.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${app.websocket.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${app.websocket.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${app.websocket.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    private final ObjectProvider<RedisBrokerBridge> redisBrokerBridge;
+
+    public WebSocketConfig(ObjectProvider<RedisBrokerBridge> redisBrokerBridge) {
+        this.redisBrokerBridge = redisBrokerBridge;
+    }
+
     @Override
     public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
         messageConverters.add(new MappingJackson2MessageConverter());
@@ -25,11 +73,38 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic", "/queue", "/topic/presence/**");
+        switch (brokerMode) {
+            case BROKER_MODE_RELAY -> {
+                var relay = config.enableStompBrokerRelay("/topic", "/queue")
+                        .setRelayHost(relayHost)
+                        .setRelayPort(relayPort)
+                        .setClientLogin(relayLogin)
+                        .setClientPasscode(relayPasscode)
+                        .setSystemLogin(relayLogin)
+                        .setSystemPasscode(relayPasscode);
+                if (!relayVirtualHost.isBlank()) {
+                    relay.setVirtualHost(relayVirtualHost);
+                }
+                enableCrossNodeUserDestinations(config);
+            }
+            case BROKER_MODE_REDIS -> {
+                config.enableSimpleBroker("/topic", "/queue");
+                config.configureBrokerChannel().interceptors(redisBrokerBridge.getObject());
+                enableCrossNodeUserDestinations(config);
+            }
+            case BROKER_MODE_SIMPLE -> config.enableSimpleBroker("/topic", "/queue", "/topic/presence/**");
+            default -> throw new IllegalStateException("Unknown app.websocket.broker.mode: " + brokerMode);
+        }
+        log.info("Using '{}' STOMP broker", brokerMode);
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
     }
 
+    private void enableCrossNodeUserDestinations(MessageBrokerRegistry config) {
+        config.setUserDestinationBroadcast(USER_DESTINATION_BROADCAST);
+        config.setUserRegistryBroadcast(USER_REGISTRY_BROADCAST);
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
@@ -46,4 +121,4 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     public AuthChannelInterceptor authChannelInterceptor() {
         return new AuthChannelInterceptor();
     }
-}
\ No newline at end of file
+}
@@ -3,14 +3,20 @@ package com.chatapp.backend.controller;
 import com.chatapp.backend.model.ChatMessage;
 import com.chatapp.backend.model.TypingEvent;
 import com.chatapp.backend.service.KafkaProducerService;
+import com.chatapp.backend.service.TypingAggregator;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Controller;
 
 @Controller
@@ -18,34 +24,77 @@ public class ChatController {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
 
+    private static final int MAX_CLIENT_MESSAGE_ID_LENGTH = 64;
+
     private final KafkaProducerService kafkaProducerService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final TypingAggregator typingAggregator;
     private final RedisTemplate<String, String> redisTemplate;
+    private final MessageChannel clientOutboundChannel;
+    private final SnowflakeIdGenerator idGenerator;
 
     @Autowired
-    public ChatController(KafkaProducerService kafkaProducerService, SimpMessagingTemplate messagingTemplate, RedisTemplate<String, String> redisTemplate) {
+    public ChatController(KafkaProducerService kafkaProducerService, TypingAggregator typingAggregator, RedisTemplate<String, String> redisTemplate,
+                          @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel, SnowflakeIdGenerator idGenerator) {
         this.kafkaProducerService = kafkaProducerService;
-        this.messagingTemplate = messagingTemplate;
+        this.typingAggregator = typingAggregator;
         this.redisTemplate = redisTemplate;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.idGenerator = idGenerator;
     }
 
     @MessageMapping("/chat.sendMessage")
-    public void sendMessage(@Payload ChatMessage message) {
-        logger.info("Received message: {}", message);
-        kafkaProducerService.sendMessage(message);
+    public void sendMessage(@Payload ChatMessage message, SimpMessageHeaderAccessor headerAccessor) {
+        logger.debug("Received message: {}", message);
+        String receiptId = headerAccessor.getFirstNativeHeader(StompHeaderAccessor.STOMP_RECEIPT_HEADER);
+        String sessionId = headerAccessor.getSessionId();
+        if (message.getClientMessageId() != null && message.getClientMessageId().length() > MAX_CLIENT_MESSAGE_ID_LENGTH) {
+            // Would not fit the column; the message is still delivered, just without duplicate protection
+            logger.warn("Ignoring over-long client message id from '{}'", message.getSender());
+            message.setClientMessageId(null);
+        }
+        // The id is fixed at ingest and reported in the receipt; the timestamp is the server's, taken from the id
+        long messageId = idGenerator.nextId();
+        message.setId(messageId);
+        message.setTimestamp(SnowflakeIdGenerator.timestampOf(messageId));
+
+        // Returns immediately; the outcome is reported on the Kafka callback thread
+        kafkaProducerService.sendMessage(message).whenComplete((result, ex) -> {
+            if (receiptId != null && sessionId != null) {
+                sendReceipt(sessionId, receiptId, messageId, ex);
+            }
+        });
+    }
+
+    /**
+     * Sends a RECEIPT frame for a SEND frame that asked for one, with a {@code delivery-status} header
+     * of {@code ok} (plus the {@code message-id}) or {@code failed} (plus {@code delivery-error}).
+     */
+    private void sendReceipt(String sessionId, String receiptId, long messageId, Throwable failure) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        accessor.setSessionId(sessionId);
+        accessor.setReceiptId(receiptId);
+        accessor.setNativeHeader("delivery-status", failure == null ? "ok" : "failed");
+        if (failure == null) {
+            accessor.setNativeHeader("message-id", String.valueOf(messageId));
+        }
+        if (failure != null) {
+            Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+            accessor.setNativeHeader("delivery-error", String.valueOf(cause.getMessage()));
+        }
+        clientOutboundChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
     }
 
     @MessageMapping("/chat.typing")
     public void handleTyping(@Payload TypingEvent typingEvent, SimpMessageHeaderAccessor headerAccessor) {
-        String username = headerAccessor.getUser() != null ? headerAccessor.getUser().getName() : "unknown";
-        if (typingEvent.getRoomId() == null || typingEvent.getRoomId().isEmpty()) {
-            logger.warn("Received typing event without roomId from {}: {}", username, typingEvent);
+        // Only the authenticated user, never the name in the payload, so no client can type as someone else
+        String username = headerAccessor.getUser() != null ? headerAccessor.getUser().getName() : null;
+        if (typingEvent.getRoomId() == null || typingEvent.getRoomId().isEmpty() || username == null) {
+            logger.warn("Received typing event without roomId or authenticated user: {}", typingEvent);
             return;
         }
-        logger.info("Received typing event: {} from user: {}", typingEvent, username);
+        logger.debug("Received typing event: {} from user: {}", typingEvent, username);
 
-        String destination = "/topic/typing/" + typingEvent.getRoomId();
-        logger.info("Broadcasting typing event to destination: {}", destination);
-        messagingTemplate.convertAndSend(destination, typingEvent);
+        // Broadcast as part of the room's next typing digest
+        typingAggregator.record(typingEvent.getRoomId(), username, typingEvent.isTyping());
     }
 }
@@ -25,7 +25,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/rooms")
@@ -85,11 +84,7 @@ public class ChatRoomController {
         log.info("Received request to get user rooms");
         User currentUser = getCurrentUser();
         try {
-            List<ChatRoom> rooms = chatRoomService.findRoomsForUser(currentUser);
-            List<ChatRoomDto> roomDtos = rooms.stream()
-                    .map(this::mapToDto)
-                    .collect(Collectors.toList());
-            return ResponseEntity.ok(roomDtos);
+            return ResponseEntity.ok(chatRoomService.findRoomsForUser(currentUser));
         } catch (Exception e) {
             log.error("Unexpected error fetching rooms for user '{}'", currentUser.getUsername(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(List.of());
@@ -103,6 +98,7 @@ public class ChatRoomController {
                 .createdByUsername(room.getCreatedBy() != null ? room.getCreatedBy().getUsername() : null)
                 .createdAt(room.getCreatedAt())
                 .isPublic(room.isPublic())
+                .memberCount((long) room.getMembers().size())
                 .build();
     }
 
@@ -158,11 +154,7 @@ public class ChatRoomController {
         User currentUser = getCurrentUser();
         log.info("Received request for discoverable rooms for user '{}'", currentUser.getUsername());
         try {
-            List<ChatRoom> rooms = chatRoomService.findDiscoverableRooms(currentUser);
-            List<ChatRoomDto> roomDtos = rooms.stream()
-                    .map(this::mapToDto)
-                    .collect(Collectors.toList());
-            return ResponseEntity.ok(roomDtos);
+            return ResponseEntity.ok(chatRoomService.findDiscoverableRooms(currentUser));
         } catch (Exception e) {
             log.error("Unexpected error fetching discoverable rooms for user '{}'", currentUser.getUsername(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(List.of());
@@ -0,0 +1,100 @@
+package com.chatapp.backend.controller;
+
+import com.chatapp.backend.model.DeadLetterMessage;
+import com.chatapp.backend.model.dto.RedriveRequest;
+import com.chatapp.backend.model.dto.RedriveStatusDto;
+import com.chatapp.backend.service.DeadLetterService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/dead-letters")
+@Tag(name = "Dead Letters", description = "Inspect and redrive chat messages that could not be processed (admins only)")
+public class DeadLetterController {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterController.class);
+
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final DeadLetterService deadLetterService;
+    private final List<String> adminUsernames;
+
+    public DeadLetterController(DeadLetterService deadLetterService,
+                                @Value("${app.admin.usernames:}") List<String> adminUsernames) {
+        this.deadLetterService = deadLetterService;
+        this.adminUsernames = adminUsernames;
+    }
+
+    private String requireAdmin() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated() || "anonymousUser".equals(authentication.getPrincipal())) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User not authenticated");
+        }
+        if (!adminUsernames.contains(authentication.getName())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Admin access required");
+        }
+        return authentication.getName();
+    }
+
+    @GetMapping
+    @Operation(summary = "List dead-lettered messages, newest first")
+    @ApiResponse(responseCode = "200", description = "Page of dead letters")
+    @ApiResponse(responseCode = "403", description = "Not an admin")
+    public ResponseEntity<Page<DeadLetterMessage>> getDeadLetters(
+            @Parameter(description = "Only messages of this room") @RequestParam(required = false) String roomId,
+            @Parameter(description = "Only messages sent at or after this ISO-8601 time")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @Parameter(description = "Only messages sent before this ISO-8601 time")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @Parameter(description = "Include messages that were already redriven") @RequestParam(defaultValue = "false") boolean includeRedriven,
+            @Parameter(description = "Page number") @RequestParam(defaultValue = "0") int page,
+            @Parameter(description = "Number of dead letters per page") @RequestParam(defaultValue = "50") int size) {
+        requireAdmin();
+        PageRequest pageRequest = PageRequest.of(Math.max(0, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+        return ResponseEntity.ok(deadLetterService.find(roomId, from, to, includeRedriven, pageRequest));
+    }
+
+    @PostMapping("/redrive")
+    @Operation(summary = "Replay dead letters into the chat-messages topic",
+            description = "Runs in the background at a limited rate; poll GET /redrive for progress.")
+    @ApiResponse(responseCode = "202", description = "Redrive started")
+    @ApiResponse(responseCode = "403", description = "Not an admin")
+    @ApiResponse(responseCode = "409", description = "A redrive is already running")
+    public ResponseEntity<RedriveStatusDto> redrive(@RequestBody(required = false) RedriveRequest request) {
+        String admin = requireAdmin();
+        RedriveRequest criteria = request != null ? request : new RedriveRequest();
+        if (criteria.getFrom() != null && criteria.getTo() != null && !criteria.getFrom().isBefore(criteria.getTo())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "'from' must be before 'to'");
+        }
+        log.info("Admin '{}' requested a redrive: {}", admin, criteria);
+        RedriveStatusDto status = deadLetterService.startRedrive(
+                criteria.getRoomId(), criteria.getFrom(), criteria.getTo(), Math.max(0, criteria.getLimit()));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+    }
+
+    @GetMapping("/redrive")
+    @Operation(summary = "Progress of the current or last redrive")
+    @ApiResponse(responseCode = "200", description = "Redrive status")
+    @ApiResponse(responseCode = "403", description = "Not an admin")
+    public ResponseEntity<RedriveStatusDto> getRedriveStatus() {
+        requireAdmin();
+        return ResponseEntity.ok(deadLetterService.getStatus());
+    }
+}
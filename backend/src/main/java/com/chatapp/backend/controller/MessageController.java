@@ -1,26 +1,55 @@
 package com.chatapp.backend.controller;
 
+import com.chatapp.backend.model.AuthenticatedUser;
 import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.User;
+import com.chatapp.backend.model.dto.MessageSearchHitDto;
+import com.chatapp.backend.model.dto.MessageSearchResultDto;
+import com.chatapp.backend.model.dto.MessageSliceDto;
 import com.chatapp.backend.repository.MessageRepository;
+import com.chatapp.backend.service.RecentMessageBuffer;
+import com.chatapp.backend.service.RoomMembershipCache;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/messages")
 @Tag(name = "Messages", description = "Retrieve Chat Message History")
 public class MessageController {
+
+    private static final int MAX_HISTORY_LIMIT = 100;
+    private static final int MAX_SEARCH_LIMIT = 50;
+    private static final int MAX_SEARCH_QUERY_LENGTH = 200;
+
     private final MessageRepository messageRepository;
+    private final RoomMembershipCache roomMembershipCache;
+    private final RecentMessageBuffer recentMessageBuffer;
 
-    public MessageController(MessageRepository messageRepository) {
+    public MessageController(MessageRepository messageRepository, RoomMembershipCache roomMembershipCache,
+                             RecentMessageBuffer recentMessageBuffer) {
         this.messageRepository = messageRepository;
+        this.roomMembershipCache = roomMembershipCache;
+        this.recentMessageBuffer = recentMessageBuffer;
     }
 
     @Operation(summary = "Get message history for a specific room")
@@ -28,13 +57,186 @@ public class MessageController {
     public ResponseEntity<Page<ChatMessage>> getMessages(
             @Parameter(description = "ID of the chat room", required = true) @RequestParam String roomId,
             @Parameter(description = "Page number") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "Number of messages per page") @RequestParam(defaultValue = "20") int size) {
-
-        return ResponseEntity.ok(
-                messageRepository.findByRoomIdOrderByTimestampDesc(
-                        roomId,
-                        PageRequest.of(page, size)
-                )
-        );
+            @Parameter(description = "Number of messages per page") @RequestParam(defaultValue = "20") int size,
+            Authentication authentication) {
+
+        PageRequest pageRequest = PageRequest.of(page, size);
+        Optional<Long> chatRoomId = roomMembershipCache.findRoomId(roomId);
+        if (chatRoomId.isEmpty()) {
+            return ResponseEntity.ok(Page.empty(pageRequest));
+        }
+        requireMember(authentication, roomId);
+        // The first page is what every room open asks for, usually served from memory
+        if (page == 0) {
+            Optional<List<ChatMessage>> recent = recentMessageBuffer.latest(roomId, chatRoomId.get(), size);
+            if (recent.isPresent()) {
+                // Counted only when the page is full, i.e. the total cannot be told from the page itself
+                return ResponseEntity.ok(PageableExecutionUtils.getPage(recent.get(), pageRequest,
+                        () -> messageRepository.countByChatRoomId(chatRoomId.get())));
+            }
+        }
+        Page<ChatMessage> messages = messageRepository.findByChatRoomIdOrderByIdDesc(chatRoomId.get(), pageRequest);
+        messages.forEach(message -> message.setRoomId(roomId));
+        return ResponseEntity.ok(messages);
+    }
+
+    @Operation(summary = "Get message history for a specific room using a cursor",
+            description = "Returns messages newest first without counting or skipping rows. " +
+                    "Pass the returned nextCursor as 'before' to load the next, older slice.")
+    @ApiResponse(responseCode = "200", description = "Slice of messages, newest first")
+    @ApiResponse(responseCode = "400", description = "Malformed cursor")
+    @ApiResponse(responseCode = "403", description = "Caller is not a member of the room")
+    @GetMapping("/history")
+    public ResponseEntity<MessageSliceDto> getMessageHistory(
+            @Parameter(description = "ID of the chat room", required = true) @RequestParam String roomId,
+            @Parameter(description = "Cursor: a message id or an ISO-8601 timestamp. Only older messages are returned")
+            @RequestParam(required = false) String before,
+            @Parameter(description = "Maximum number of messages to return (1-100)") @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+
+        int sliceSize = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        Optional<Long> chatRoomId = roomMembershipCache.findRoomId(roomId);
+        if (chatRoomId.isEmpty()) {
+            return ResponseEntity.ok(MessageSliceDto.builder().content(List.of()).hasNext(false).build());
+        }
+        requireMember(authentication, roomId);
+        // Fetching one extra row tells us whether an older slice exists, without a COUNT(*)
+        List<ChatMessage> rows;
+        if (StringUtils.hasText(before)) {
+            rows = findBefore(roomId, chatRoomId.get(), before, sliceSize + 1);
+        } else {
+            rows = recentMessageBuffer.latest(roomId, chatRoomId.get(), sliceSize + 1)
+                    .orElseGet(() -> withRoomId(messageRepository.findLatestByChatRoomId(chatRoomId.get(), sliceSize + 1), roomId));
+        }
+
+        boolean hasNext = rows.size() > sliceSize;
+        List<ChatMessage> content = hasNext ? rows.subList(0, sliceSize) : rows;
+
+        return ResponseEntity.ok(MessageSliceDto.builder()
+                .content(content)
+                .hasNext(hasNext)
+                .nextCursor(hasNext ? String.valueOf(content.get(content.size() - 1).getId()) : null)
+                .build());
+    }
+
+    @Operation(summary = "Search the messages of the caller's rooms",
+            description = "Full-text search, best match first, over one room or every room the caller is a member of. " +
+                    "Pass the returned nextCursor as 'after' to load the next page of matches.")
+    @ApiResponse(responseCode = "200", description = "Page of matches with highlighted snippets")
+    @ApiResponse(responseCode = "400", description = "Missing or too long query, or malformed cursor")
+    @GetMapping("/search")
+    public ResponseEntity<MessageSearchResultDto> searchMessages(
+            @Parameter(description = "Search terms: words, \"quoted phrases\", OR, -excluded", required = true) @RequestParam String q,
+            @Parameter(description = "Name of the room to search; all of the caller's rooms if omitted") @RequestParam(required = false) String roomId,
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String after,
+            @Parameter(description = "Maximum number of matches to return (1-50)") @RequestParam(defaultValue = "20") int limit,
+            Authentication authentication) {
+
+        if (!StringUtils.hasText(q) || q.length() > MAX_SEARCH_QUERY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Query must be 1-" + MAX_SEARCH_QUERY_LENGTH + " characters");
+        }
+        Float afterRank = null;
+        Long afterId = null;
+        if (StringUtils.hasText(after)) {
+            int separator = after.lastIndexOf('_');
+            try {
+                afterRank = Float.parseFloat(after.substring(0, Math.max(separator, 0)));
+                afterId = Long.parseLong(after.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor: " + after);
+            }
+        }
+        Long chatRoomId = null;
+        if (StringUtils.hasText(roomId)) {
+            Optional<Long> room = roomMembershipCache.findRoomId(roomId);
+            if (room.isEmpty()) {
+                return ResponseEntity.ok(MessageSearchResultDto.builder().content(List.of()).hasNext(false).build());
+            }
+            chatRoomId = room.get();
+        }
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        List<MessageSearchHitDto> hits = messageRepository.search(
+                authentication.getName(), chatRoomId, q.trim(), afterRank, afterId, pageSize + 1);
+
+        boolean hasNext = hits.size() > pageSize;
+        List<MessageSearchHitDto> content = hasNext ? hits.subList(0, pageSize) : hits;
+        MessageSearchHitDto last = hasNext ? content.get(content.size() - 1) : null;
+
+        return ResponseEntity.ok(MessageSearchResultDto.builder()
+                .content(content)
+                .hasNext(hasNext)
+                .nextCursor(last != null ? last.getRank() + "_" + last.getId() : null)
+                .build());
+    }
+
+    @Operation(summary = "Get the messages of a room newer than a given message",
+            description = "Returns messages oldest first, to catch up from the last message a client has seen. " +
+                    "Pass the returned nextCursor as 'after' to load the next, newer slice.")
+    @ApiResponse(responseCode = "200", description = "Slice of messages, oldest first")
+    @ApiResponse(responseCode = "400", description = "Malformed cursor")
+    @ApiResponse(responseCode = "403", description = "Caller is not a member of the room")
+    @GetMapping("/since")
+    public ResponseEntity<MessageSliceDto> getMessagesSince(
+            @Parameter(description = "ID of the chat room", required = true) @RequestParam String roomId,
+            @Parameter(description = "Id of the last message seen; only newer messages are returned", required = true)
+            @RequestParam String after,
+            @Parameter(description = "Maximum number of messages to return (1-100)") @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+
+        long afterId;
+        try {
+            afterId = Long.parseLong(after);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor: " + after);
+        }
+        int sliceSize = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        Optional<Long> chatRoomId = roomMembershipCache.findRoomId(roomId);
+        if (chatRoomId.isEmpty()) {
+            return ResponseEntity.ok(MessageSliceDto.builder().content(List.of()).hasNext(false).build());
+        }
+        requireMember(authentication, roomId);
+        List<ChatMessage> rows = recentMessageBuffer.after(roomId, chatRoomId.get(), afterId, sliceSize + 1)
+                .orElseGet(() -> withRoomId(messageRepository.findByChatRoomIdAfterId(chatRoomId.get(), afterId, sliceSize + 1), roomId));
+
+        boolean hasNext = rows.size() > sliceSize;
+        List<ChatMessage> content = hasNext ? rows.subList(0, sliceSize) : rows;
+
+        return ResponseEntity.ok(MessageSliceDto.builder()
+                .content(content)
+                .hasNext(hasNext)
+                .nextCursor(hasNext ? String.valueOf(content.get(content.size() - 1).getId()) : null)
+                .build());
+    }
+
+    /**
+     * Only members may read a room's messages, as for subscribing to it and for search.
+     */
+    private void requireMember(Authentication authentication, String roomId) {
+        Object principal = authentication != null ? authentication.getPrincipal() : null;
+        Long userId = principal instanceof AuthenticatedUser authenticatedUser ? authenticatedUser.getId()
+                : principal instanceof User user ? user.getId()
+                : null;
+        if (!roomMembershipCache.isMember(userId, roomId)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Not a member of room " + roomId);
+        }
+    }
+
+    // Rows read from the database only carry the room's id; the buffered ones are shared and already complete
+    private static List<ChatMessage> withRoomId(List<ChatMessage> rows, String roomId) {
+        rows.forEach(message -> message.setRoomId(roomId));
+        return rows;
+    }
+
+    private List<ChatMessage> findBefore(String roomId, long chatRoomId, String before, int limit) {
+        try {
+            // Ids are time-ordered, so a timestamp cursor becomes the lowest id that could be generated at that time
+            long beforeId = before.chars().allMatch(Character::isDigit)
+                    ? Long.parseLong(before)
+                    : SnowflakeIdGenerator.lowestIdAt(Instant.parse(before));
+            return withRoomId(messageRepository.findByChatRoomIdBeforeId(chatRoomId, beforeId, limit), roomId);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed cursor: " + before);
+        }
     }
 }
@@ -1,11 +1,14 @@
 package com.chatapp.backend.filter;
 
+import com.chatapp.backend.model.AuthenticatedUser;
 import com.chatapp.backend.utils.JwtUtils;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -15,10 +18,12 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Optional;
 
 public class JwtAuthFilter extends OncePerRequestFilter {
 
-    @Autowired
+    private static final Logger log = LoggerFactory.getLogger(JwtAuthFilter.class);
+
     private final JwtUtils jwtUtils;
 
     private final UserDetailsService userDetailsService;
@@ -30,41 +35,47 @@ public class JwtAuthFilter extends OncePerRequestFilter {
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
-        System.out.println(">>> JwtAuthFilter processing request: " + request.getRequestURI());
         String token = extractToken(request);
         if (!StringUtils.hasText(token) && request.getRequestURI().startsWith("/ws")) {
             token = request.getParameter("token");
-            if (StringUtils.hasText(token)) {
-                System.out.println(">>> JwtAuthFilter extracted token from query parameter");
-            }
         }
 
-        System.out.println(">>> JwtAuthFilter final token: " + (StringUtils.hasText(token) ? "Present" : "Absent"));
-
-        if (StringUtils.hasText(token) && jwtUtils.validateToken(token)) {
-            System.out.println(">>> JwtAuthFilter: Token present and valid, attempting to set auth.");
-            try {
-                String username = jwtUtils.extractUsername(token);
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(auth);
-                System.out.println(">>> JwtAuthFilter: Authentication set in SecurityContext for: " + username);
-            } catch (Exception e) {
-                System.err.println(">>> JwtAuthFilter: Error during authentication setup: " + e.getMessage());
-                SecurityContextHolder.clearContext();
+        if (StringUtils.hasText(token)) {
+            Optional<Claims> claims = jwtUtils.parseClaims(token);
+            if (claims.isPresent()) {
+                try {
+                    UserDetails userDetails = toPrincipal(claims.get());
+                    UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
+                    auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    SecurityContextHolder.getContext().setAuthentication(auth);
+                    log.debug("Authentication set in SecurityContext for: {}", userDetails.getUsername());
+                } catch (Exception e) {
+                    log.warn("Error during authentication setup: {}", e.getMessage());
+                    SecurityContextHolder.clearContext();
+                }
+            } else {
+                log.debug("Token present but invalid for request: {}", request.getRequestURI());
             }
-        } else if (StringUtils.hasText(token)) {
-            System.out.println(">>> JwtAuthFilter: Token present but INVALID.");
         }
 
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Builds the principal straight from the verified claims. Only tokens issued before the
+     * user id claim was introduced still need a lookup through the {@link UserDetailsService}.
+     */
+    private UserDetails toPrincipal(Claims claims) {
+        Long userId = claims.get(JwtUtils.USER_ID_CLAIM, Long.class);
+        if (userId != null) {
+            return new AuthenticatedUser(userId, claims.getSubject());
+        }
+        return userDetailsService.loadUserByUsername(claims.getSubject());
+    }
+
     private String extractToken(HttpServletRequest request) {
         String header = request.getHeader("Authorization");
         if (header != null && header.startsWith("Bearer ")) {
-            System.out.println(">>> JwtAuthFilter extracted token from Header");
             return header.substring(7);
         }
         return null;
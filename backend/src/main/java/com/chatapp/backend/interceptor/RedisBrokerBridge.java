@@ -0,0 +1,161 @@
+package com.chatapp.backend.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the in-JVM simple broker of every instance into one logical broker, using Redis pub/sub.
+ * <p>
+ * Every message this instance sends to its broker channel is also published to a Redis channel.
+ * The other instances deliver it to their own local subscribers. The user registry and unresolved
+ * user destinations are broadcast the same way, so {@code /user/...} destinations reach users
+ * connected to any instance.
+ */
+public class RedisBrokerBridge implements ChannelInterceptor, MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisBrokerBridge.class);
+
+    // Set while a message received from Redis is handed to the local broker, so it is not published again
+    private static final ThreadLocal<Boolean> DELIVERING_REMOTE = ThreadLocal.withInitial(() -> false);
+
+    static final String BRIDGE_SESSION_ID = "redis-broker-bridge";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final String channel;
+    private final String nodeId;
+    private final MessageChannel brokerChannel;
+    private final MessageHandler userDestinationMessageHandler;
+    private final MessageHandler userRegistryMessageHandler;
+    private final String userDestinationBroadcast;
+    private final String userRegistryBroadcast;
+
+    public RedisBrokerBridge(RedisTemplate<String, String> redisTemplate,
+                             ObjectMapper objectMapper,
+                             String channel,
+                             String nodeId,
+                             MessageChannel brokerChannel,
+                             MessageHandler userDestinationMessageHandler,
+                             MessageHandler userRegistryMessageHandler,
+                             String userDestinationBroadcast,
+                             String userRegistryBroadcast) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.nodeId = nodeId;
+        this.brokerChannel = brokerChannel;
+        this.userDestinationMessageHandler = userDestinationMessageHandler;
+        this.userRegistryMessageHandler = userRegistryMessageHandler;
+        this.userDestinationBroadcast = userDestinationBroadcast;
+        this.userRegistryBroadcast = userRegistryBroadcast;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel messageChannel) {
+        if (DELIVERING_REMOTE.get()) {
+            return message;
+        }
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if ((messageType != null && messageType != SimpMessageType.MESSAGE) || destination == null
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        RelayedMessage relayed = new RelayedMessage(
+                nodeId,
+                destination,
+                contentType != null ? contentType.toString() : null,
+                (String) headers.get(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION),
+                nativeHeaders(headers),
+                payload);
+        try {
+            redisTemplate.convertAndSend(channel, objectMapper.writeValueAsString(relayed));
+        } catch (Exception e) {
+            // Local subscribers still get the message; only the other instances miss it
+            log.error("Failed to publish broker message for destination {} to Redis: {}", destination, e.getMessage());
+        }
+        return message;
+    }
+
+    @Override
+    public void onMessage(org.springframework.data.redis.connection.Message redisMessage, byte[] pattern) {
+        RelayedMessage relayed;
+        try {
+            relayed = objectMapper.readValue(redisMessage.getBody(), RelayedMessage.class);
+        } catch (IOException e) {
+            log.error("Dropping unreadable broker message from Redis: {}", e.getMessage());
+            return;
+        }
+        if (nodeId.equals(relayed.originNodeId())) {
+            return;
+        }
+
+        Message<byte[]> message = toMessage(relayed);
+        DELIVERING_REMOTE.set(true);
+        try {
+            if (relayed.destination().equals(userRegistryBroadcast)) {
+                userRegistryMessageHandler.handleMessage(message);
+            } else if (relayed.destination().equals(userDestinationBroadcast)) {
+                userDestinationMessageHandler.handleMessage(message);
+            } else {
+                brokerChannel.send(message);
+            }
+        } catch (Exception e) {
+            log.error("Failed to deliver broker message for destination {} from node {}: {}",
+                    relayed.destination(), relayed.originNodeId(), e.getMessage());
+        } finally {
+            DELIVERING_REMOTE.remove();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<String>> nativeHeaders(MessageHeaders headers) {
+        return (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+    }
+
+    private Message<byte[]> toMessage(RelayedMessage relayed) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(relayed.destination());
+        // The user destination handler only accepts broadcasts that arrive through a broker session
+        accessor.setSessionId(BRIDGE_SESSION_ID);
+        if (relayed.contentType() != null) {
+            accessor.setContentType(MimeTypeUtils.parseMimeType(relayed.contentType()));
+        }
+        if (relayed.originalDestination() != null) {
+            accessor.setHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, relayed.originalDestination());
+        }
+        if (relayed.nativeHeaders() != null) {
+            relayed.nativeHeaders().forEach((name, values) -> values.forEach(value -> accessor.addNativeHeader(name, value)));
+        }
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(relayed.payload(), accessor.getMessageHeaders());
+    }
+
+    record RelayedMessage(String originNodeId,
+                          String destination,
+                          String contentType,
+                          String originalDestination,
+                          Map<String, List<String>> nativeHeaders,
+                          byte[] payload) {
+    }
+}
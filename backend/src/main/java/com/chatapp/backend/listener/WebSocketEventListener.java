@@ -4,40 +4,76 @@ import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.User;
 import com.chatapp.backend.repository.ChatRoomRepository;
 import com.chatapp.backend.repository.UserRepository;
+import com.chatapp.backend.service.PresenceService;
+import com.chatapp.backend.service.RoomCatchUpService;
+import com.chatapp.backend.service.RoomSnapshotService;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class WebSocketEventListener {
     private static final Logger log = LoggerFactory.getLogger(WebSocketEventListener.class);
 
+    private static final String ROOM_TOPIC_PREFIX = "/topic/chat/";
+    // Subscriptions waiting for their snapshot or catch-up; beyond this they are turned away
+    private static final int ROOM_STATE_QUEUE_CAPACITY = 10_000;
+
     private final SimpMessagingTemplate messagingTemplate;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final PresenceService presenceService;
 
     private final UserRepository userRepository;
     private final ChatRoomRepository chatRoomRepository;
+    private final RoomCatchUpService roomCatchUpService;
+    private final RoomSnapshotService roomSnapshotService;
+    // Reads the room state for subscriptions, so the database and Redis are not waited on by the thread that
+    // handles the client's frames
+    private final ExecutorService roomStateExecutor;
 
     public WebSocketEventListener(SimpMessagingTemplate messagingTemplate,
-                                  RedisTemplate<String, String> redisTemplate,
+                                  PresenceService presenceService,
                                   UserRepository userRepository,
-                                  ChatRoomRepository chatRoomRepository) {
+                                  ChatRoomRepository chatRoomRepository,
+                                  RoomCatchUpService roomCatchUpService,
+                                  RoomSnapshotService roomSnapshotService,
+                                  @Value("${app.websocket.room-state-threads:4}") int roomStateThreads) {
         this.messagingTemplate = messagingTemplate;
-        this.redisTemplate = redisTemplate;
+        this.presenceService = presenceService;
         this.userRepository = userRepository;
         this.chatRoomRepository = chatRoomRepository;
+        this.roomCatchUpService = roomCatchUpService;
+        this.roomSnapshotService = roomSnapshotService;
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, roomStateThreads);
+        this.roomStateExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(ROOM_STATE_QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "room-state-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     @EventListener
@@ -51,28 +87,17 @@ public class WebSocketEventListener {
             return;
         }
 
-        log.info("User connected via WebSocket event: {}", username);
-
-        // 1. Set user as online in Redis
-        redisTemplate.opsForValue().set(getUserOnlineKey(username), "true");
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        log.info("User connected via WebSocket event: {} (session {})", username, sessionId);
 
-        // 2. Find rooms the user is a member of
-        User user = userRepository.findByUsername(username).orElse(null);
-        if (user == null) {
-            log.error("Cannot find user '{}' in repository during connect event!", username);
+        // 1. Count the session; only the user's first session anywhere makes them come online
+        if (!presenceService.sessionConnected(username, sessionId)) {
+            log.debug("User '{}' already online in another session. No presence broadcast.", username);
             return;
         }
 
-        List<ChatRoom> userRooms = chatRoomRepository.findChatRoomsByUserId(user.getId());
-        log.debug("User '{}' is member of rooms: {}", username, userRooms.stream().map(ChatRoom::getName).toList());
-
-        // 3. Broadcast ONLINE status to each room the user is in
-        Map<String, Object> presenceUpdate = Map.of("username", username, "online", true);
-        for (ChatRoom room : userRooms) {
-            String destination = getRoomPresenceTopic(room.getName());
-            log.info("Broadcasting ONLINE status for user '{}' to destination: {}", username, destination);
-            messagingTemplate.convertAndSend(destination, presenceUpdate);
-        }
+        // 2. Broadcast ONLINE status to each room the user is in
+        broadcastPresence(username, true);
     }
 
     @EventListener
@@ -86,30 +111,112 @@ public class WebSocketEventListener {
             return;
         }
 
-        log.info("User disconnected via WebSocket event: {}", username);
+        log.info("User disconnected via WebSocket event: {} (session {})", username, event.getSessionId());
 
-        // 1. Remove user from Redis online status
-        Boolean deleted = redisTemplate.delete(getUserOnlineKey(username));
-        log.debug("Redis key {} deleted: {}", getUserOnlineKey(username), deleted);
+        // 1. Release the session; the user stays online while any other session is open
+        if (!presenceService.sessionDisconnected(username, event.getSessionId())) {
+            log.debug("User '{}' still has open sessions. No presence broadcast.", username);
+            return;
+        }
 
+        // 2. Broadcast OFFLINE status to each room the user was in
+        broadcastPresence(username, false);
+    }
 
-        // 2. Find rooms the user was a member of
+    /**
+     * Sends a room's state to a subscription that asks for it: what a reconnecting client missed
+     * ({@code last-seen-id} header), or the snapshot a client opening the room needs ({@code snapshot} header).
+     * The event is only published for subscriptions that passed authorization, i.e. by members of the room.
+     * The room state is read and sent on {@code roomStateExecutor}; live messages may reach the subscription before
+     * or after it, and clients drop the ones they already have by id.
+     */
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        String lastSeenId = accessor.getFirstNativeHeader(RoomCatchUpService.LAST_SEEN_ID_HEADER);
+        String snapshot = accessor.getFirstNativeHeader(RoomSnapshotService.SNAPSHOT_HEADER);
+        if ((lastSeenId == null && snapshot == null) || destination == null || !destination.startsWith(ROOM_TOPIC_PREFIX)) {
+            return;
+        }
+        String roomName = destination.substring(ROOM_TOPIC_PREFIX.length());
+        if (roomName.isEmpty() || roomName.contains("/")) {
+            return;
+        }
+        // A client that has seen messages only needs the gap, even if it also asked for a snapshot
+        String header = lastSeenId != null ? RoomCatchUpService.LAST_SEEN_ID_HEADER : RoomSnapshotService.SNAPSHOT_HEADER;
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        Runnable send;
+        try {
+            if (lastSeenId != null) {
+                long lastSeen = Long.parseLong(lastSeenId);
+                send = () -> roomCatchUpService.replay(sessionId, subscriptionId, destination, roomName, lastSeen);
+            } else {
+                int messageCount = Integer.parseInt(snapshot);
+                send = () -> roomSnapshotService.send(sessionId, subscriptionId, destination, roomName, messageCount);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed {} header on subscription to {}: {}", header, destination, e.getMessage());
+            return;
+        }
+        try {
+            roomStateExecutor.execute(() -> {
+                try {
+                    send.run();
+                } catch (RuntimeException e) {
+                    log.warn("Could not answer the {} header on subscription to {} of session {}: {}",
+                            header, destination, sessionId, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shed load rather than queue without bound; a client that gets no snapshot loads the room over REST
+            log.warn("Too many subscriptions waiting for room state; not answering {} on {}", header, destination);
+        }
+    }
+
+    /**
+     * Renews the presence leases of this instance's users, and announces the ones that had been reaped while
+     * this instance was too slow to heartbeat and were therefore reported offline.
+     */
+    @Scheduled(fixedRateString = "${app.presence.heartbeat-interval-ms:10000}")
+    @Transactional(readOnly = true)
+    public void renewPresence() {
+        for (String username : presenceService.renewLeases()) {
+            broadcastPresence(username, true);
+        }
+    }
+
+    /**
+     * Announces users whose sessions were lost with an instance that stopped heartbeating.
+     */
+    @Scheduled(fixedDelayString = "${app.presence.reap-interval-ms:5000}")
+    @Transactional(readOnly = true)
+    public void handleExpiredPresence() {
+        for (String username : presenceService.reapExpired()) {
+            broadcastPresence(username, false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        roomStateExecutor.shutdownNow();
+    }
+
+    private void broadcastPresence(String username, boolean online) {
         User user = userRepository.findByUsername(username).orElse(null);
         if (user == null) {
-            log.warn("User '{}' not found during disconnect event. Cannot broadcast offline status to rooms.", username);
+            log.warn("User '{}' not found. Cannot broadcast {} status to rooms.", username, online ? "online" : "offline");
             return;
         }
 
         List<ChatRoom> userRooms = chatRoomRepository.findChatRoomsByUserId(user.getId());
-        log.debug("Broadcasting OFFLINE for user '{}' to rooms: {}", username, userRooms.stream().map(ChatRoom::getName).toList());
-
+        log.debug("Broadcasting {} for user '{}' to rooms: {}", online ? "ONLINE" : "OFFLINE", username,
+                userRooms.stream().map(ChatRoom::getName).toList());
 
-        // 3. Broadcast OFFLINE status to each room the user was in
-        Map<String, Object> presenceUpdate = Map.of("username", username, "online", false);
+        Map<String, Object> presenceUpdate = Map.of("username", username, "online", online);
         for (ChatRoom room : userRooms) {
-            String destination = getRoomPresenceTopic(room.getName());
-            log.info("Broadcasting OFFLINE status for user '{}' to destination: {}", username, destination);
-            messagingTemplate.convertAndSend(destination, presenceUpdate);
+            messagingTemplate.convertAndSend(getRoomPresenceTopic(room.getName()), presenceUpdate);
         }
     }
 
@@ -119,10 +226,6 @@ public class WebSocketEventListener {
         return "anonymous".equals(username) || username == null;
     }
 
-    private String getUserOnlineKey(String username) {
-        return "user:" + username + ":online";
-    }
-
     private String getRoomPresenceTopic(String roomNameOrId) {
         return "/topic/presence/" + roomNameOrId;
     }
@@ -1,8 +1,14 @@
 package com.chatapp.backend.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
 
 import java.io.Serial;
 import java.io.Serializable;
@@ -11,14 +17,17 @@ import java.time.Instant;
 @Entity
 @Data
 @NoArgsConstructor
-@Table(name = "messages")
-public class ChatMessage implements Serializable {
+@Table(name = "messages", indexes = @Index(
+        name = "idx_messages_sender_client_message_id", columnList = "sender, client_message_id"))
+public class ChatMessage implements Serializable, Persistable<Long> {
 
     @Serial
     private static final long serialVersionUID = 4060570159599848356L;
 
+    // Assigned at ingest by SnowflakeIdGenerator, so it orders messages by time and is known before the insert.
+    // Serialized as a string: the ids exceed the integers a JavaScript number can hold exactly
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
 
     @Column(nullable = false)
@@ -27,9 +36,40 @@ public class ChatMessage implements Serializable {
     @Column(nullable = false)
     private String sender;
 
-    @Column(nullable = false)
+    // Room name: the STOMP destination and the Kafka key. Not stored, the table references the room by id
+    @Transient
     private String roomId;
 
+    // chat_rooms.id, resolved from the room name when the message is persisted
+    @Column(name = "room_id", nullable = false)
+    private Long chatRoomId;
+
     @Column(nullable = false)
     private Instant timestamp = Instant.now();
+
+    // Generated by the client per send; identifies redelivered copies of the same message
+    @Column(length = 64)
+    private String clientMessageId;
+
+    @Transient
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient boolean persisted;
+
+    /**
+     * The id is assigned before the insert, so it cannot tell Spring Data whether to persist or merge;
+     * without this every save would SELECT the row first.
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
 }
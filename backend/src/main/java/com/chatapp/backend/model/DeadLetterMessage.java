@@ -0,0 +1,74 @@
+package com.chatapp.backend.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+
+/**
+ * A chat message that ended up on the dead-letter topic, kept so it can be inspected and redriven.
+ */
+@Entity
+@Table(name = "dead_letter_messages")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DeadLetterMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String dltTopic;
+
+    @Column(nullable = false)
+    private int dltPartition;
+
+    @Column(nullable = false)
+    private long dltOffset;
+
+    // Id the message was given at ingest, reused on redrive
+    private Long messageId;
+
+    @Column(nullable = false)
+    private String roomId;
+
+    @Column(nullable = false)
+    private String sender;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content;
+
+    @Column(nullable = false)
+    private Instant messageTimestamp;
+
+    @Column(length = 64)
+    private String clientMessageId;
+
+    @Column(columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private Instant failedAt;
+
+    // Set once the message was published to the main topic again
+    private Instant redrivenAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeadLetterMessage that = (DeadLetterMessage) o;
+        return id != null && id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
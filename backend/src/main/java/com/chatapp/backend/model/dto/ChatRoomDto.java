@@ -1,5 +1,6 @@
 package com.chatapp.backend.model.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 
@@ -7,10 +8,13 @@ import java.time.Instant;
 
 @Data
 @Builder
+@AllArgsConstructor // constructor expression of the ChatRoomRepository room summary queries
 public class ChatRoomDto {
     private Long id;
     private String name;
     private String createdByUsername;
     private Instant createdAt;
     private boolean isPublic;
-}
\ No newline at end of file
+    private Long memberCount;
+    private Instant lastActivityAt; // time of the newest message, null if the room has none
+}
@@ -0,0 +1,22 @@
+package com.chatapp.backend.model.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class MessageSearchHitDto {
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
+    private String roomId;
+    private String sender;
+    private String content;
+    // HTML-escaped excerpt of the content with the matched words wrapped in <mark></mark>
+    private String snippet;
+    private Instant timestamp;
+    private float rank;
+}
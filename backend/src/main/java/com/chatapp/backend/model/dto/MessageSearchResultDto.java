@@ -0,0 +1,16 @@
+package com.chatapp.backend.model.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class MessageSearchResultDto {
+    // Best match first
+    private List<MessageSearchHitDto> content;
+    private boolean hasNext;
+    // Pass back as "after" to fetch the next page of matches; null when there are no more
+    private String nextCursor;
+}
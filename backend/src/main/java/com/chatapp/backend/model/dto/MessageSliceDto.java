@@ -0,0 +1,16 @@
+package com.chatapp.backend.model.dto;
+
+import com.chatapp.backend.model.ChatMessage;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class MessageSliceDto {
+    private List<ChatMessage> content;
+    private boolean hasNext;
+    // Pass back as "before" (history) or "after" (since) to fetch the next slice; null when there is nothing further
+    private String nextCursor;
+}
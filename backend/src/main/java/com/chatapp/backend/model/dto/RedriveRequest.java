@@ -0,0 +1,18 @@
+package com.chatapp.backend.model.dto;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Selects the dead letters to replay. Every field is optional; an empty request replays everything.
+ */
+@Data
+public class RedriveRequest {
+    private String roomId;
+    // Message timestamps, from inclusive and to exclusive
+    private Instant from;
+    private Instant to;
+    // 0 or absent = no limit
+    private int limit;
+}
@@ -0,0 +1,17 @@
+package com.chatapp.backend.model.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class RedriveStatusDto {
+    private boolean running;
+    private int redriven;
+    private int failed;
+    private Instant startedAt;
+    // null while the redrive is running
+    private Instant finishedAt;
+}
@@ -0,0 +1,19 @@
+package com.chatapp.backend.model.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Everything needed to open a room, sent once to a subscription of {@code /topic/chat/{roomId}} that asked for it:
+ * the newest messages, newest first, and the members currently online.
+ */
+@Data
+@Builder
+public class RoomSnapshotDto {
+    private String roomId;
+    // Pass messages.nextCursor as "before" to /api/messages/history to scroll further back
+    private MessageSliceDto messages;
+    private List<String> onlineUsers;
+}
@@ -0,0 +1,16 @@
+package com.chatapp.backend.model.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Everyone currently typing in a room, sent to {@code /topic/typing/{roomId}} whenever that set changes.
+ */
+@Data
+@Builder
+public class TypingDigestDto {
+    private String roomId;
+    private List<String> usernames;
+}
@@ -1,6 +1,7 @@
 package com.chatapp.backend.repository;
 
 import com.chatapp.backend.model.ChatRoom;
+import com.chatapp.backend.model.dto.ChatRoomDto;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -10,11 +11,28 @@ import java.util.Optional;
 
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
 
+    // Shared select list of the room summaries: creator joined, member count and newest message as correlated
+    // subqueries. The newest message is the highest id of the room, one probe of idx_messages_room_id per partition.
+    String ROOM_SUMMARY = "SELECT new com.chatapp.backend.model.dto.ChatRoomDto(cr.id, cr.name, creator.username, " +
+            "cr.createdAt, cr.isPublic, " +
+            "(SELECT COUNT(mb) FROM cr.members mb), " +
+            "(SELECT msg.timestamp FROM ChatMessage msg WHERE msg.chatRoomId = cr.id ORDER BY msg.id DESC LIMIT 1)) " +
+            "FROM ChatRoom cr LEFT JOIN cr.createdBy creator ";
+
     Optional<ChatRoom> findByName(String name);
 
+    @Query("SELECT cr.id FROM ChatRoom cr WHERE cr.name = :name")
+    Optional<Long> findIdByName(@Param("name") String name);
+
     @Query("SELECT cr FROM ChatRoom cr JOIN cr.members m WHERE m.id = :userId")
     List<ChatRoom> findChatRoomsByUserId(@Param("userId") Long userId);
 
+    /**
+     * Summaries of the rooms the user is a member of, in a single statement.
+     */
+    @Query(ROOM_SUMMARY + "WHERE EXISTS (SELECT 1 FROM cr.members m WHERE m.id = :userId)")
+    List<ChatRoomDto> findRoomSummariesByUserId(@Param("userId") Long userId);
+
     /**
      * Finds ChatRooms that are public (isPublic = true) and where the user with the given userId
      * is NOT a member.
@@ -26,4 +44,11 @@ public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     @Query("SELECT cr FROM ChatRoom cr WHERE cr.isPublic = true AND NOT EXISTS " +
             "(SELECT 1 FROM cr.members m WHERE m.id = :userId)")
     List<ChatRoom> findDiscoverableRoomsForUser(@Param("userId") Long userId);
-}
\ No newline at end of file
+
+    /**
+     * Summaries of the rooms returned by {@link #findDiscoverableRoomsForUser(Long)}, in a single statement.
+     */
+    @Query(ROOM_SUMMARY + "WHERE cr.isPublic = true AND NOT EXISTS " +
+            "(SELECT 1 FROM cr.members m WHERE m.id = :userId)")
+    List<ChatRoomDto> findDiscoverableRoomSummariesForUser(@Param("userId") Long userId);
+}
@@ -0,0 +1,44 @@
+package com.chatapp.backend.repository;
+
+import com.chatapp.backend.model.DeadLetterMessage;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface DeadLetterMessageRepository extends JpaRepository<DeadLetterMessage, Long> {
+
+    boolean existsByDltTopicAndDltPartitionAndDltOffset(String dltTopic, int dltPartition, long dltOffset);
+
+    // Every filter is optional; from is inclusive, to exclusive
+    @Query("SELECT d FROM DeadLetterMessage d " +
+            "WHERE (:roomId IS NULL OR d.roomId = :roomId) " +
+            "AND (:from IS NULL OR d.messageTimestamp >= :from) " +
+            "AND (:to IS NULL OR d.messageTimestamp < :to) " +
+            "AND (:includeRedriven = true OR d.redrivenAt IS NULL) " +
+            "ORDER BY d.messageTimestamp DESC, d.id DESC")
+    Page<DeadLetterMessage> search(@Param("roomId") String roomId,
+                                   @Param("from") Instant from,
+                                   @Param("to") Instant to,
+                                   @Param("includeRedriven") boolean includeRedriven,
+                                   Pageable pageable);
+
+    /**
+     * Next slice of messages still waiting for a redrive, oldest first, after the given id.
+     */
+    @Query("SELECT d FROM DeadLetterMessage d " +
+            "WHERE d.redrivenAt IS NULL AND d.id > :afterId " +
+            "AND (:roomId IS NULL OR d.roomId = :roomId) " +
+            "AND (:from IS NULL OR d.messageTimestamp >= :from) " +
+            "AND (:to IS NULL OR d.messageTimestamp < :to) " +
+            "ORDER BY d.id")
+    List<DeadLetterMessage> findRedriveCandidates(@Param("roomId") String roomId,
+                                                  @Param("from") Instant from,
+                                                  @Param("to") Instant to,
+                                                  @Param("afterId") long afterId,
+                                                  Pageable pageable);
+}
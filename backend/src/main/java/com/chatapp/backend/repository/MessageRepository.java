@@ -4,10 +4,50 @@ import com.chatapp.backend.model.ChatMessage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
-public interface MessageRepository extends JpaRepository<ChatMessage, Long> {
-    List<ChatMessage> findByRoomId(String roomId); // Find messages by chat room ID
-    Page<ChatMessage> findByRoomIdOrderByTimestampDesc(String roomId, Pageable pageable);
+/**
+ * History reads and the duplicate check deliberately run outside read-only transactions, so they stay on the primary
+ * even when read replicas are configured: messages are inserted by the Kafka consumer, which does not pin its readers
+ * to the primary, so a replica may not have a message its sender just saw acknowledged (see
+ * {@link com.chatapp.backend.config.ReplicaRoutingDataSource}). Full-text search runs on a replica.
+ */
+public interface MessageRepository extends JpaRepository<ChatMessage, Long>, MessageRepositoryCustom {
+    // Ordered by id, the partition key, so the newest partitions are read first and older ones only when needed
+    Page<ChatMessage> findByChatRoomIdOrderByIdDesc(Long chatRoomId, Pageable pageable);
+
+    boolean existsBySenderAndClientMessageId(String sender, String clientMessageId);
+
+    long countByChatRoomId(Long chatRoomId);
+
+    /**
+     * Newest messages of a room, without OFFSET or COUNT(*). Ids are time-ordered, so this is a range scan of
+     * idx_messages_room_id in the newest partition, moving on to older partitions only while the limit is not reached.
+     */
+    @Query(value = "SELECT * FROM messages WHERE room_id = :chatRoomId " +
+            "ORDER BY id DESC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> findLatestByChatRoomId(@Param("chatRoomId") long chatRoomId, @Param("limit") int limit);
+
+    /**
+     * Keyset page: messages of a room with an id below the cursor, i.e. older ones, newest first. The bound on the
+     * partition key lets the executor skip every partition newer than the cursor.
+     */
+    @Query(value = "SELECT * FROM messages WHERE room_id = :chatRoomId AND id < :beforeId " +
+            "ORDER BY id DESC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> findByChatRoomIdBeforeId(@Param("chatRoomId") long chatRoomId,
+                                               @Param("beforeId") long beforeId,
+                                               @Param("limit") int limit);
+
+    /**
+     * Messages of a room with an id above the cursor, i.e. newer ones, oldest first. Used to catch up from the last
+     * message a client has seen.
+     */
+    @Query(value = "SELECT * FROM messages WHERE room_id = :chatRoomId AND id > :afterId " +
+            "ORDER BY id ASC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> findByChatRoomIdAfterId(@Param("chatRoomId") long chatRoomId,
+                                              @Param("afterId") long afterId,
+                                              @Param("limit") int limit);
 }
@@ -0,0 +1,42 @@
+package com.chatapp.backend.repository;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.dto.MessageSearchHitDto;
+
+import java.util.List;
+
+public interface MessageRepositoryCustom {
+
+    /**
+     * Persists the given messages with multi-row INSERT statements instead of one round trip per message.
+     * Every message must already carry its id (see {@link com.chatapp.backend.utils.SnowflakeIdGenerator})
+     * and the id of its room.
+     *
+     * @param messages The messages to insert.
+     * @return The same messages, in their original order.
+     */
+    List<ChatMessage> insertAll(List<ChatMessage> messages);
+
+    /**
+     * Streams the given messages into {@code messages} with a single binary {@code COPY ... FROM STDIN}, which skips
+     * statement parsing and per-row parameter binding and is the fastest way to load large batches. The copy is
+     * atomic: if any row is rejected (e.g. a duplicate) none is stored. Falls back to {@link #insertAll} when the
+     * database is not PostgreSQL. Every message must already carry its id and room id.
+     *
+     * @param messages The messages to insert.
+     * @return The same messages, in their original order.
+     */
+    List<ChatMessage> copyAll(List<ChatMessage> messages);
+
+    /**
+     * Full-text search over the messages of the rooms the user is a member of, best match first. Membership is
+     * part of the query (a join on user_chat_room), so messages of other rooms are never read.
+     *
+     * @param chatRoomId Restricts the search to one room, or null for all of the user's rooms.
+     * @param query      Search terms in web search syntax: words, "quoted phrases", OR, -excluded.
+     * @param afterRank  Rank of the last hit of the previous page, or null for the first page.
+     * @param afterId    Id of the last hit of the previous page, or null for the first page.
+     * @param limit      Maximum number of hits.
+     */
+    List<MessageSearchHitDto> search(String username, Long chatRoomId, String query, Float afterRank, Long afterId, int limit);
+}
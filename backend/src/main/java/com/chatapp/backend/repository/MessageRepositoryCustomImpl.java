@@ -0,0 +1,210 @@
+package com.chatapp.backend.repository;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.dto.MessageSearchHitDto;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageRepositoryCustomImpl implements MessageRepositoryCustom {
+
+    // Keeps a single statement well below the PostgreSQL limit of 32767 bind parameters (6 per row).
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private static final String INSERT_PREFIX = "INSERT INTO messages (id, content, sender, room_id, timestamp, client_message_id) VALUES ";
+
+    private static final String COPY_SQL =
+            "COPY messages (id, content, sender, room_id, timestamp, client_message_id) FROM STDIN (FORMAT BINARY)";
+
+    // Rows are encoded into this much memory before they are sent to the server as one CopyData message
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    // Binary COPY file format: signature, flags and header extension length, see the PostgreSQL COPY docs
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final short COPY_FIELD_COUNT = 6;
+    private static final Instant POSTGRES_EPOCH = Instant.parse("2000-01-01T00:00:00Z");
+
+    // ts_headline marks matches with control characters, which survive HTML escaping and then become <mark> tags
+    private static final String MATCH_START = "\u0002";
+    private static final String MATCH_STOP = "\u0003";
+    private static final String HEADLINE_OPTIONS =
+            "StartSel=" + MATCH_START + ", StopSel=" + MATCH_STOP + ", MaxFragments=2, MaxWords=20, MinWords=5";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MessageRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<ChatMessage> insertAll(List<ChatMessage> messages) {
+        for (int from = 0; from < messages.size(); from += MAX_ROWS_PER_STATEMENT) {
+            insertChunk(messages.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, messages.size())));
+        }
+        return messages;
+    }
+
+    @Override
+    public List<ChatMessage> copyAll(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return messages;
+        }
+        boolean copied = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            if (!connection.isWrapperFor(PGConnection.class)) {
+                return false;
+            }
+            copy(connection.unwrap(PGConnection.class), messages);
+            return true;
+        }));
+        if (!copied) {
+            return insertAll(messages);
+        }
+        messages.forEach(message -> message.setPersisted(true));
+        return messages;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MessageSearchHitDto> search(String username, Long chatRoomId, String query, Float afterRank, Long afterId, int limit) {
+        List<Object> params = new ArrayList<>();
+        // Ranks and pages the matches first, so ts_headline (the expensive part) runs for the returned page only
+        StringBuilder sql = new StringBuilder("""
+                WITH q AS (SELECT websearch_to_tsquery('simple', ?) AS query),
+                page AS (
+                    SELECT m.id, m.room_id, m.sender, m.content, m.timestamp, ts_rank(m.content_tsv, q.query) AS rank
+                    FROM q, messages m
+                    JOIN user_chat_room ucr ON ucr.chat_room_id = m.room_id
+                    JOIN users u ON u.id = ucr.user_id
+                    WHERE u.username = ? AND m.content_tsv @@ q.query""");
+        params.add(query);
+        params.add(username);
+        if (chatRoomId != null) {
+            sql.append(" AND m.room_id = ?");
+            params.add(chatRoomId);
+        }
+        if (afterRank != null && afterId != null) {
+            sql.append(" AND (ts_rank(m.content_tsv, q.query) < ? OR (ts_rank(m.content_tsv, q.query) = ? AND m.id < ?))");
+            params.add(afterRank);
+            params.add(afterRank);
+            params.add(afterId);
+        }
+        sql.append("""
+
+                    ORDER BY rank DESC, m.id DESC
+                    LIMIT ?
+                )
+                SELECT page.id, r.name, page.sender, page.content, page.timestamp, page.rank,
+                       ts_headline('simple', page.content, q.query, ?) AS snippet
+                FROM page JOIN chat_rooms r ON r.id = page.room_id, q
+                ORDER BY page.rank DESC, page.id DESC""");
+        params.add(limit);
+        params.add(HEADLINE_OPTIONS);
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> MessageSearchHitDto.builder()
+                .id(rs.getLong(1))
+                .roomId(rs.getString(2))
+                .sender(rs.getString(3))
+                .content(rs.getString(4))
+                .timestamp(rs.getTimestamp(5).toInstant())
+                .rank(rs.getFloat(6))
+                .snippet(HtmlUtils.htmlEscape(rs.getString(7))
+                        .replace(MATCH_START, "<mark>")
+                        .replace(MATCH_STOP, "</mark>"))
+                .build(), params.toArray());
+    }
+
+    private void copy(PGConnection connection, List<ChatMessage> messages) throws SQLException {
+        PGCopyOutputStream copyOut = new PGCopyOutputStream(connection, COPY_SQL, COPY_BUFFER_BYTES);
+        try {
+            DataOutputStream out = new DataOutputStream(copyOut);
+            out.write(COPY_SIGNATURE);
+            out.writeInt(0);
+            out.writeInt(0);
+            for (ChatMessage message : messages) {
+                writeRow(out, message);
+            }
+            out.writeShort(-1);
+            copyOut.endCopy();
+        } catch (IOException e) {
+            throw new SQLException("Could not stream messages to COPY", e);
+        } finally {
+            if (copyOut.isActive()) {
+                copyOut.cancelCopy();
+            }
+        }
+    }
+
+    private void writeRow(DataOutputStream out, ChatMessage message) throws IOException {
+        requireKeys(message);
+        if (message.getTimestamp() == null) {
+            message.setTimestamp(Instant.now());
+        }
+        out.writeShort(COPY_FIELD_COUNT);
+        out.writeInt(Long.BYTES);
+        out.writeLong(message.getId());
+        writeText(out, message.getContent());
+        writeText(out, message.getSender());
+        out.writeInt(Long.BYTES);
+        out.writeLong(message.getChatRoomId());
+        // timestamptz travels as microseconds since 2000-01-01 UTC
+        out.writeInt(Long.BYTES);
+        out.writeLong(ChronoUnit.MICROS.between(POSTGRES_EPOCH, message.getTimestamp()));
+        writeText(out, message.getClientMessageId());
+    }
+
+    private static void requireKeys(ChatMessage message) {
+        if (message.getId() == null || message.getChatRoomId() == null) {
+            throw new IllegalArgumentException("Message and room ids are assigned by the application before insert");
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void insertChunk(List<ChatMessage> chunk) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?)");
+        }
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql.toString());
+            int index = 1;
+            for (ChatMessage message : chunk) {
+                requireKeys(message);
+                if (message.getTimestamp() == null) {
+                    message.setTimestamp(Instant.now());
+                }
+                ps.setLong(index++, message.getId());
+                ps.setString(index++, message.getContent());
+                ps.setString(index++, message.getSender());
+                ps.setLong(index++, message.getChatRoomId());
+                ps.setTimestamp(index++, Timestamp.from(message.getTimestamp()));
+                ps.setString(index++, message.getClientMessageId());
+            }
+            return ps;
+        });
+        chunk.forEach(message -> message.setPersisted(true));
+    }
+}
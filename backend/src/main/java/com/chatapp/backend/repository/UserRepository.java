@@ -2,7 +2,10 @@ package com.chatapp.backend.repository;
 
 import com.chatapp.backend.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -11,4 +14,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
 
     boolean existsByUsernameAndChatRooms_Id(String username, Long chatRoomId);
+
+    @Query("SELECT u.id FROM User u JOIN u.chatRooms cr WHERE cr.id = :chatRoomId")
+    List<Long> findIdsByChatRoomId(@Param("chatRoomId") Long chatRoomId);
+
+    @Query("SELECT u.username FROM User u JOIN u.chatRooms cr WHERE cr.id = :chatRoomId ORDER BY u.username")
+    List<String> findUsernamesByChatRoomId(@Param("chatRoomId") Long chatRoomId);
 }
@@ -5,13 +5,13 @@ import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.InvitationStatus;
 import com.chatapp.backend.model.RoomInvitation;
 import com.chatapp.backend.model.User;
+import com.chatapp.backend.model.dto.ChatRoomDto;
 import com.chatapp.backend.model.dto.CreateChatRoomRequest;
 import com.chatapp.backend.repository.ChatRoomRepository;
 import com.chatapp.backend.repository.RoomInvitationRepository;
 import com.chatapp.backend.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.http.HttpStatus;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
@@ -21,7 +21,6 @@ import org.springframework.web.server.ResponseStatusException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 @Service
 public class ChatRoomService {
@@ -30,17 +29,28 @@ public class ChatRoomService {
 
     private final ChatRoomRepository chatRoomRepository;
     private final UserRepository userRepository;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final PresenceService presenceService;
 
     private final RoomInvitationRepository roomInvitationRepository;
     private final SimpMessagingTemplate messagingTemplate;
+    private final RoomMembershipCache roomMembershipCache;
 
-    public ChatRoomService(ChatRoomRepository chatRoomRepository, UserRepository userRepository, RedisTemplate<String, String> redisTemplate, RoomInvitationRepository roomInvitationRepository, SimpMessagingTemplate messagingTemplate) {
+    public ChatRoomService(ChatRoomRepository chatRoomRepository, UserRepository userRepository, PresenceService presenceService, RoomInvitationRepository roomInvitationRepository, SimpMessagingTemplate messagingTemplate, RoomMembershipCache roomMembershipCache) {
         this.chatRoomRepository = chatRoomRepository;
         this.userRepository = userRepository;
-        this.redisTemplate = redisTemplate;
+        this.presenceService = presenceService;
         this.roomInvitationRepository = roomInvitationRepository;
         this.messagingTemplate = messagingTemplate;
+        this.roomMembershipCache = roomMembershipCache;
+    }
+
+    /**
+     * Membership check for the hot subscribe path, answered from {@link RoomMembershipCache}.
+     */
+    public boolean isUserMemberOfRoom(Long userId, String roomName) {
+        boolean isMember = roomMembershipCache.isMember(userId, roomName);
+        log.debug("Cached membership check: User ID {} in room '{}' -> {}", userId, roomName, isMember);
+        return isMember;
     }
 
     @Transactional(readOnly = true)
@@ -87,14 +97,14 @@ public class ChatRoomService {
     }
 
     @Transactional(readOnly = true)
-    public List<ChatRoom> findRoomsForUser(User user) {
+    public List<ChatRoomDto> findRoomsForUser(User user) {
         if (user == null || user.getId() == null) {
             log.warn("Cannot fetch rooms for null user or user without ID.");
             return List.of();
         }
         log.debug("Fetching rooms for user '{}' (ID: {})", user.getUsername(), user.getId());
 
-        List<ChatRoom> rooms = chatRoomRepository.findChatRoomsByUserId(user.getId());
+        List<ChatRoomDto> rooms = chatRoomRepository.findRoomSummariesByUserId(user.getId());
         log.debug("Found {} rooms for user '{}'", rooms.size(), user.getUsername());
         return rooms;
     }
@@ -127,6 +137,7 @@ public class ChatRoomService {
 
         managedUser.getChatRooms().add(room);
         userRepository.save(managedUser);
+        roomMembershipCache.invalidate(room.getName());
 
         log.info("User '{}' successfully joined room '{}' (ID: {})", managedUser.getUsername(), room.getName(), room.getId());
     }
@@ -159,18 +170,19 @@ public class ChatRoomService {
 
         managedUser.getChatRooms().remove(room);
         userRepository.save(managedUser);
+        roomMembershipCache.invalidate(room.getName());
 
         log.info("User '{}' successfully left room '{}' (ID: {})", managedUser.getUsername(), room.getName(), room.getId());
     }
 
     @Transactional(readOnly = true)
-    public List<ChatRoom> findDiscoverableRooms(User user) {
+    public List<ChatRoomDto> findDiscoverableRooms(User user) {
         if (user == null || user.getId() == null) {
             log.warn("Cannot find discoverable rooms for null user or user without ID.");
             return List.of();
         }
         log.debug("Finding discoverable rooms for user '{}' (ID: {})", user.getUsername(), user.getId());
-        List<ChatRoom> rooms = chatRoomRepository.findDiscoverableRoomsForUser(user.getId());
+        List<ChatRoomDto> rooms = chatRoomRepository.findDiscoverableRoomSummariesForUser(user.getId());
         log.debug("Found {} discoverable rooms for user '{}'", rooms.size(), user.getUsername());
         return rooms;
     }
@@ -178,21 +190,19 @@ public class ChatRoomService {
     @Transactional(readOnly = true)
     public List<String> getOnlineMembers(Long roomId) {
         log.debug("Fetching online members for room ID: {}", roomId);
-        ChatRoom room = chatRoomRepository.findById(roomId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Room not found"));
+        if (!chatRoomRepository.existsById(roomId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Room not found");
+        }
 
-        Set<User> members = room.getMembers();
-        if (members.isEmpty()) {
+        List<String> memberUsernames = userRepository.findUsernamesByChatRoomId(roomId);
+        if (memberUsernames.isEmpty()) {
             return List.of();
         }
 
-        // Check Redis for online status of each member
-        List<String> onlineUsernames = members.stream()
-                .map(User::getUsername)
-                .filter(username -> Boolean.TRUE.equals(redisTemplate.hasKey("user:" + username + ":online")))
-                .toList();
+        // One SMISMEMBER against the online set for the whole room
+        List<String> onlineUsernames = presenceService.filterOnline(memberUsernames);
 
-        log.debug("Found online members for room ID {}: {}", roomId, onlineUsernames);
+        log.debug("Found {} of {} members online for room ID {}", onlineUsernames.size(), memberUsernames.size(), roomId);
         return onlineUsernames;
     }
 
@@ -273,6 +283,7 @@ public class ChatRoomService {
         if (!room.getMembers().contains(managedUserAccepting)) {
             managedUserAccepting.getChatRooms().add(room);
             userRepository.save(managedUserAccepting);
+            roomMembershipCache.invalidate(room.getName());
             log.info("User '{}' added to room '{}' members after accepting invitation.", managedUserAccepting.getUsername(), room.getName());
         } else {
             log.warn("User '{}' was already a member of room '{}' upon accepting invite.", managedUserAccepting.getUsername(), room.getName());
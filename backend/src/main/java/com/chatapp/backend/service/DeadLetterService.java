@@ -0,0 +1,201 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.DeadLetterMessage;
+import com.chatapp.backend.model.dto.RedriveStatusDto;
+import com.chatapp.backend.repository.DeadLetterMessageRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps dead-lettered chat messages in the database and replays them into the main topic on request.
+ * <p>
+ * A redrive runs in the background, one at a time, and publishes at most {@code app.kafka.redrive.max-per-second}
+ * messages per second so that a large replay does not crowd out live traffic on the consumers. Each message is
+ * marked as redriven once Kafka acknowledged it, so an interrupted redrive can simply be started again.
+ * Redriven messages keep the id they were given at ingest.
+ */
+@Service
+public class DeadLetterService {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterService.class);
+
+    private static final int REDRIVE_PAGE_SIZE = 100;
+
+    private final DeadLetterMessageRepository deadLetterMessageRepository;
+    private final KafkaTemplate<String, ChatMessage> kafkaTemplate;
+    private final String messagesTopic;
+    private final int maxPerSecond;
+
+    private final ExecutorService redriveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dlt-redrive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger redriven = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    public DeadLetterService(DeadLetterMessageRepository deadLetterMessageRepository,
+                             KafkaTemplate<String, ChatMessage> kafkaTemplate,
+                             @Value("${app.kafka.topics.chat-messages}") String messagesTopic,
+                             @Value("${app.kafka.redrive.max-per-second:50}") int maxPerSecond) {
+        this.deadLetterMessageRepository = deadLetterMessageRepository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.messagesTopic = messagesTopic;
+        this.maxPerSecond = Math.max(1, maxPerSecond);
+    }
+
+    /**
+     * Stores a record received on the DLT. A record delivered again (same topic, partition and offset) is ignored.
+     */
+    public void record(ChatMessage message, String dltTopic, int dltPartition, long dltOffset, String errorMessage) {
+        if (deadLetterMessageRepository.existsByDltTopicAndDltPartitionAndDltOffset(dltTopic, dltPartition, dltOffset)) {
+            log.debug("Dead letter {}-{}@{} is already stored", dltTopic, dltPartition, dltOffset);
+            return;
+        }
+        deadLetterMessageRepository.save(DeadLetterMessage.builder()
+                .dltTopic(dltTopic)
+                .dltPartition(dltPartition)
+                .dltOffset(dltOffset)
+                .messageId(message.getId())
+                .roomId(message.getRoomId())
+                .sender(message.getSender())
+                .content(message.getContent())
+                .messageTimestamp(message.getTimestamp() != null ? message.getTimestamp() : Instant.now())
+                .clientMessageId(message.getClientMessageId())
+                .errorMessage(errorMessage)
+                .build());
+    }
+
+    public Page<DeadLetterMessage> find(String roomId, Instant from, Instant to, boolean includeRedriven, Pageable pageable) {
+        return deadLetterMessageRepository.search(roomId, from, to, includeRedriven, pageable);
+    }
+
+    /**
+     * Starts replaying the matching messages that were not redriven yet, oldest first.
+     *
+     * @param limit maximum number of messages to replay, or 0 for all matching ones
+     * @throws ResponseStatusException with 409 if a redrive is already running
+     */
+    public RedriveStatusDto startRedrive(String roomId, Instant from, Instant to, int limit) {
+        if (!running.compareAndSet(false, true)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "A redrive is already running");
+        }
+        redriven.set(0);
+        failed.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+        log.info("Starting redrive of dead letters (room={}, from={}, to={}, limit={}) at {} msg/s", roomId, from, to, limit, maxPerSecond);
+        redriveExecutor.execute(() -> {
+            try {
+                redrive(roomId, from, to, limit);
+            } catch (RuntimeException e) {
+                log.error("Redrive aborted after {} message(s)", redriven.get(), e);
+            } finally {
+                finishedAt = Instant.now();
+                running.set(false);
+            }
+        });
+        return getStatus();
+    }
+
+    public RedriveStatusDto getStatus() {
+        return RedriveStatusDto.builder()
+                .running(running.get())
+                .redriven(redriven.get())
+                .failed(failed.get())
+                .startedAt(startedAt)
+                .finishedAt(finishedAt)
+                .build();
+    }
+
+    /**
+     * Replays the matching messages on the calling thread, paced to {@code maxPerSecond}.
+     *
+     * @return the number of messages redriven
+     */
+    int redrive(String roomId, Instant from, Instant to, int limit) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+        long nextSendAt = System.nanoTime();
+        long afterId = 0;
+        int attempted = 0;
+
+        while (limit <= 0 || attempted < limit) {
+            int pageSize = limit <= 0 ? REDRIVE_PAGE_SIZE : Math.min(REDRIVE_PAGE_SIZE, limit - attempted);
+            List<DeadLetterMessage> page = deadLetterMessageRepository.findRedriveCandidates(
+                    roomId, from, to, afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (DeadLetterMessage deadLetter : page) {
+                // Pacing against a fixed schedule rather than sleeping a fixed time keeps the average rate exact
+                long waitNanos = nextSendAt - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                nextSendAt = Math.max(nextSendAt, System.nanoTime() - intervalNanos) + intervalNanos;
+
+                attempted++;
+                afterId = deadLetter.getId();
+                if (send(deadLetter)) {
+                    deadLetter.setRedrivenAt(Instant.now());
+                    redriven.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+            }
+            deadLetterMessageRepository.saveAll(page);
+        }
+        log.info("Redrive finished: {} redriven, {} failed", redriven.get(), failed.get());
+        return redriven.get();
+    }
+
+    private boolean send(DeadLetterMessage deadLetter) {
+        ChatMessage message = new ChatMessage();
+        // Keeps the id, so a copy that was stored after all is dropped as a duplicate by the consumer
+        message.setId(deadLetter.getMessageId());
+        message.setRoomId(deadLetter.getRoomId());
+        message.setSender(deadLetter.getSender());
+        message.setContent(deadLetter.getContent());
+        message.setTimestamp(deadLetter.getMessageTimestamp());
+        message.setClientMessageId(deadLetter.getClientMessageId());
+        try {
+            kafkaTemplate.send(messagesTopic, message.getRoomId(), message).get(10, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Could not redrive dead letter {}: {}", deadLetter.getId(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Redrive interrupted", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        redriveExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,38 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Delivers persisted chat messages to the STOMP broker.
+ * With the in-JVM {@code simple} broker every instance consumes the broadcast topic in its own consumer group,
+ * so each node sees every message. With a shared broker ({@code relay} or {@code redis}) the instances share one
+ * group instead, since a message handed to the broker once already reaches subscribers on every node.
+ * Persistence stays in the shared group of {@link KafkaConsumerService}.
+ */
+@Service
+public class KafkaBroadcastConsumerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaBroadcastConsumerService.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public KafkaBroadcastConsumerService(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    // Live delivery only: a node that (re)joins starts from the latest offset instead of replaying history
+    @KafkaListener(id = "chat-broadcast", topics = "${app.kafka.topics.chat-broadcast}",
+            groupId = "#{'${app.websocket.broker.mode:simple}' == 'simple' ? 'chat-backend-broadcast-' + @nodeIdentity.nodeId : 'chat-backend-broadcast'}",
+            containerFactory = "broadcastKafkaListenerContainerFactory",
+            properties = {"auto.offset.reset=latest"})
+    public void broadcastMessage(ChatMessage message) {
+        String destination = "/topic/chat/" + message.getRoomId();
+        logger.debug("[KafkaBroadcastConsumerService] Broadcasting message {} to destination: {}", message.getId(), destination);
+        messagingTemplate.convertAndSend(destination, message);
+    }
+}
@@ -2,56 +2,366 @@ package com.chatapp.backend.service;
 
 import com.chatapp.backend.model.ChatMessage;
 import com.chatapp.backend.repository.MessageRepository;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.annotation.DltHandler;
+import org.springframework.kafka.annotation.DltStrategy;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.RetryableTopic;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.retry.annotation.Backoff;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Persists chat messages in the consumer group shared by all instances, so each message is stored once.
+ * Saved messages are then republished to the broadcast topic, which every instance consumes in its own
+ * group (see {@link KafkaBroadcastConsumerService}) to reach the STOMP sessions connected to it.
+ * <p>
+ * A record that fails is not retried in place, which would stall every room on its partition. It moves on to
+ * retry topics with growing delays ({@code chat-messages-retry-1000}, {@code chat-messages-retry-10000} by default)
+ * and finally to the DLT, while the records behind it keep flowing. A retried message can therefore be stored
+ * after later messages of its room. Each tier counts its outcomes in {@code chat.messages.consumed}.
+ * <p>
+ * Redelivered copies of a message (same sender and client message id) are acknowledged and dropped before they
+ * are stored or broadcast: first by the in-memory {@link MessageDeduplicator} window, then by the database, which
+ * rejects a second message with the same sender and client message id ({@code message_dedup}) or id. A record
+ * rejected on its id is only dropped if the stored row has the same sender and client message id.
+ * <p>
+ * A record is only acknowledged once its message is on the broadcast topic. If publishing fails the record fails
+ * too, and when it comes back its message, already stored under the same id, is published again instead of being
+ * dropped as a copy. Subscribers may then see it twice and drop it by id.
+ */
 @Service
 public class KafkaConsumerService {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerService.class);
 
     private final MessageRepository messageRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final KafkaTemplate<String, ChatMessage> kafkaTemplate;
+    private final DeadLetterService deadLetterService;
+    private final MessageDeduplicator messageDeduplicator;
+    private final RoomMembershipCache roomMembershipCache;
+    private final SnowflakeIdGenerator idGenerator;
+    private final MeterRegistry meterRegistry;
+    private final String messagesTopic;
+    private final String broadcastTopic;
+    private final int copyThreshold;
 
-    public KafkaConsumerService(MessageRepository messageRepository, SimpMessagingTemplate messagingTemplate) {
+    public KafkaConsumerService(MessageRepository messageRepository,
+                                KafkaTemplate<String, ChatMessage> kafkaTemplate,
+                                DeadLetterService deadLetterService,
+                                MessageDeduplicator messageDeduplicator,
+                                RoomMembershipCache roomMembershipCache,
+                                SnowflakeIdGenerator idGenerator,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.kafka.topics.chat-messages}") String messagesTopic,
+                                @Value("${app.kafka.topics.chat-broadcast}") String broadcastTopic,
+                                @Value("${app.kafka.consumer.batch.copy-threshold:200}") int copyThreshold) {
         this.messageRepository = messageRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.kafkaTemplate = kafkaTemplate;
+        this.deadLetterService = deadLetterService;
+        this.messageDeduplicator = messageDeduplicator;
+        this.roomMembershipCache = roomMembershipCache;
+        this.idGenerator = idGenerator;
+        this.meterRegistry = meterRegistry;
+        this.messagesTopic = messagesTopic;
+        this.broadcastTopic = broadcastTopic;
+        this.copyThreshold = copyThreshold;
     }
 
-    @KafkaListener(topics = "${app.kafka.topics.chat-messages}", groupId = "chat-backend-group")
-    public void consumeMessage(ChatMessage message, Acknowledgment acknowledgment) {
+    // attempts counts the first delivery: 3 = main topic, two retry topics, then the DLT
+    @RetryableTopic(
+            attempts = "${app.kafka.retry.attempts:3}",
+            backoff = @Backoff(delayExpression = "${app.kafka.retry.delay-ms:1000}",
+                    multiplierExpression = "${app.kafka.retry.multiplier:10}"),
+            dltTopicSuffix = "-dlt",
+            numPartitions = "${app.kafka.topics.partitions:6}",
+            replicationFactor = "${app.kafka.topics.replicas:1}",
+            kafkaTemplate = "kafkaTemplate",
+            exclude = IllegalArgumentException.class,
+            traversingCauses = "true",
+            autoStartDltHandler = "true",
+            // A record the DLT handler cannot take is never published back to the DLT, which would loop forever
+            dltStrategy = DltStrategy.FAIL_ON_ERROR)
+    @KafkaListener(id = "chat-messages", topics = "${app.kafka.topics.chat-messages}", groupId = "chat-backend-group",
+            autoStartup = "#{!${app.kafka.consumer.batch.enabled:false}}")
+    public void consumeMessage(ChatMessage message, @Header(KafkaHeaders.RECEIVED_TOPIC) String topic, Acknowledgment acknowledgment) {
+        String tier = tier(topic);
         try {
-            logger.info("[KafkaConsumerService] Consumed message for room '{}': {}", message.getRoomId(), message);
+            logger.info("[KafkaConsumerService] Consumed message for room '{}' ({}): {}", message.getRoomId(), tier, message);
+            if (messageDeduplicator.isDuplicate(message)) {
+                skipDuplicate(message, tier, acknowledgment);
+                return;
+            }
 
-            ChatMessage savedMessage = messageRepository.save(message);
+            ChatMessage savedMessage;
+            try {
+                savedMessage = messageRepository.save(withKeys(message));
+            } catch (DataIntegrityViolationException e) {
+                savedMessage = resolveConflict(message, e);
+                if (savedMessage == null) {
+                    skipDuplicate(message, tier, acknowledgment);
+                    return;
+                }
+            }
             logger.info("[KafkaConsumerService] Saved message to DB: {}", savedMessage);
 
-            String destination = "/topic/chat/" + savedMessage.getRoomId();
-            logger.info("[KafkaConsumerService] Broadcasting message to destination: {}", destination);
-            messagingTemplate.convertAndSend(destination, savedMessage);
+            publishForBroadcast(List.of(savedMessage));
 
             acknowledgment.acknowledge();
+            countConsumed(tier, "success");
         } catch (Exception e) {
-            logger.error("[KafkaConsumerService] Failed to process message: {}. Error: {}", message, e.getMessage(), e);
+            logger.error("[KafkaConsumerService] Failed to process message ({}): {}. Error: {}", tier, message, e.getMessage(), e);
+            countConsumed(tier, "failure");
 
             throw new KafkaException("Processing failed for message, triggering error handler", e);
         }
     }
 
-    @KafkaListener(topics = "${app.kafka.topics.chat-messages-dlt}", groupId = "chat-backend-dlt-group")
-    public void consumeDeadLetterMessage(ChatMessage message, Acknowledgment acknowledgment) {
+    /**
+     * Batch alternative to {@link #consumeMessage}, enabled with {@code app.kafka.consumer.batch.enabled}.
+     * A whole poll is written with one multi-row insert, or streamed with {@code COPY} once it holds at least
+     * {@code app.kafka.consumer.batch.copy-threshold} messages, then published for broadcast in poll order (which keeps
+     * each room's order, as a room lives on a single partition) and acknowledged once. If the bulk insert
+     * fails the records are persisted one by one, so the offending record can be reported to the error
+     * handler and dead-lettered without losing its neighbours; a record rejected as a duplicate is skipped.
+     */
+    @KafkaListener(id = "chat-messages-batch", topics = "${app.kafka.topics.chat-messages}", groupId = "chat-backend-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${app.kafka.consumer.batch.enabled:false}",
+            properties = {
+                    "max.poll.records=${app.kafka.consumer.batch.max-poll-records:500}",
+                    "fetch.max.wait.ms=${app.kafka.consumer.batch.fetch-max-wait-ms:100}",
+                    "fetch.min.bytes=${app.kafka.consumer.batch.fetch-min-bytes:1}"
+            })
+    public void consumeMessageBatch(List<ConsumerRecord<String, ChatMessage>> records, Acknowledgment acknowledgment) {
+        logger.debug("[KafkaConsumerService] Consumed batch of {} records", records.size());
+
+        List<ChatMessage> messages = new ArrayList<>(records.size());
+        // Position of each kept message in the poll, for reporting a failed record to the error handler
+        List<Integer> recordIndexes = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ChatMessage message = records.get(i).value();
+            if (message == null) {
+                // ErrorHandlingDeserializer hands us a null value for records it could not deserialize
+                throw new BatchListenerFailedException("Record could not be deserialized",
+                        new IllegalArgumentException("Null chat message payload"), i);
+            }
+            if (messageDeduplicator.isDuplicate(message)) {
+                countConsumed("main", "duplicate");
+                continue;
+            }
+            try {
+                messages.add(withKeys(message));
+            } catch (IllegalArgumentException e) {
+                // Store what precedes the record, which the error handler commits before dead-lettering it
+                persistAndPublish(messages, recordIndexes);
+                throw new BatchListenerFailedException("Message cannot be persisted", e, i);
+            }
+            recordIndexes.add(i);
+        }
+
+        persistAndPublish(messages, recordIndexes);
+        acknowledgment.acknowledge();
+    }
+
+    private void persistAndPublish(List<ChatMessage> messages, List<Integer> recordIndexes) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<ChatMessage> savedMessages;
+        try {
+            savedMessages = copyThreshold > 0 && messages.size() >= copyThreshold
+                    ? messageRepository.copyAll(messages)
+                    : messageRepository.insertAll(messages);
+            logger.debug("[KafkaConsumerService] Bulk inserted {} messages", savedMessages.size());
+        } catch (Exception e) {
+            logger.warn("[KafkaConsumerService] Bulk insert of {} messages failed, falling back to per-record persistence. Error: {}",
+                    messages.size(), e.getMessage());
+            savedMessages = saveIndividually(messages, recordIndexes);
+        }
+
+        publishForBroadcast(savedMessages);
+    }
+
+    /**
+     * Stores dead letters for inspection and redrive (see {@link DeadLetterService}). Records dead-lettered by the
+     * batch listener arrive here as well. A record that cannot be stored is logged in full, counted as
+     * {@code outcome=unstored} and acknowledged, so it does not block the records behind it.
+     */
+    @DltHandler
+    public void consumeDeadLetterMessage(ChatMessage message,
+                                         @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+                                         @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
+                                         @Header(KafkaHeaders.OFFSET) long offset,
+                                         @Header(name = KafkaHeaders.DLT_EXCEPTION_MESSAGE, required = false) byte[] exceptionMessage,
+                                         Acknowledgment acknowledgment) {
         logger.error("[DLT Consumer] Received dead-letter message: {}", message);
-        logger.error("DLT Message Details - ID: {}, Sender: {}, Room: {}, Timestamp: {}",
-                message.getId(), message.getSender(), message.getRoomId(), message.getTimestamp());
+        try {
+            logger.error("DLT Message Details - ID: {}, Sender: {}, Room: {}, Timestamp: {}",
+                    message.getId(), message.getSender(), message.getRoomId(), message.getTimestamp());
+            deadLetterService.record(message, topic, partition, offset,
+                    exceptionMessage != null ? new String(exceptionMessage, StandardCharsets.UTF_8) : null);
+        } catch (RuntimeException e) {
+            logger.error("[DLT Consumer] Could not store dead letter {}-{}@{}, dropping it: {}", topic, partition, offset, message, e);
+            acknowledgment.acknowledge();
+            countConsumed("dlt", "unstored");
+            return;
+        }
+        acknowledgment.acknowledge();
+        countConsumed("dlt", "dead-lettered");
+    }
 
+    private List<ChatMessage> saveIndividually(List<ChatMessage> messages, List<Integer> recordIndexes) {
+        List<ChatMessage> savedMessages = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                ChatMessage savedMessage;
+                try {
+                    savedMessage = messageRepository.save(messages.get(i));
+                } catch (DataIntegrityViolationException e) {
+                    savedMessage = resolveConflict(messages.get(i), e);
+                }
+                if (savedMessage == null) {
+                    logger.debug("[KafkaConsumerService] Skipping duplicate message at batch index {}", recordIndexes.get(i));
+                    countConsumed("main", "duplicate");
+                    continue;
+                }
+                savedMessages.add(savedMessage);
+            } catch (Exception e) {
+                int recordIndex = recordIndexes.get(i);
+                logger.error("[KafkaConsumerService] Failed to process message at batch index {}: {}. Error: {}",
+                        recordIndex, messages.get(i), e.getMessage(), e);
+                // Everything before the failed record is persisted and will be committed by the error handler
+                publishForBroadcast(savedMessages);
+                throw new BatchListenerFailedException("Processing failed for message, triggering error handler", e, recordIndex);
+            }
+        }
+        return savedMessages;
+    }
+
+    /**
+     * Resolves the room id from the room name the message carries. Messages are given their id at ingest, which a
+     * dead-letter redrive keeps; the few without one (e.g. dead letters recorded before ids were kept) get one here.
+     *
+     * @throws IllegalArgumentException if the room does not exist; not retried, the message goes to the DLT
+     */
+    private ChatMessage withKeys(ChatMessage message) {
+        if (message.getChatRoomId() == null) {
+            message.setChatRoomId(roomMembershipCache.findRoomId(message.getRoomId())
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown room '" + message.getRoomId() + "'")));
+        }
+        if (message.getId() == null) {
+            message.setId(idGenerator.nextId());
+        }
+        return message;
+    }
+
+    /**
+     * Handles a constraint violation on saving the message.
+     *
+     * @return the message itself if it is already stored under its id, i.e. its record is redelivered and the
+     * message has to be published again; null if a copy is stored under another id, i.e. the client sent it twice;
+     * the message saved under a new id if its id belongs to a different message, which takes two instances
+     * generating ids with the same worker id
+     * @throws DataIntegrityViolationException the original violation in any other case
+     */
+    private ChatMessage resolveConflict(ChatMessage message, DataIntegrityViolationException violation) {
+        Optional<ChatMessage> storedWithId;
+        boolean storedUnderAnotherId;
+        try {
+            storedWithId = message.getId() != null ? messageRepository.findById(message.getId()) : Optional.empty();
+            // Only a stored row from the same sender with the same client message id is a copy of this message
+            if (storedWithId.isPresent() && isSameMessage(storedWithId.get(), message)) {
+                logger.info("[KafkaConsumerService] Message {} is already stored, publishing it again", message.getId());
+                return message;
+            }
+            storedUnderAnotherId = message.getClientMessageId() != null
+                    && messageRepository.existsBySenderAndClientMessageId(message.getSender(), message.getClientMessageId());
+        } catch (Exception e) {
+            logger.warn("[KafkaConsumerService] Could not check for a stored copy of message {}: {}", message.getClientMessageId(), e.getMessage());
+            throw violation;
+        }
+        if (storedUnderAnotherId) {
+            return null;
+        }
+        if (storedWithId.isEmpty()) {
+            throw violation;
+        }
+        long takenId = message.getId();
+        message.setId(idGenerator.nextId());
+        logger.error("[KafkaConsumerService] Id {} of message {} from '{}' belongs to another message, storing it as {}",
+                takenId, message.getClientMessageId(), message.getSender(), message.getId());
+        return messageRepository.save(message);
+    }
+
+    private static boolean isSameMessage(ChatMessage stored, ChatMessage message) {
+        return Objects.equals(stored.getSender(), message.getSender())
+                && Objects.equals(stored.getClientMessageId(), message.getClientMessageId())
+                && (message.getClientMessageId() != null || Objects.equals(stored.getContent(), message.getContent()));
+    }
+
+    private void skipDuplicate(ChatMessage message, String tier, Acknowledgment acknowledgment) {
+        logger.info("[KafkaConsumerService] Dropping duplicate of message {} from '{}'", message.getClientMessageId(), message.getSender());
         acknowledgment.acknowledge();
+        countConsumed(tier, "duplicate");
+    }
+
+    /**
+     * @return "main" for the main topic, otherwise the topic suffix, e.g. "retry-1000".
+     */
+    private String tier(String topic) {
+        return topic != null && topic.startsWith(messagesTopic + "-") ? topic.substring(messagesTopic.length() + 1) : "main";
+    }
+
+    private void countConsumed(String tier, String outcome) {
+        meterRegistry.counter("chat.messages.consumed", "tier", tier, "outcome", outcome).increment();
     }
 
+    /**
+     * Publishes saved messages to the broadcast topic, in order, and waits until Kafka has all of them, which the
+     * producer's {@code delivery.timeout.ms} bounds. Only then are they marked as persisted, so a record whose
+     * message failed to publish is not dropped as a copy when it comes back.
+     *
+     * @throws KafkaException if any of them could not be published; the records are not to be acknowledged
+     */
+    private void publishForBroadcast(List<ChatMessage> savedMessages) {
+        if (savedMessages.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<SendResult<String, ChatMessage>>> sends = new ArrayList<>(savedMessages.size());
+        for (ChatMessage savedMessage : savedMessages) {
+            logger.debug("[KafkaConsumerService] Publishing saved message {} for broadcast to room '{}'", savedMessage.getId(), savedMessage.getRoomId());
+            sends.add(kafkaTemplate.send(broadcastTopic, savedMessage.getRoomId(), savedMessage));
+        }
+        try {
+            CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            logger.error("[KafkaConsumerService] Failed to publish {} message(s) for broadcast: {}", savedMessages.size(), e.getCause().getMessage());
+            throw new KafkaException("Failed to publish saved messages for broadcast", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Interrupted while publishing saved messages for broadcast", e);
+        }
+        savedMessages.forEach(messageDeduplicator::markPersisted);
+    }
 }
@@ -1,27 +1,220 @@
 package com.chatapp.backend.service;
 
 import com.chatapp.backend.model.ChatMessage;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.RetriableException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Publishes chat messages to Kafka without blocking the caller.
+ * <p>
+ * {@code KafkaTemplate.send} can block for up to {@code max.block.ms} while metadata is fetched or the producer
+ * buffer is full, so sends are handed to a dedicated thread. A single thread keeps the submission order, and
+ * with it the order of each room. At most {@code app.kafka.producer.max-in-flight} messages may be pending;
+ * beyond that a send fails fast with a {@link RejectedExecutionException} instead of queueing without bound.
+ * <p>
+ * When Kafka is unreachable, messages go to the {@link MessageSpool} instead and count as accepted. While the spool
+ * holds anything, new messages queue up behind it so that rooms keep their order, and {@link #drainSpool()}
+ * replays it on the send thread once the broker answers again.
+ */
 @Service
 public class KafkaProducerService {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaProducerService.class);
 
     private final KafkaTemplate<String, ChatMessage> kafkaTemplate;
+    private final MessageSpool spool;
     private final String topic;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final int drainBatchSize;
+    private final long drainTimeoutMs;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kafka-send");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public KafkaProducerService(KafkaTemplate<String, ChatMessage> kafkaTemplate, @Value("${app.kafka.topics.chat-messages}") String topic) {
+    public KafkaProducerService(KafkaTemplate<String, ChatMessage> kafkaTemplate,
+                                MessageSpool spool,
+                                @Value("${app.kafka.topics.chat-messages}") String topic,
+                                @Value("${app.kafka.producer.max-in-flight:10000}") int maxInFlight,
+                                @Value("${app.kafka.spool.drain-batch-size:500}") int drainBatchSize,
+                                @Value("${app.kafka.spool.drain-timeout-ms:15000}") long drainTimeoutMs) {
         this.kafkaTemplate = kafkaTemplate;
+        this.spool = spool;
         this.topic = topic;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.drainBatchSize = drainBatchSize;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    /**
+     * @return Completes once the broker acknowledged the message (with a {@code null} result if it was spooled
+     *         instead), or exceptionally if it was rejected or failed for good.
+     */
+    public CompletableFuture<SendResult<String, ChatMessage>> sendMessage(ChatMessage message) {
+        if (!inFlight.tryAcquire()) {
+            logger.warn("[KafkaProducerService] Rejecting message for room {}: {} messages already in flight", message.getRoomId(), maxInFlight);
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many messages in flight, try again later"));
+        }
+        logger.debug("[KafkaProducerService] Sending message to Kafka: {}", message);
+
+        CompletableFuture<SendResult<String, ChatMessage>> result;
+        try {
+            result = CompletableFuture
+                    .supplyAsync(() -> dispatch(message), sendExecutor)
+                    .thenCompose(Function.identity());
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((sendResult, ex) -> {
+            inFlight.release();
+            if (ex != null) {
+                logger.error("[KafkaProducerService] Failed to send message for room {}: {}", message.getRoomId(), ex.getMessage());
+            }
+        });
+    }
+
+    private CompletableFuture<SendResult<String, ChatMessage>> dispatch(ChatMessage message) {
+        if (!spool.isEmpty()) {
+            return spoolMessage(message);
+        }
+        CompletableFuture<SendResult<String, ChatMessage>> sent;
+        try {
+            // Keyed by room so all messages of a room land on the same partition and stay ordered
+            sent = kafkaTemplate.send(topic, message.getRoomId(), message);
+        } catch (KafkaException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent.handle((sendResult, ex) -> {
+            if (ex == null) {
+                return CompletableFuture.completedFuture(sendResult);
+            }
+            return isTransient(ex) ? spoolMessage(message) : CompletableFuture.<SendResult<String, ChatMessage>>failedFuture(ex);
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<SendResult<String, ChatMessage>> spoolMessage(ChatMessage message) {
+        if (spool.append(message)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Kafka is unavailable and the local spool is full"));
+    }
+
+    /**
+     * Starts replaying the spool if it holds messages and no replay is running yet. Each run sends one batch and
+     * only removes it from the spool once Kafka acknowledged all of it, so a message may be sent twice but is never lost.
+     * A message Kafka rejects for good, e.g. one that is too large, is dropped with an error instead of blocking the
+     * spool, as it would have failed the same way had it been sent live.
+     */
+    @Scheduled(fixedDelayString = "${app.kafka.spool.drain-interval-ms:1000}")
+    public void drainSpool() {
+        if (spool.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sendExecutor.execute(this::drainBatch);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+        }
+    }
+
+    private void drainBatch() {
+        boolean more = false;
+        try {
+            MessageSpool.Batch batch = spool.peek(drainBatchSize);
+            if (!batch.isEmpty()) {
+                List<CompletableFuture<SendResult<String, ChatMessage>>> sends = batch.messages().stream()
+                        .map(this::sendSpooled)
+                        .toList();
+                // Waits for every send, whether it failed or not
+                CompletableFuture.allOf(sends.stream()
+                                .map(send -> send.handle((sendResult, ex) -> null))
+                                .toArray(CompletableFuture[]::new))
+                        .get(drainTimeoutMs, TimeUnit.MILLISECONDS);
+                int dropped = 0;
+                for (int i = 0; i < sends.size(); i++) {
+                    Throwable failure = sends.get(i).handle((sendResult, ex) -> ex).join();
+                    if (failure == null) {
+                        continue;
+                    }
+                    if (isTransient(failure)) {
+                        // The whole batch is sent again
+                        throw new ExecutionException(failure);
+                    }
+                    ChatMessage message = batch.messages().get(i);
+                    logger.error("[KafkaProducerService] Dropping spooled message {} for room {}, Kafka does not accept it: {}",
+                            message.getClientMessageId(), message.getRoomId(), failure.getMessage());
+                    dropped++;
+                }
+                spool.commit(batch);
+                logger.info("[KafkaProducerService] Replayed {} spooled message(s), dropped {}, {} left",
+                        batch.messages().size() - dropped, dropped, spool.pendingMessages());
+            }
+            more = !spool.isEmpty();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("[KafkaProducerService] Kafka still unavailable, {} message(s) remain spooled: {}", spool.pendingMessages(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (more) {
+                // Back of the queue, so live messages waiting meanwhile are spooled in between rather than starved
+                try {
+                    sendExecutor.execute(this::drainBatch);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            } else {
+                draining.set(false);
+            }
+        }
+    }
+
+    private CompletableFuture<SendResult<String, ChatMessage>> sendSpooled(ChatMessage message) {
+        try {
+            return kafkaTemplate.send(topic, message.getRoomId(), message);
+        } catch (KafkaException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Failures that go away once the broker is reachable again, as opposed to e.g. a record that cannot be serialized.
+     */
+    private static boolean isTransient(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void sendMessage(ChatMessage message) {
-        logger.info("[KafkaProducerService] Sending message to Kafka: {}", message);
-        kafkaTemplate.send(topic, message);
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdown();
     }
 }
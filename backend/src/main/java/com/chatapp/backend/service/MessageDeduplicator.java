@@ -0,0 +1,64 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Remembers the client message ids persisted recently, so the consumer can drop redelivered copies of a message
+ * before they reach the database or the broadcast topic.
+ * <p>
+ * The window is bounded in size and age (least recently used entries go first), and it only knows what this
+ * instance persisted. A copy that gets past it (after a rebalance or restart) is rejected by the database: a
+ * redelivered copy by the primary key, as it carries the id assigned at ingest, and a message the client sent twice
+ * by the unique {@code (sender, client_message_id)} claim in {@code message_dedup}. Messages without a client id are
+ * never considered duplicates.
+ */
+@Component
+public class MessageDeduplicator {
+
+    static final String CACHE_NAME = "message-dedup";
+
+    private final Cache<String, Boolean> recentlyPersisted;
+
+    public MessageDeduplicator(MeterRegistry meterRegistry,
+                               @Value("${app.kafka.consumer.dedup.window-minutes:10}") long windowMinutes,
+                               @Value("${app.kafka.consumer.dedup.max-entries:100000}") long maxEntries) {
+        this.recentlyPersisted = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(windowMinutes))
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, recentlyPersisted, CACHE_NAME);
+    }
+
+    public boolean isDuplicate(ChatMessage message) {
+        String key = key(message);
+        return key != null && recentlyPersisted.getIfPresent(key) != null;
+    }
+
+    /**
+     * Records a message once it is persisted. Marking only after the write means a message whose save failed
+     * is not mistaken for a duplicate when it comes back from a retry topic.
+     */
+    public void markPersisted(ChatMessage message) {
+        String key = key(message);
+        if (key != null) {
+            recentlyPersisted.put(key, Boolean.TRUE);
+        }
+    }
+
+    // Scoped to the sender, matching the database constraint, so one client cannot shadow another's ids
+    private static String key(ChatMessage message) {
+        if (message.getClientMessageId() == null || message.getSender() == null) {
+            return null;
+        }
+        return message.getSender() + '\u0000' + message.getClientMessageId();
+    }
+}
@@ -0,0 +1,167 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the monthly partitions of {@code messages}, which is range-partitioned by id (ids are time-ordered,
+ * see {@link SnowflakeIdGenerator}).
+ * <p>
+ * At startup and then daily it creates the partitions for the current and the next
+ * {@code app.messages.partitions.premade-months} months, so inserts never find their month missing, and removes
+ * partitions whose messages are all older than {@code app.messages.partitions.retention-months}. Expired partitions
+ * are detached, which keeps them as plain tables for archiving, or dropped, and the client message id claims of
+ * their messages are deleted from {@code message_dedup}. Instances take a Postgres advisory lock,
+ * so only one of them does the work.
+ */
+@Service
+public class MessagePartitionManager {
+
+    private static final Logger log = LoggerFactory.getLogger(MessagePartitionManager.class);
+
+    private static final long ADVISORY_LOCK_KEY = 0x6d73_6770_6172_7473L; // "msgparts"
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'messages_y'yyyy'm'MM");
+    private static final Pattern BOUNDS = Pattern.compile("FROM \\('?(MINVALUE|-?\\d+)'?\\) TO \\('?(MAXVALUE|-?\\d+)'?\\)");
+
+    private static final String LIST_PARTITIONS_SQL = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid)
+            FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'messages'::regclass""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+    private final boolean enabled;
+    private final int premadeMonths;
+    private final int retentionMonths;
+    private final boolean dropExpired;
+
+    @Autowired
+    public MessagePartitionManager(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${app.messages.partitions.enabled:true}") boolean enabled,
+                                   @Value("${app.messages.partitions.premade-months:3}") int premadeMonths,
+                                   @Value("${app.messages.partitions.retention-months:0}") int retentionMonths,
+                                   @Value("${app.messages.partitions.expired:detach}") String expired) {
+        this(jdbcTemplate, transactionManager, Clock.systemUTC(), enabled, premadeMonths, retentionMonths, expired);
+    }
+
+    MessagePartitionManager(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Clock clock,
+                            boolean enabled, int premadeMonths, int retentionMonths, String expired) {
+        if (!"detach".equals(expired) && !"drop".equals(expired)) {
+            throw new IllegalArgumentException("app.messages.partitions.expired must be 'detach' or 'drop' but was '" + expired + "'");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clock = clock;
+        this.enabled = enabled;
+        this.premadeMonths = Math.max(1, premadeMonths);
+        this.retentionMonths = retentionMonths;
+        this.dropExpired = "drop".equals(expired);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        maintainPartitions();
+    }
+
+    @Scheduled(cron = "${app.messages.partitions.cron:0 15 3 * * *}", zone = "UTC")
+    public void maintainPartitions() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, ADVISORY_LOCK_KEY))) {
+                    log.debug("Message partitions are being maintained by another instance");
+                    return;
+                }
+                List<Partition> partitions = jdbcTemplate.query(LIST_PARTITIONS_SQL,
+                        (rs, rowNum) -> Partition.parse(rs.getString(1), rs.getString(2)));
+                createUpcoming(partitions);
+                removeExpired(partitions);
+            });
+        } catch (RuntimeException e) {
+            log.error("Could not maintain the partitions of messages", e);
+        }
+    }
+
+    private void createUpcoming(List<Partition> partitions) {
+        YearMonth current = YearMonth.now(clock);
+        for (int i = 0; i <= premadeMonths; i++) {
+            YearMonth month = current.plusMonths(i);
+            long from = firstIdOf(month);
+            long to = firstIdOf(month.plusMonths(1));
+            // Months already covered, e.g. by the partition created from the pre-partitioning table, are skipped
+            if (partitions.stream().anyMatch(partition -> partition.from() < to && from < partition.to())) {
+                continue;
+            }
+            String name = PARTITION_NAME.format(month);
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF messages FOR VALUES FROM (" + from + ") TO (" + to + ")");
+            log.info("Created message partition {} for {}", name, month);
+        }
+    }
+
+    private void removeExpired(List<Partition> partitions) {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        long cutoff = firstIdOf(YearMonth.now(clock).minusMonths(retentionMonths));
+        long removedBelow = Long.MIN_VALUE;
+        for (Partition partition : partitions) {
+            if (partition.to() > cutoff) {
+                continue;
+            }
+            removedBelow = Math.max(removedBelow, partition.to());
+            jdbcTemplate.execute("ALTER TABLE messages DETACH PARTITION " + partition.name());
+            if (dropExpired) {
+                jdbcTemplate.execute("DROP TABLE " + partition.name());
+                log.info("Dropped expired message partition {}", partition.name());
+            } else {
+                log.info("Detached expired message partition {}", partition.name());
+            }
+        }
+        if (removedBelow > Long.MIN_VALUE) {
+            int claims = jdbcTemplate.update("DELETE FROM message_dedup WHERE message_id < ?", removedBelow);
+            log.info("Deleted {} client message id claims of expired messages", claims);
+        }
+    }
+
+    private static long firstIdOf(YearMonth month) {
+        return SnowflakeIdGenerator.lowestIdAt(month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    /**
+     * A partition of {@code messages} and the ids it holds, {@code from} inclusive and {@code to} exclusive.
+     */
+    record Partition(String name, long from, long to) {
+
+        static Partition parse(String name, String bound) {
+            Matcher matcher = BOUNDS.matcher(bound);
+            if (!matcher.find()) {
+                throw new IllegalStateException("Unexpected bound of message partition " + name + ": " + bound);
+            }
+            return new Partition(name,
+                    "MINVALUE".equals(matcher.group(1)) ? Long.MIN_VALUE : Long.parseLong(matcher.group(1)),
+                    "MAXVALUE".equals(matcher.group(2)) ? Long.MAX_VALUE : Long.parseLong(matcher.group(2)));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead spool on local disk for chat messages that could not be handed to Kafka.
+ * <p>
+ * Messages are appended to memory-mapped segment files of {@code segment-bytes} each, as
+ * {@code [length][crc32][json]} records; a zero length marks the end of the written part of a segment.
+ * Because the segments are mapped, an appended message survives a crash of the JVM straight away; the pages are
+ * forced to disk every {@code fsync-interval-ms}, so only an OS crash or power loss can lose the last interval.
+ * <p>
+ * Reading is two-step: {@link #peek(int)} returns the oldest messages without removing them and
+ * {@link #commit(Batch)} removes them once they are safely in Kafka. The read position is kept in a checkpoint
+ * file, so a restart resumes where draining stopped. Fully drained segments are deleted, and once
+ * {@code max-bytes} worth of segments exist new messages are rejected.
+ */
+@Component
+public class MessageSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSpool.class);
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int CHECKPOINT_BYTES = Long.BYTES + Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Messages read by {@link #peek(int)}, committed together. {@code records} also counts the unreadable records
+     * that were skipped, so committing a batch without messages still moves past them.
+     */
+    public record Batch(List<ChatMessage> messages, int records, long segmentId, int endOffset) {
+        public boolean isEmpty() {
+            return records == 0;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    private final Counter appendedCounter;
+    private final Counter drainedCounter;
+    private final Counter rejectedCounter;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private MappedByteBuffer checkpoint;
+
+    private long writeSegmentId;
+    private int writeOffset;
+    private long readSegmentId;
+    private int readOffset;
+    private long pendingMessages;
+    private boolean dirty;
+
+    public MessageSpool(ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.kafka.spool.dir:./data/spool}") String directory,
+                        @Value("${app.kafka.spool.segment-bytes:16777216}") int segmentBytes,
+                        @Value("${app.kafka.spool.max-bytes:268435456}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.directory = Path.of(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+
+        this.appendedCounter = Counter.builder("chat.spool.appended")
+                .description("Messages written to the local spool because Kafka was unavailable")
+                .register(meterRegistry);
+        this.drainedCounter = Counter.builder("chat.spool.drained")
+                .description("Spooled messages handed to Kafka")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("chat.spool.rejected")
+                .description("Messages rejected because the spool was full")
+                .register(meterRegistry);
+        Gauge.builder("chat.spool.pending", this, MessageSpool::pendingMessages)
+                .description("Messages waiting in the spool")
+                .register(meterRegistry);
+        Gauge.builder("chat.spool.disk.bytes", this, spool -> (double) spool.segmentCount() * spool.segmentBytes)
+                .description("Disk space taken by spool segments")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public synchronized void open() {
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = tryLock(lockChannel);
+            if (lock == null) {
+                throw new IllegalStateException("Spool directory " + directory + " is in use by another instance");
+            }
+            checkpoint = map(directory.resolve("checkpoint"), CHECKPOINT_BYTES);
+
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                    segments.put(segmentId(file), map(file, segmentBytes));
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.put(0L, map(segmentPath(0L), segmentBytes));
+            }
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open spool in " + directory, e);
+        }
+    }
+
+    /**
+     * Restores the read position from the checkpoint and finds the end of the written data by scanning the
+     * unread records; a torn or corrupt record ends the scan, so it is overwritten by the next append.
+     */
+    private void recover() {
+        long checkpointSegment = checkpoint.getLong(0);
+        int checkpointOffset = checkpoint.getInt(Long.BYTES);
+        if (segments.containsKey(checkpointSegment)) {
+            readSegmentId = checkpointSegment;
+            readOffset = checkpointOffset;
+        } else {
+            readSegmentId = segments.firstKey();
+            readOffset = 0;
+        }
+        // Segments before the checkpoint were drained but not yet deleted
+        segments.headMap(readSegmentId).keySet().stream().toList().forEach(this::deleteSegment);
+
+        pendingMessages = 0;
+        for (Map.Entry<Long, MappedByteBuffer> entry : segments.entrySet()) {
+            int offset = entry.getKey() == readSegmentId ? readOffset : 0;
+            while (recordLength(entry.getValue(), offset) > 0) {
+                offset += HEADER_BYTES + recordLength(entry.getValue(), offset);
+                pendingMessages++;
+            }
+            writeSegmentId = entry.getKey();
+            writeOffset = offset;
+        }
+        if (pendingMessages > 0) {
+            log.warn("Recovered {} undelivered message(s) from spool {}", pendingMessages, directory);
+        }
+    }
+
+    /**
+     * @return false if the spool is full or the message does not fit into a segment.
+     */
+    public synchronized boolean append(ChatMessage message) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize message for the spool", e);
+        }
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (recordBytes > segmentBytes) {
+            rejectedCounter.increment();
+            return false;
+        }
+        if (writeOffset + recordBytes > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                rejectedCounter.increment();
+                log.warn("Spool {} is full, rejecting message for room {}", directory, message.getRoomId());
+                return false;
+            }
+            rollSegment();
+        }
+
+        MappedByteBuffer buffer = segments.get(writeSegmentId);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.put(writeOffset + HEADER_BYTES, payload);
+        buffer.putInt(writeOffset + Integer.BYTES, (int) crc.getValue());
+        // The length goes in last: a reader never sees a record whose payload is not written yet
+        buffer.putInt(writeOffset, payload.length);
+        writeOffset += recordBytes;
+        pendingMessages++;
+        dirty = true;
+        appendedCounter.increment();
+        return true;
+    }
+
+    /**
+     * Returns the messages of up to {@code max} of the oldest records, in append order, without removing them.
+     * Records that cannot be deserialized are logged and left out. A batch never spans two segments.
+     */
+    public synchronized Batch peek(int max) {
+        while (readSegmentId != writeSegmentId && recordLength(segments.get(readSegmentId), readOffset) <= 0) {
+            long drained = readSegmentId;
+            readSegmentId = segments.higherKey(drained);
+            readOffset = 0;
+            writeCheckpoint();
+            deleteSegment(drained);
+        }
+
+        MappedByteBuffer buffer = segments.get(readSegmentId);
+        List<ChatMessage> messages = new ArrayList<>();
+        int records = 0;
+        int offset = readOffset;
+        int length;
+        while (records < max && (length = recordLength(buffer, offset)) > 0) {
+            byte[] payload = new byte[length];
+            buffer.get(offset + HEADER_BYTES, payload);
+            try {
+                messages.add(objectMapper.readValue(payload, ChatMessage.class));
+            } catch (IOException e) {
+                log.error("Skipping unreadable spooled record at {}:{}", readSegmentId, offset, e);
+            }
+            offset += HEADER_BYTES + length;
+            records++;
+        }
+        return new Batch(messages, records, readSegmentId, offset);
+    }
+
+    /**
+     * Removes a batch returned by {@link #peek(int)} once its messages have been delivered.
+     */
+    public synchronized void commit(Batch batch) {
+        if (batch.segmentId() != readSegmentId || batch.endOffset() <= readOffset) {
+            return;
+        }
+        readOffset = batch.endOffset();
+        pendingMessages = Math.max(0, pendingMessages - batch.records());
+        drainedCounter.increment(batch.messages().size());
+        writeCheckpoint();
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSegmentId == writeSegmentId && readOffset == writeOffset;
+    }
+
+    public synchronized long pendingMessages() {
+        return pendingMessages;
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces appended records and the read position to disk. Batching this keeps the cost of an fsync
+     * off every single append.
+     */
+    @Scheduled(fixedDelayString = "${app.kafka.spool.fsync-interval-ms:100}")
+    public synchronized void sync() {
+        if (!dirty || lock == null) {
+            return;
+        }
+        segments.get(writeSegmentId).force();
+        checkpoint.force();
+        dirty = false;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (lock == null) {
+            return;
+        }
+        dirty = true;
+        sync();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("Could not release spool lock in {}", directory, e);
+        }
+        lock = null;
+        segments.clear();
+    }
+
+    private void rollSegment() {
+        segments.get(writeSegmentId).force();
+        long nextId = writeSegmentId + 1;
+        try {
+            segments.put(nextId, map(segmentPath(nextId), segmentBytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create spool segment " + nextId, e);
+        }
+        writeSegmentId = nextId;
+        writeOffset = 0;
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, readSegmentId);
+        checkpoint.putInt(Long.BYTES, readOffset);
+        dirty = true;
+    }
+
+    private void deleteSegment(long id) {
+        segments.remove(id);
+        try {
+            Files.deleteIfExists(segmentPath(id));
+        } catch (IOException e) {
+            log.warn("Could not delete drained spool segment {}", id, e);
+        }
+    }
+
+    /**
+     * @return the payload length of the record at {@code offset}, or 0 if there is no complete, intact record.
+     */
+    private int recordLength(MappedByteBuffer buffer, int offset) {
+        if (offset + HEADER_BYTES > segmentBytes) {
+            return 0;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+            return 0;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_BYTES, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == buffer.getInt(offset + Integer.BYTES) ? length : 0;
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.chatapp.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks which users are online, across all of their sessions and all backend instances.
+ * <p>
+ * Redis holds four structures:
+ * <ul>
+ *     <li>{@code presence:online}: set of online usernames, used to resolve the online members of a room
+ *     with one {@code SMISMEMBER} call.</li>
+ *     <li>{@code presence:sessions}: hash of username to open session count, summed over all instances.</li>
+ *     <li>{@code presence:leases}: sorted set of username scored by lease expiry (epoch millis).</li>
+ *     <li>{@code presence:reaps}: hash of username to the number of times the user was reaped.</li>
+ * </ul>
+ * Each instance renews the leases of its locally connected users in batches on every heartbeat.
+ * If an instance dies, its users' leases stop being renewed, and {@link #reapExpired()} finds them
+ * with a range query on the lease scores, so no key scan is needed.
+ * <p>
+ * Reaping drops a user's whole session count. An instance that was only slow, not dead, still holds sessions
+ * of that user, so every script call passes the reap count the instance last saw. Whenever the user was reaped
+ * since, the instance adds all of its local sessions back instead of just the one that changed, and
+ * {@link #renewLeases()} reports the users that came back online that way.
+ */
+@Service
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    static final String ONLINE_USERS_KEY = "presence:online";
+    static final String SESSION_COUNTS_KEY = "presence:sessions";
+    static final String LEASES_KEY = "presence:leases";
+    static final String REAPS_KEY = "presence:reaps";
+
+    private static final List<String> KEYS = List.of(SESSION_COUNTS_KEY, LEASES_KEY, ONLINE_USERS_KEY, REAPS_KEY);
+    private static final int BATCH_SIZE = 1000;
+
+    // Reap count of users this instance has not seen yet, so their first call adds every local session
+    private static final long UNKNOWN_REAPS = -1;
+
+    // ARGV: username, lease expiry, reaps last seen, local sessions including the new one. Returns {count, reaps}
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List<Long>> CONNECT_SCRIPT = (RedisScript) new DefaultRedisScript<>("""
+            local reaps = tonumber(redis.call('HGET', KEYS[4], ARGV[1]) or '0')
+            local increment = 1
+            if reaps ~= tonumber(ARGV[3]) then
+                increment = tonumber(ARGV[4])
+            end
+            local count = redis.call('HINCRBY', KEYS[1], ARGV[1], increment)
+            redis.call('ZADD', KEYS[2], ARGV[2], ARGV[1])
+            redis.call('SADD', KEYS[3], ARGV[1])
+            return {count, count - increment, reaps}
+            """, List.class);
+
+    // ARGV: username, reaps last seen. Returns the remaining count, or -1 if the user was reaped since;
+    // the instance's remaining sessions are then added back by the next renewal
+    private static final RedisScript<Long> DISCONNECT_SCRIPT = new DefaultRedisScript<>("""
+            local reaps = tonumber(redis.call('HGET', KEYS[4], ARGV[1]) or '0')
+            if reaps ~= tonumber(ARGV[2]) then
+                return -1
+            end
+            local count = redis.call('HINCRBY', KEYS[1], ARGV[1], -1)
+            if count <= 0 then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+                redis.call('ZREM', KEYS[2], ARGV[1])
+                redis.call('SREM', KEYS[3], ARGV[1])
+                return 0
+            end
+            return count
+            """, Long.class);
+
+    // ARGV: lease expiry, then username, reaps last seen, local sessions for each user.
+    // Returns username, reaps and 1 if the user came back online (else 0) for every user that had been reaped
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List<Object>> RENEW_SCRIPT = (RedisScript) new DefaultRedisScript<>("""
+            local restored = {}
+            for i = 2, #ARGV, 3 do
+                local username = ARGV[i]
+                local reaps = tonumber(redis.call('HGET', KEYS[4], username) or '0')
+                if reaps ~= tonumber(ARGV[i + 1]) then
+                    local sessions = tonumber(ARGV[i + 2])
+                    local count = redis.call('HINCRBY', KEYS[1], username, sessions)
+                    table.insert(restored, username)
+                    table.insert(restored, reaps)
+                    table.insert(restored, count == sessions and 1 or 0)
+                end
+                redis.call('ZADD', KEYS[2], ARGV[1], username)
+                redis.call('SADD', KEYS[3], username)
+            end
+            return restored
+            """, List.class);
+
+    // Atomic, so when several instances reap at once each expired user is reported exactly once
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List<String>> REAP_SCRIPT = (RedisScript) new DefaultRedisScript<>("""
+            local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+            for _, username in ipairs(expired) do
+                redis.call('ZREM', KEYS[2], username)
+                redis.call('HDEL', KEYS[1], username)
+                redis.call('SREM', KEYS[3], username)
+                redis.call('HINCRBY', KEYS[4], username, 1)
+            end
+            return expired
+            """, List.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long leaseTtlMs;
+
+    // Sessions connected to this instance, per user; the source of the leases renewed on each heartbeat
+    private final Map<String, Set<String>> localSessions = new ConcurrentHashMap<>();
+    // Reap count of each locally connected user as of this instance's last script call for them
+    private final Map<String, Long> seenReaps = new ConcurrentHashMap<>();
+
+    public PresenceService(RedisTemplate<String, String> redisTemplate,
+                           @Value("${app.presence.lease-ttl-ms:30000}") long leaseTtlMs) {
+        this.redisTemplate = redisTemplate;
+        this.leaseTtlMs = leaseTtlMs;
+    }
+
+    /**
+     * Registers a session of the user.
+     *
+     * @return true if this was the user's first session on any instance, i.e. the user just came online.
+     */
+    public boolean sessionConnected(String username, String sessionId) {
+        AtomicBoolean added = new AtomicBoolean();
+        AtomicInteger localCount = new AtomicInteger();
+        localSessions.compute(username, (key, sessions) -> {
+            Set<String> updated = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            added.set(updated.add(sessionId));
+            localCount.set(updated.size());
+            return updated;
+        });
+        if (!added.get()) {
+            return false;
+        }
+        List<Long> result = redisTemplate.execute(CONNECT_SCRIPT, KEYS, username, String.valueOf(leaseExpiry()),
+                String.valueOf(seenReaps.getOrDefault(username, UNKNOWN_REAPS)), String.valueOf(localCount.get()));
+        if (result == null || result.size() < 3) {
+            return false;
+        }
+        seenReaps.put(username, result.get(2));
+        log.debug("User '{}' connected session {}; open sessions: {}", username, sessionId, result.get(0));
+        // Online now, and nobody was counted before
+        return result.get(1) == 0;
+    }
+
+    /**
+     * Unregisters a session of the user. Repeated events for the same session are ignored.
+     *
+     * @return true if this was the user's last session on any instance, i.e. the user just went offline.
+     */
+    public boolean sessionDisconnected(String username, String sessionId) {
+        AtomicBoolean removed = new AtomicBoolean();
+        AtomicBoolean lastLocal = new AtomicBoolean();
+        localSessions.computeIfPresent(username, (key, sessions) -> {
+            removed.set(sessions.remove(sessionId));
+            lastLocal.set(sessions.isEmpty());
+            return sessions.isEmpty() ? null : sessions;
+        });
+        if (!removed.get()) {
+            return false;
+        }
+        long reaps = lastLocal.get()
+                ? valueOrDefault(seenReaps.remove(username))
+                : seenReaps.getOrDefault(username, UNKNOWN_REAPS);
+        Long count = redisTemplate.execute(DISCONNECT_SCRIPT, KEYS, username, String.valueOf(reaps));
+        log.debug("User '{}' disconnected session {}; open sessions: {}", username, sessionId, count);
+        // -1: reaped meanwhile, so the user was already reported offline
+        return count != null && count == 0;
+    }
+
+    private static long valueOrDefault(Long reaps) {
+        return reaps != null ? reaps : UNKNOWN_REAPS;
+    }
+
+    /**
+     * Renews the leases of every user connected to this instance, {@value #BATCH_SIZE} users per script call.
+     * Users that were reaped because this instance was too slow to renew are restored, their local sessions
+     * counted again.
+     *
+     * @return The users that this brought back online, i.e. that were reported offline by a reaper.
+     */
+    public List<String> renewLeases() {
+        if (localSessions.isEmpty()) {
+            return List.of();
+        }
+        List<String> usernames = new ArrayList<>(localSessions.keySet());
+        String expiry = String.valueOf(leaseExpiry());
+        List<String> backOnline = new ArrayList<>();
+        try {
+            for (int from = 0; from < usernames.size(); from += BATCH_SIZE) {
+                List<String> batch = usernames.subList(from, Math.min(from + BATCH_SIZE, usernames.size()));
+                List<String> args = new ArrayList<>(1 + 3 * batch.size());
+                args.add(expiry);
+                for (String username : batch) {
+                    Set<String> sessions = localSessions.get(username);
+                    args.add(username);
+                    args.add(String.valueOf(seenReaps.getOrDefault(username, UNKNOWN_REAPS)));
+                    args.add(String.valueOf(sessions != null ? sessions.size() : 0));
+                }
+                List<Object> restored = redisTemplate.execute(RENEW_SCRIPT, KEYS, args.toArray());
+                for (int i = 0; restored != null && i + 2 < restored.size(); i += 3) {
+                    String username = String.valueOf(restored.get(i));
+                    seenReaps.put(username, toLong(restored.get(i + 1)));
+                    if (toLong(restored.get(i + 2)) == 1) {
+                        backOnline.add(username);
+                    }
+                }
+            }
+            log.debug("Renewed presence leases for {} users", usernames.size());
+        } catch (DataAccessException e) {
+            log.error("Failed to renew presence leases for {} users: {}", usernames.size(), e.getMessage());
+        }
+        if (!backOnline.isEmpty()) {
+            log.info("Restored presence of {} users reaped during a slow heartbeat", backOnline.size());
+        }
+        return backOnline;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+    /**
+     * Removes users whose lease has expired, i.e. whose sessions lived on an instance that stopped heartbeating.
+     *
+     * @return The users that went offline.
+     */
+    public List<String> reapExpired() {
+        List<String> expiredUsers = new ArrayList<>();
+        List<String> batch;
+        do {
+            batch = redisTemplate.execute(REAP_SCRIPT, KEYS,
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(BATCH_SIZE));
+            if (batch != null) {
+                expiredUsers.addAll(batch);
+            }
+        } while (batch != null && batch.size() == BATCH_SIZE);
+        if (!expiredUsers.isEmpty()) {
+            log.info("Presence leases expired for {} users", expiredUsers.size());
+        }
+        return expiredUsers;
+    }
+
+    /**
+     * @param usernames Candidates, e.g. the members of a room.
+     * @return The online subset, in the order given.
+     */
+    public List<String> filterOnline(List<String> usernames) {
+        if (usernames.isEmpty()) {
+            return List.of();
+        }
+        Map<Object, Boolean> online = redisTemplate.opsForSet().isMember(ONLINE_USERS_KEY, usernames.toArray());
+        if (online == null) {
+            log.warn("Online lookup for {} users returned no result", usernames.size());
+            return List.of();
+        }
+        return usernames.stream()
+                .filter(username -> Boolean.TRUE.equals(online.get(username)))
+                .toList();
+    }
+
+    private long leaseExpiry() {
+        return System.currentTimeMillis() + leaseTtlMs;
+    }
+}
@@ -0,0 +1,332 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps the newest messages of recently read rooms in memory, so that opening a room or catching up on it does not
+ * need the database.
+ * <p>
+ * A room is loaded from the primary on its first read and from then on kept current by a listener on the broadcast
+ * topic. That listener has a consumer group of its own on every instance, so each instance sees every persisted
+ * message whichever instance persisted it and whatever the broker mode. The room is registered before it is loaded,
+ * so a message persisted meanwhile is either among the loaded rows or appended afterwards. Reads are only answered
+ * from memory while the listener holds its partitions; otherwise, and whenever a read reaches further back than the
+ * buffer, callers fall back to the database.
+ * <p>
+ * Each room keeps at most {@code app.messages.recent-buffer.per-room} messages. Rooms are evicted by Caffeine's size
+ * policy (recency and frequency of use) once their estimated size exceeds {@code max-bytes}, and after
+ * {@code idle-minutes} without reads or new messages. Requests are counted in {@code chat.recent-messages.requests}
+ * by result, the estimated size is published as {@code chat.recent-messages.bytes}.
+ */
+@Service
+public class RecentMessageBuffer implements ConsumerSeekAware {
+
+    private static final Logger log = LoggerFactory.getLogger(RecentMessageBuffer.class);
+
+    static final String CACHE_NAME = "recent-messages";
+
+    // Rough heap cost of a message besides its strings: object headers, boxed ids, the Instant and a ring slot
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+
+    private final MessageRepository messageRepository;
+    private final int perRoom;
+    private final Cache<String, RoomMessages> rooms;
+    private final Counter hits;
+    private final Counter misses;
+    private volatile boolean active;
+
+    public RecentMessageBuffer(MessageRepository messageRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.messages.recent-buffer.per-room:100}") int perRoom,
+                               @Value("${app.messages.recent-buffer.max-bytes:67108864}") long maxBytes,
+                               @Value("${app.messages.recent-buffer.idle-minutes:30}") long idleMinutes) {
+        this.messageRepository = messageRepository;
+        this.perRoom = Math.max(1, perRoom);
+        this.rooms = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String roomName, RoomMessages room) -> room.weight())
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, rooms, CACHE_NAME);
+        Gauge.builder("chat.recent-messages.bytes", rooms,
+                        cache -> cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                .description("Estimated heap used by buffered messages")
+                .register(meterRegistry);
+        this.hits = Counter.builder("chat.recent-messages.requests")
+                .description("Message reads, by whether the buffer could answer them")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("chat.recent-messages.requests")
+                .description("Message reads, by whether the buffer could answer them")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    // Live tail only, so a node that (re)joins starts at the latest offset; rooms are loaded on demand instead
+    @KafkaListener(id = "chat-recent-messages", topics = "${app.kafka.topics.chat-broadcast}",
+            groupId = "#{'chat-backend-recent-' + @nodeIdentity.nodeId}",
+            containerFactory = "broadcastKafkaListenerContainerFactory",
+            concurrency = "1",
+            properties = {"auto.offset.reset=latest"})
+    public void onMessagePersisted(ChatMessage message) {
+        append(message);
+    }
+
+    /**
+     * Adds a persisted message to its room, if the room is buffered.
+     */
+    public void append(ChatMessage message) {
+        if (message.getId() == null || message.getRoomId() == null) {
+            return;
+        }
+        // computeIfPresent also makes Caffeine weigh the room again
+        rooms.asMap().computeIfPresent(message.getRoomId(), (roomName, room) -> {
+            room.add(message);
+            return room;
+        });
+    }
+
+    /**
+     * @return the newest {@code limit} messages of the room, newest first, or empty if they have to be read from the
+     * database.
+     */
+    public Optional<List<ChatMessage>> latest(String roomName, long chatRoomId, int limit) {
+        RoomMessages room = limit <= perRoom ? loadedRoom(roomName, chatRoomId) : null;
+        return count(Optional.ofNullable(room != null ? room.latest(limit) : null));
+    }
+
+    /**
+     * @return up to {@code limit} messages of the room with an id above {@code afterId}, oldest first, or empty if
+     * the buffer does not reach back to {@code afterId} and they have to be read from the database. The limit may
+     * exceed the messages held per room; the gap is answered whenever the buffer covers all of it.
+     */
+    public Optional<List<ChatMessage>> after(String roomName, long chatRoomId, long afterId, int limit) {
+        RoomMessages room = loadedRoom(roomName, chatRoomId);
+        return count(Optional.ofNullable(room != null ? room.after(afterId, limit) : null));
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        active = !assignments.isEmpty();
+        log.info("Recent message buffer {} ({} partition(s) assigned)", active ? "active" : "inactive", assignments.size());
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        // Without the listener the buffered rooms would silently go stale
+        active = false;
+        rooms.invalidateAll();
+        log.info("Recent message buffer inactive, {} partition(s) revoked", partitions.size());
+    }
+
+    private RoomMessages loadedRoom(String roomName, long chatRoomId) {
+        if (!active) {
+            return null;
+        }
+        RoomMessages room = rooms.get(roomName, name -> new RoomMessages(perRoom));
+        if (room.claimLoad()) {
+            load(roomName, chatRoomId, room);
+        }
+        return room.isLoaded() ? room : null;
+    }
+
+    private void load(String roomName, long chatRoomId, RoomMessages room) {
+        try {
+            // One extra row tells whether the room has older messages, without a COUNT(*). History reads go to the
+            // primary: a lagging replica could miss a message whose broadcast arrived before the room was registered
+            List<ChatMessage> newest = messageRepository.findLatestByChatRoomId(chatRoomId, perRoom + 1);
+            newest.forEach(message -> message.setRoomId(roomName));
+            room.seed(newest);
+            rooms.asMap().computeIfPresent(roomName, (name, loaded) -> loaded);
+            log.debug("Loaded {} recent message(s) of room '{}'", room.size(), roomName);
+        } catch (RuntimeException e) {
+            log.warn("Could not load recent messages of room '{}': {}", roomName, e.getMessage());
+            rooms.asMap().remove(roomName, room);
+        }
+    }
+
+    private <T> Optional<T> count(Optional<T> result) {
+        (result.isPresent() ? hits : misses).increment();
+        return result;
+    }
+
+    /**
+     * Ring buffer of the newest messages of one room, ordered by id. Messages arriving while the room is being
+     * loaded are held back and merged into the loaded rows.
+     */
+    static final class RoomMessages {
+
+        private static final int NEW = 0;
+        private static final int LOADING = 1;
+        private static final int LOADED = 2;
+
+        private final ChatMessage[] ring;
+        private int start;
+        private int size;
+        // Whether the room has messages older than the oldest one held
+        private boolean hasOlder;
+        private int weight;
+        private int state = NEW;
+        private final List<ChatMessage> pending = new ArrayList<>();
+
+        RoomMessages(int capacity) {
+            this.ring = new ChatMessage[capacity];
+            this.weight = 64 + 8 * capacity;
+        }
+
+        synchronized boolean claimLoad() {
+            if (state != NEW) {
+                return false;
+            }
+            state = LOADING;
+            return true;
+        }
+
+        synchronized boolean isLoaded() {
+            return state == LOADED;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int weight() {
+            return weight;
+        }
+
+        /**
+         * @param rows the newest messages of the room, newest first, and one more if the room has older messages
+         */
+        synchronized void seed(List<ChatMessage> rows) {
+            this.hasOlder = rows.size() > ring.length;
+            List<ChatMessage> newest = hasOlder ? rows.subList(0, ring.length) : rows;
+            Set<Long> loadedIds = new HashSet<>();
+            for (int i = newest.size() - 1; i >= 0; i--) {
+                insert(newest.get(i));
+                loadedIds.add(newest.get(i).getId());
+            }
+            long oldestLoaded = newest.isEmpty() ? Long.MIN_VALUE : newest.get(newest.size() - 1).getId();
+            for (ChatMessage message : pending) {
+                // Arrived during the load but already part of its snapshot
+                boolean inSnapshot = loadedIds.contains(message.getId())
+                        || (hasOlder && message.getId() < oldestLoaded);
+                if (!inSnapshot) {
+                    insert(message);
+                }
+            }
+            pending.clear();
+            state = LOADED;
+        }
+
+        synchronized void add(ChatMessage message) {
+            if (state == LOADING) {
+                pending.add(message);
+            } else if (state == LOADED) {
+                insert(message);
+            }
+        }
+
+        /**
+         * @return newest first, or null if the room has older messages that the buffer does not hold
+         */
+        synchronized List<ChatMessage> latest(int limit) {
+            if (state != LOADED || (limit > size && hasOlder)) {
+                return null;
+            }
+            int count = Math.min(limit, size);
+            List<ChatMessage> messages = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                messages.add(get(i));
+            }
+            return messages;
+        }
+
+        /**
+         * @return oldest first, or null if messages between {@code afterId} and the oldest one held may be missing
+         */
+        synchronized List<ChatMessage> after(long afterId, int limit) {
+            if (state != LOADED || (hasOlder && (size == 0 || afterId < get(0).getId()))) {
+                return null;
+            }
+            int first = size;
+            while (first > 0 && get(first - 1).getId() > afterId) {
+                first--;
+            }
+            List<ChatMessage> messages = new ArrayList<>(Math.min(limit, size - first));
+            for (int i = first; i < size && messages.size() < limit; i++) {
+                messages.add(get(i));
+            }
+            return messages;
+        }
+
+        /**
+         * Inserts by id, dropping the oldest message once full. A message already held is ignored.
+         */
+        private void insert(ChatMessage message) {
+            long id = message.getId();
+            int position = size;
+            while (position > 0 && get(position - 1).getId() > id) {
+                position--;
+            }
+            if (position > 0 && get(position - 1).getId() == id) {
+                return;
+            }
+            if (size == ring.length) {
+                if (position == 0) {
+                    // Older than everything held
+                    hasOlder = true;
+                    return;
+                }
+                weight -= weigh(get(0));
+                ring[start] = null;
+                start = (start + 1) % ring.length;
+                size--;
+                position--;
+                hasOlder = true;
+            }
+            for (int i = size; i > position; i--) {
+                ring[(start + i) % ring.length] = get(i - 1);
+            }
+            ring[(start + position) % ring.length] = message;
+            size++;
+            weight += weigh(message);
+        }
+
+        private ChatMessage get(int index) {
+            return ring[(start + index) % ring.length];
+        }
+
+        private static int weigh(ChatMessage message) {
+            return MESSAGE_OVERHEAD_BYTES + 2 * (length(message.getContent()) + length(message.getSender())
+                    + length(message.getRoomId()) + length(message.getClientMessageId()));
+        }
+
+        private static int length(String value) {
+            return value != null ? value.length() : 0;
+        }
+    }
+}
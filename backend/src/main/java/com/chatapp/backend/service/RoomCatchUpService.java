@@ -0,0 +1,108 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Replays the messages a client missed while its connection was down. A client that resubscribes to
+ * {@code /topic/chat/{roomId}} with a {@value #LAST_SEEN_ID_HEADER} header gets every newer message of the room pushed
+ * to that subscription, oldest first, as regular MESSAGE frames marked with {@value #CATCH_UP_HEADER}. The gap is
+ * read from {@link RecentMessageBuffer}, or from the database when the buffer does not reach back that far.
+ * <p>
+ * At most {@code app.websocket.catch-up.max-messages} are replayed. If the gap is larger, the last replayed frame
+ * carries {@value #HAS_MORE_HEADER}, and the client is expected to reload the room over REST instead.
+ * Messages that arrive live while the gap is replayed may be delivered twice; clients drop them by id.
+ */
+@Service
+public class RoomCatchUpService {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomCatchUpService.class);
+
+    public static final String LAST_SEEN_ID_HEADER = "last-seen-id";
+    public static final String CATCH_UP_HEADER = "catch-up";
+    public static final String HAS_MORE_HEADER = "catch-up-has-more";
+
+    private final RoomMembershipCache roomMembershipCache;
+    private final RecentMessageBuffer recentMessageBuffer;
+    private final MessageRepository messageRepository;
+    private final MessageChannel clientOutboundChannel;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int maxMessages;
+
+    public RoomCatchUpService(RoomMembershipCache roomMembershipCache,
+                              RecentMessageBuffer recentMessageBuffer,
+                              MessageRepository messageRepository,
+                              @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                              SimpMessagingTemplate messagingTemplate,
+                              @Value("${app.websocket.catch-up.max-messages:100}") int maxMessages) {
+        this.roomMembershipCache = roomMembershipCache;
+        this.recentMessageBuffer = recentMessageBuffer;
+        this.messageRepository = messageRepository;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.messagingTemplate = messagingTemplate;
+        this.maxMessages = Math.max(1, maxMessages);
+    }
+
+    /**
+     * Sends the messages of the room newer than {@code lastSeenId} to one subscription of one session.
+     * The subscription must already have been authorized.
+     *
+     * @return the number of messages sent
+     */
+    public int replay(String sessionId, String subscriptionId, String destination, String roomName, long lastSeenId) {
+        Optional<Long> chatRoomId = roomMembershipCache.findRoomId(roomName);
+        if (chatRoomId.isEmpty()) {
+            return 0;
+        }
+        // One extra row tells whether the gap is larger than what is replayed
+        List<ChatMessage> rows = recentMessageBuffer.after(roomName, chatRoomId.get(), lastSeenId, maxMessages + 1)
+                .orElseGet(() -> {
+                    List<ChatMessage> stored = messageRepository.findByChatRoomIdAfterId(chatRoomId.get(), lastSeenId, maxMessages + 1);
+                    stored.forEach(message -> message.setRoomId(roomName));
+                    return stored;
+                });
+
+        boolean hasMore = rows.size() > maxMessages;
+        List<ChatMessage> gap = hasMore ? rows.subList(0, maxMessages) : rows;
+        for (int i = 0; i < gap.size(); i++) {
+            boolean last = i == gap.size() - 1;
+            clientOutboundChannel.send(frame(sessionId, subscriptionId, destination, gap.get(i), last && hasMore));
+        }
+        log.debug("Replayed {} message(s) of room '{}' after {} to session {}{}", gap.size(), roomName, lastSeenId,
+                sessionId, hasMore ? ", more are missing" : "");
+        return gap.size();
+    }
+
+    private Message<?> frame(String sessionId, String subscriptionId, String destination, ChatMessage message, boolean hasMore) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setNativeHeader(CATCH_UP_HEADER, "true");
+        if (hasMore) {
+            accessor.setNativeHeader(HAS_MORE_HEADER, "true");
+        }
+        // Left mutable so the converter can add the content type, as it does for broadcast messages
+        accessor.setLeaveMutable(true);
+        // Same converter as the broker's, so replayed messages look exactly like live ones
+        Message<?> frame = messagingTemplate.getMessageConverter().toMessage(message, accessor.getMessageHeaders());
+        if (frame == null) {
+            throw new IllegalStateException("No converter for " + message.getClass().getName());
+        }
+        accessor.setImmutable();
+        return frame;
+    }
+}
@@ -0,0 +1,106 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.repository.ChatRoomRepository;
+import com.chatapp.backend.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Caches the member ids of each room so STOMP subscriptions can be authorized without hitting the database.
+ * Entries are keyed by room name, because that is what subscription destinations carry, and hold the
+ * room id together with a compact set of member user ids.
+ * <p>
+ * Membership changes on this instance evict the room once their transaction commits. Changes made on other
+ * instances become visible when the entry expires, so the TTL bounds how stale a decision can be.
+ * Hit/miss counts are published as the {@code cache.gets} meter with {@code cache=room-membership}.
+ */
+@Component
+public class RoomMembershipCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomMembershipCache.class);
+
+    static final String CACHE_NAME = "room-membership";
+
+    private final ChatRoomRepository chatRoomRepository;
+    private final UserRepository userRepository;
+    private final Cache<String, RoomMembers> cache;
+
+    public RoomMembershipCache(ChatRoomRepository chatRoomRepository,
+                               UserRepository userRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.membership-cache.ttl-seconds:60}") long ttlSeconds,
+                               @Value("${app.membership-cache.max-rooms:10000}") long maxRooms) {
+        this.chatRoomRepository = chatRoomRepository;
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .maximumSize(maxRooms)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * @return true if the user is a member of the room; false if not, or if the room does not exist.
+     */
+    public boolean isMember(Long userId, String roomName) {
+        if (userId == null || roomName == null) {
+            return false;
+        }
+        // Unknown rooms are not cached: the loader returns null and the next lookup tries again
+        RoomMembers members = cache.get(roomName, this::load);
+        return members != null && members.memberIds().contains(userId);
+    }
+
+    /**
+     * @return the id of the room with the given name, if it exists.
+     */
+    public Optional<Long> findRoomId(String roomName) {
+        if (roomName == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.get(roomName, this::load)).map(RoomMembers::roomId);
+    }
+
+    /**
+     * Evicts the room, deferred until after commit when called inside a transaction, so a concurrent
+     * subscription cannot reload and cache the membership as it was before the change.
+     */
+    public void invalidate(String roomName) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(roomName);
+                }
+            });
+        } else {
+            cache.invalidate(roomName);
+        }
+    }
+
+    private RoomMembers load(String roomName) {
+        return chatRoomRepository.findIdByName(roomName)
+                .map(roomId -> {
+                    Set<Long> memberIds = Set.copyOf(userRepository.findIdsByChatRoomId(roomId));
+                    log.debug("Loaded {} member ids for room '{}' (ID: {})", memberIds.size(), roomName, roomId);
+                    return new RoomMembers(roomId, memberIds);
+                })
+                .orElse(null);
+    }
+
+    private record RoomMembers(Long roomId, Set<Long> memberIds) {
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.dto.MessageSliceDto;
+import com.chatapp.backend.model.dto.RoomSnapshotDto;
+import com.chatapp.backend.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Sends the state of a room to a client that subscribes to {@code /topic/chat/{roomId}} with a
+ * {@value #SNAPSHOT_HEADER} header giving the number of messages it wants. The subscription receives a single
+ * MESSAGE frame marked with {@value #SNAPSHOT_HEADER}, holding a {@link RoomSnapshotDto} with the newest messages and
+ * the online members. Opening a room then takes one round trip instead of a SUBSCRIBE plus a REST call each for
+ * history and presence.
+ * <p>
+ * Messages come from {@link RecentMessageBuffer}, or the database when the room is not buffered. At most
+ * {@code app.websocket.snapshot.max-messages} are sent; older ones are paged in over {@code /api/messages/history}.
+ * The snapshot is sent once the subscription is registered, so live messages may reach the subscription before or
+ * after it, and a message broadcast while the snapshot is taken may arrive both ways. Clients drop duplicates by id.
+ */
+@Service
+public class RoomSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomSnapshotService.class);
+
+    public static final String SNAPSHOT_HEADER = "snapshot";
+
+    private final RoomMembershipCache roomMembershipCache;
+    private final RecentMessageBuffer recentMessageBuffer;
+    private final MessageRepository messageRepository;
+    private final ChatRoomService chatRoomService;
+    private final MessageChannel clientOutboundChannel;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int maxMessages;
+
+    public RoomSnapshotService(RoomMembershipCache roomMembershipCache,
+                               RecentMessageBuffer recentMessageBuffer,
+                               MessageRepository messageRepository,
+                               ChatRoomService chatRoomService,
+                               @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                               SimpMessagingTemplate messagingTemplate,
+                               @Value("${app.websocket.snapshot.max-messages:100}") int maxMessages) {
+        this.roomMembershipCache = roomMembershipCache;
+        this.recentMessageBuffer = recentMessageBuffer;
+        this.messageRepository = messageRepository;
+        this.chatRoomService = chatRoomService;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.messagingTemplate = messagingTemplate;
+        this.maxMessages = Math.max(1, maxMessages);
+    }
+
+    /**
+     * Sends the snapshot of the room to one subscription of one session. The subscription must already have been
+     * authorized.
+     *
+     * @return whether a snapshot was sent; not for rooms that do not exist
+     */
+    public boolean send(String sessionId, String subscriptionId, String destination, String roomName, int messageCount) {
+        Optional<Long> chatRoomId = roomMembershipCache.findRoomId(roomName);
+        if (chatRoomId.isEmpty()) {
+            return false;
+        }
+        int sliceSize = Math.max(1, Math.min(messageCount, maxMessages));
+        // One extra row tells whether older messages exist, as for /api/messages/history
+        List<ChatMessage> rows = recentMessageBuffer.latest(roomName, chatRoomId.get(), sliceSize + 1)
+                .orElseGet(() -> {
+                    List<ChatMessage> stored = messageRepository.findLatestByChatRoomId(chatRoomId.get(), sliceSize + 1);
+                    stored.forEach(message -> message.setRoomId(roomName));
+                    return stored;
+                });
+        boolean hasNext = rows.size() > sliceSize;
+        List<ChatMessage> content = hasNext ? rows.subList(0, sliceSize) : rows;
+
+        RoomSnapshotDto snapshot = RoomSnapshotDto.builder()
+                .roomId(roomName)
+                .messages(MessageSliceDto.builder()
+                        .content(content)
+                        .hasNext(hasNext)
+                        .nextCursor(hasNext ? String.valueOf(content.get(content.size() - 1).getId()) : null)
+                        .build())
+                .onlineUsers(chatRoomService.getOnlineMembers(chatRoomId.get()))
+                .build();
+        clientOutboundChannel.send(frame(sessionId, subscriptionId, destination, snapshot));
+        log.debug("Sent snapshot of room '{}' with {} message(s) and {} online user(s) to session {}",
+                roomName, content.size(), snapshot.getOnlineUsers().size(), sessionId);
+        return true;
+    }
+
+    private Message<?> frame(String sessionId, String subscriptionId, String destination, RoomSnapshotDto snapshot) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setNativeHeader(SNAPSHOT_HEADER, "true");
+        // Left mutable so the converter can add the content type
+        accessor.setLeaveMutable(true);
+        Message<?> frame = messagingTemplate.getMessageConverter().toMessage(snapshot, accessor.getMessageHeaders());
+        if (frame == null) {
+            throw new IllegalStateException("No converter for " + RoomSnapshotDto.class.getName());
+        }
+        accessor.setImmutable();
+        return frame;
+    }
+}
@@ -0,0 +1,174 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.dto.TypingDigestDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces typing events per room. Instead of relaying every keystroke event, each room gets at most one
+ * "who is typing" digest per flush interval, and only when the set of typers actually changed.
+ * A typer who stops sending events is dropped once their entry expires, so a lost "stopped typing"
+ * event cannot leave an indicator stuck.
+ * <p>
+ * Typers are shared between instances in a Redis hash per room ({@code typing:{roomId}}, username to expiry), so a
+ * digest always lists every typer of the room, whichever instance they are connected to. Clients can replace their
+ * indicator with each digest. An instance writes its local typers on a change, and refreshes their expiry before
+ * it lapses while they keep typing.
+ */
+@Service
+public class TypingAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(TypingAggregator.class);
+
+    static final String KEY_PREFIX = "typing:";
+
+    // ARGV: now, key TTL, then username and expiry for each local typer, expiry 0 removing the typer.
+    // Returns the typers of the room whose entry has not expired
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List<String>> SYNC_SCRIPT = (RedisScript) new DefaultRedisScript<>("""
+            for i = 3, #ARGV, 2 do
+                if ARGV[i + 1] == '0' then
+                    redis.call('HDEL', KEYS[1], ARGV[i])
+                else
+                    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+                end
+            end
+            local now = tonumber(ARGV[1])
+            local typers = {}
+            local entries = redis.call('HGETALL', KEYS[1])
+            for i = 1, #entries, 2 do
+                if tonumber(entries[i + 1]) <= now then
+                    redis.call('HDEL', KEYS[1], entries[i])
+                else
+                    table.insert(typers, entries[i])
+                end
+            end
+            if #typers > 0 then
+                redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return typers
+            """, List.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long typingTtlMs;
+
+    private final Map<String, RoomTyping> rooms = new ConcurrentHashMap<>();
+
+    public TypingAggregator(SimpMessagingTemplate messagingTemplate,
+                            RedisTemplate<String, String> redisTemplate,
+                            @Value("${app.typing.ttl-ms:5000}") long typingTtlMs) {
+        this.messagingTemplate = messagingTemplate;
+        this.redisTemplate = redisTemplate;
+        this.typingTtlMs = typingTtlMs;
+    }
+
+    public void record(String roomId, String username, boolean typing) {
+        // compute() keeps this atomic with the removal of idle rooms in flush()
+        rooms.compute(roomId, (id, room) -> {
+            RoomTyping state = room != null ? room : new RoomTyping();
+            if (typing) {
+                state.stopped.remove(username);
+                // Repeated events from a known typer only extend the expiry
+                if (state.typers.put(username, System.currentTimeMillis() + typingTtlMs) == null) {
+                    state.changed = true;
+                }
+            } else if (state.typers.remove(username) != null) {
+                state.stopped.add(username);
+                state.changed = true;
+            }
+            return state;
+        });
+    }
+
+    @Scheduled(fixedRateString = "${app.typing.flush-interval-ms:300}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        rooms.forEach((roomId, room) -> {
+            room.typers.entrySet().removeIf(typer -> {
+                if (typer.getValue() > now) {
+                    return false;
+                }
+                room.stopped.add(typer.getKey());
+                room.changed = true;
+                return true;
+            });
+            boolean changed = room.changed;
+            if (!changed && !needsRefresh(room)) {
+                rooms.computeIfPresent(roomId, (id, current) ->
+                        current.typers.isEmpty() && current.stopped.isEmpty() && !current.changed ? null : current);
+                return;
+            }
+            room.changed = false;
+            List<String> usernames;
+            try {
+                usernames = sync(roomId, room, now);
+            } catch (DataAccessException e) {
+                room.changed |= changed;
+                log.warn("Failed to share typing state of room {}: {}", roomId, e.getMessage());
+                return;
+            }
+            // A refresh alone changes nothing the clients see
+            if (!changed || usernames.equals(room.lastSent)) {
+                return;
+            }
+            room.lastSent = usernames;
+            log.debug("Typing digest for room {}: {}", roomId, usernames);
+            messagingTemplate.convertAndSend("/topic/typing/" + roomId,
+                    TypingDigestDto.builder().roomId(roomId).usernames(usernames).build());
+        });
+    }
+
+    // Whether a local typer's shared entry expires within half a TTL although they are still typing
+    private boolean needsRefresh(RoomTyping room) {
+        return room.typers.entrySet().stream()
+                .anyMatch(typer -> typer.getValue() - room.shared.getOrDefault(typer.getKey(), 0L) > typingTtlMs / 2);
+    }
+
+    private List<String> sync(String roomId, RoomTyping room, long now) {
+        Map<String, Long> typers = Map.copyOf(room.typers);
+        Set<String> stopped = Set.copyOf(room.stopped);
+        List<String> args = new ArrayList<>(2 + 2 * (typers.size() + stopped.size()));
+        args.add(String.valueOf(now));
+        args.add(String.valueOf(typingTtlMs));
+        stopped.forEach(username -> {
+            args.add(username);
+            args.add("0");
+        });
+        typers.forEach((username, expiry) -> {
+            args.add(username);
+            args.add(String.valueOf(expiry));
+        });
+        List<String> shared = redisTemplate.execute(SYNC_SCRIPT, List.of(KEY_PREFIX + roomId), args.toArray());
+        room.stopped.removeAll(stopped);
+        room.shared.keySet().retainAll(room.typers.keySet());
+        room.shared.putAll(typers);
+        return shared != null ? shared.stream().sorted().toList() : List.of();
+    }
+
+    private static final class RoomTyping {
+        // Local typers and their expiry
+        private final Map<String, Long> typers = new ConcurrentHashMap<>();
+        // Local typers that stopped and still have to be removed from the shared hash
+        private final Set<String> stopped = ConcurrentHashMap.newKeySet();
+        private volatile boolean changed;
+        // Only touched by the flushing thread: the expiry last written to the shared hash, and the last digest
+        private final Map<String, Long> shared = new HashMap<>();
+        private List<String> lastSent = List.of();
+    }
+}
@@ -0,0 +1,78 @@
+package com.chatapp.backend.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64-bit, time-ordered message ids without locking or a database round trip.
+ * <p>
+ * Layout: 41 bits of milliseconds since {@link #EPOCH_MILLIS} (good for about 69 years), 10 bits of worker id and
+ * 12 bits of sequence. Ids of one worker strictly increase; across workers they are ordered by millisecond.
+ * The millisecond and sequence live in one {@link AtomicLong}, so a CAS loop is all the coordination needed.
+ * When more than 4096 ids are taken in one millisecond, or the clock steps back, the generator runs ahead of
+ * the wall clock rather than waiting for it, and catches up as soon as the clock passes it again.
+ * <p>
+ * Every running instance needs a distinct worker id (0-1023): {@code app.id.worker-id} when set, otherwise one
+ * leased in Redis by {@link WorkerIdLease}.
+ */
+@Component
+public class SnowflakeIdGenerator {
+
+    /** 2024-01-01T00:00:00Z */
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    static final int WORKER_ID_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // Only changes if a leased worker id was lost and another one leased
+    private volatile long workerBits;
+    private final Clock clock;
+    // (milliseconds since the epoch << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong lastTick = new AtomicLong();
+
+    @Autowired
+    public SnowflakeIdGenerator(WorkerIdLease workerIdLease) {
+        this(workerIdLease.acquire(), Clock.systemUTC());
+        workerIdLease.onReassigned(this::setWorkerId);
+    }
+
+    public SnowflakeIdGenerator(int workerId, Clock clock) {
+        setWorkerId(workerId);
+        this.clock = clock;
+    }
+
+    void setWorkerId(int workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("Worker id must be between 0 and " + MAX_WORKER_ID + " but was " + workerId);
+        }
+        this.workerBits = (long) workerId << SEQUENCE_BITS;
+    }
+
+    public long nextId() {
+        long now = (clock.millis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        // A full sequence carries into the millisecond bits, i.e. borrows the next millisecond
+        long tick = lastTick.updateAndGet(last -> Math.max(last + 1, now));
+        return ((tick >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | workerBits | (tick & SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the time the id was generated at, to the millisecond.
+     */
+    public static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli((id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS);
+    }
+
+    /**
+     * @return the smallest id that can be generated at the given time; every id below it is older.
+     */
+    public static long lowestIdAt(Instant instant) {
+        return Math.max(0, instant.toEpochMilli() - EPOCH_MILLIS) << TIMESTAMP_SHIFT;
+    }
+}
@@ -0,0 +1,142 @@
+package com.chatapp.backend.utils;
+
+import com.chatapp.backend.config.NodeIdentity;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Hands {@link SnowflakeIdGenerator} a worker id no other running instance uses.
+ * <p>
+ * An explicit {@code app.id.worker-id} is used as is; operators then guarantee it is unique. Otherwise a worker id is
+ * leased in Redis: {@code id:worker:{n}} is set to the instance id with {@code SET NX} and a TTL of
+ * {@code app.id.worker-lease-ttl-ms}, trying the ids in order starting from one derived from the node id, so a
+ * restarted node usually gets its previous id back. The lease is renewed well before it expires. Should it be lost
+ * anyway, e.g. after Redis was unreachable for longer than the TTL and another instance took the id, a new one is
+ * leased and the generator switches to it.
+ */
+@Component
+public class WorkerIdLease {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerIdLease.class);
+
+    static final String KEY_PREFIX = "id:worker:";
+
+    // Returns 1 if the lease is (still) ours, 0 if another instance holds it
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            local owner = redis.call('GET', KEYS[1])
+            if owner == ARGV[1] then
+                redis.call('PEXPIRE', KEYS[1], ARGV[2])
+                return 1
+            end
+            if not owner then
+                redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final NodeIdentity nodeIdentity;
+    private final int configuredWorkerId;
+    private final long leaseTtlMs;
+
+    private volatile int workerId = -1;
+    private volatile IntConsumer onReassigned = reassigned -> { };
+
+    public WorkerIdLease(RedisTemplate<String, String> redisTemplate,
+                         NodeIdentity nodeIdentity,
+                         @Value("${app.id.worker-id:-1}") int configuredWorkerId,
+                         @Value("${app.id.worker-lease-ttl-ms:60000}") long leaseTtlMs) {
+        this.redisTemplate = redisTemplate;
+        this.nodeIdentity = nodeIdentity;
+        this.configuredWorkerId = configuredWorkerId;
+        this.leaseTtlMs = leaseTtlMs;
+    }
+
+    /**
+     * @return the configured worker id, or one leased for this instance
+     * @throws IllegalStateException if every worker id is leased by another instance
+     */
+    public synchronized int acquire() {
+        if (configuredWorkerId >= 0) {
+            return configuredWorkerId;
+        }
+        if (workerId < 0) {
+            workerId = lease();
+        }
+        return workerId;
+    }
+
+    /**
+     * Registers the callback that receives the new worker id when the lease was lost and another id was leased.
+     */
+    public void onReassigned(IntConsumer callback) {
+        this.onReassigned = callback;
+    }
+
+    @Scheduled(fixedRateString = "${app.id.worker-lease-renew-ms:20000}")
+    public synchronized void renew() {
+        if (configuredWorkerId >= 0 || workerId < 0) {
+            return;
+        }
+        try {
+            Long kept = redisTemplate.execute(RENEW_SCRIPT, List.of(KEY_PREFIX + workerId),
+                    nodeIdentity.getInstanceId(), String.valueOf(leaseTtlMs));
+            if (kept != null && kept == 1) {
+                return;
+            }
+            int lost = workerId;
+            workerId = lease();
+            log.error("Worker id {} was leased by another instance; switched to {}", lost, workerId);
+            onReassigned.accept(workerId);
+        } catch (DataAccessException e) {
+            // The TTL leaves room for a few failed renewals
+            log.warn("Could not renew the lease of worker id {}: {}", workerId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void release() {
+        if (configuredWorkerId >= 0 || workerId < 0) {
+            return;
+        }
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(KEY_PREFIX + workerId), nodeIdentity.getInstanceId());
+        } catch (DataAccessException e) {
+            log.warn("Could not release worker id {}, it expires in {} ms: {}", workerId, leaseTtlMs, e.getMessage());
+        }
+    }
+
+    private int lease() {
+        int workerIds = SnowflakeIdGenerator.MAX_WORKER_ID + 1;
+        int first = Math.floorMod(nodeIdentity.getNodeId().hashCode(), workerIds);
+        for (int i = 0; i < workerIds; i++) {
+            int candidate = (first + i) % workerIds;
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + candidate,
+                    nodeIdentity.getInstanceId(), Duration.ofMillis(leaseTtlMs)))) {
+                log.info("Leased worker id {} for instance '{}'", candidate, nodeIdentity.getInstanceId());
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("All " + workerIds + " worker ids are leased; set app.id.worker-id explicitly");
+    }
+}
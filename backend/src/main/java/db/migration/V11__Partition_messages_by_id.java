@@ -0,0 +1,135 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Range-partitions {@code messages} by id. Ids are time-ordered (SnowflakeIdGenerator: milliseconds since 2024-01-01
+ * &lt;&lt; 22), so a range of ids is a range of creation time and each monthly partition holds one month of messages,
+ * while the primary key stays (id). MessagePartitionManager creates upcoming months and detaches or drops expired ones.
+ * <p>
+ * A unique constraint on a partitioned table has to include the partition key, so (sender, client_message_id)
+ * becomes a plain index. Redelivered copies carry the id assigned at ingest and still collide on the primary key;
+ * a message the client sends again is dropped by the consumer's deduplication window.
+ * <p>
+ * The existing table becomes the first partition, which also takes the rest of the current month. Attaching it
+ * would scan it under an exclusive lock to prove its rows fit the partition, and would build any index the
+ * partitioned table has and it lacks. So this runs outside a transaction and prepares both first:
+ * <ol>
+ *     <li>The (sender, client_message_id) index is built with {@code CREATE INDEX CONCURRENTLY}.</li>
+ *     <li>A {@code CHECK (id < upper bound)} constraint is added {@code NOT VALID} and validated afterwards, which
+ *     does not block writes.</li>
+ *     <li>In one short transaction the table is renamed, the partitioned table is created, and the old table is
+ *     attached. The attach finds the bound proven by the constraint and the indexes in place, so it neither scans
+ *     nor builds. The constraint is then dropped.</li>
+ * </ol>
+ * Like V12 and V13, the index build needs {@code spring.flyway.postgresql.transactional-lock: false}. Every step
+ * before the swap can run again, so a failed run can be repaired and retried.
+ */
+public class V11__Partition_messages_by_id extends BaseJavaMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(V11__Partition_messages_by_id.class);
+
+    private static final String BOUND_CONSTRAINT = "messages_legacy_partition_bound";
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        connection.setAutoCommit(true);
+
+        long upperBound = upperBound(connection);
+        createSenderIndex(connection);
+        addBoundConstraint(connection, upperBound);
+        swapTables(connection, upperBound);
+    }
+
+    /**
+     * @return the lowest id of next month, the exclusive upper bound of the first partition
+     */
+    private long upperBound(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("""
+                     SELECT ((EXTRACT(EPOCH FROM date_trunc('month', now() AT TIME ZONE 'UTC') + INTERVAL '1 month') * 1000)::BIGINT
+                             - 1704067200000) << 22""")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private void createSenderIndex(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Named for the partition the table becomes; matches idx_messages_sender_client_message_id, so it is attached
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS messages_legacy_sender_client_message_id_idx " +
+                    "ON messages (sender, client_message_id)");
+        }
+    }
+
+    private void addBoundConstraint(Connection connection, long upperBound) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (!constraintExists(connection, BOUND_CONSTRAINT)) {
+                statement.execute("ALTER TABLE messages ADD CONSTRAINT " + BOUND_CONSTRAINT +
+                        " CHECK (id < " + upperBound + ") NOT VALID");
+            }
+            statement.execute("ALTER TABLE messages VALIDATE CONSTRAINT " + BOUND_CONSTRAINT);
+        }
+    }
+
+    private void swapTables(Connection connection, long upperBound) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE messages RENAME TO messages_legacy");
+            statement.execute("ALTER TABLE messages_legacy RENAME CONSTRAINT messages_pkey TO messages_legacy_pkey");
+            statement.execute("ALTER TABLE messages_legacy DROP CONSTRAINT uq_messages_sender_client_message_id");
+            statement.execute("ALTER INDEX idx_messages_room_id RENAME TO messages_legacy_room_id_idx");
+            statement.execute("ALTER INDEX idx_messages_room_timestamp_id RENAME TO messages_legacy_room_timestamp_id_idx");
+
+            statement.execute("""
+                    CREATE TABLE messages (
+                        id BIGINT NOT NULL,
+                        content TEXT NOT NULL,
+                        sender VARCHAR(50) NOT NULL,
+                        room_id VARCHAR(50) NOT NULL,
+                        timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+                        client_message_id VARCHAR(64),
+                        CONSTRAINT messages_pkey PRIMARY KEY (id)
+                    ) PARTITION BY RANGE (id)""");
+            // Created on every partition; the matching indexes of messages_legacy are attached instead of rebuilt
+            statement.execute("CREATE INDEX idx_messages_room_id ON messages (room_id, id DESC)");
+            statement.execute("CREATE INDEX idx_messages_room_timestamp_id ON messages (room_id, timestamp DESC, id DESC)");
+            statement.execute("CREATE INDEX idx_messages_sender_client_message_id ON messages (sender, client_message_id)");
+
+            // The validated CHECK proves the bound, so the table is not scanned
+            statement.execute("ALTER TABLE messages ATTACH PARTITION messages_legacy FOR VALUES FROM (MINVALUE) TO (" + upperBound + ")");
+            statement.execute("ALTER TABLE messages_legacy DROP CONSTRAINT " + BOUND_CONSTRAINT);
+            connection.commit();
+            log.info("Partitioned messages by id; existing messages form the first partition, up to id {}", upperBound);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static boolean constraintExists(Connection connection, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM pg_constraint WHERE conname = ?")) {
+            statement.setString(1, name);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
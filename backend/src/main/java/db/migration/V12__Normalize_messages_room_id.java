@@ -0,0 +1,233 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces {@code messages.room_id}, the room name as VARCHAR(50), with the BIGINT id of the room, a foreign key to
+ * {@code chat_rooms} and an index on (room_id, id DESC).
+ * <p>
+ * Runs outside a transaction, so no step holds a lock on {@code messages} for longer than it takes:
+ * <ol>
+ *     <li>A nullable {@code room_ref} column is added, and a trigger fills it for rows that instances still
+ *     running the previous version insert meanwhile.</li>
+ *     <li>Existing rows are backfilled in chunks of {@value #BACKFILL_CHUNK_ROWS} ids, each committed on its own.
+ *     Rows whose room no longer exists cannot be reached through any room; they are moved to
+ *     {@code messages_orphaned}, which keeps the room name, so nothing is lost.</li>
+ *     <li>Index, foreign key and NOT NULL are first built per partition: {@code CREATE INDEX CONCURRENTLY}, and
+ *     constraints added {@code NOT VALID} and validated afterwards, which does not block writes. Declaring them on
+ *     the partitioned table then attaches the per-partition ones instead of scanning again. Like the other
+ *     references to {@code chat_rooms} (V4, V6), the foreign key is {@code ON DELETE CASCADE}: deleting a room
+ *     deletes its messages.</li>
+ *     <li>In one short transaction the name column is dropped and {@code room_ref} takes its place.</li>
+ * </ol>
+ * {@code CREATE INDEX CONCURRENTLY} waits for every open transaction, including the one Flyway's default
+ * transactional lock holds, so {@code spring.flyway.postgresql.transactional-lock} must be {@code false}.
+ * <p>
+ * Instances still on the previous version fail to insert once the swap is done; their records go to the retry topics,
+ * which the upgraded instances consume. Every step before the swap can run again, so a failed run can be repaired
+ * and retried.
+ */
+public class V12__Normalize_messages_room_id extends BaseJavaMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(V12__Normalize_messages_room_id.class);
+
+    static final int BACKFILL_CHUNK_ROWS = 10_000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        connection.setAutoCommit(true);
+
+        addColumnAndTrigger(connection);
+        backfill(connection);
+        archiveOrphans(connection);
+
+        List<String> partitions = partitions(connection);
+        createIndex(connection, partitions);
+        addForeignKey(connection, partitions);
+        setNotNull(connection, partitions);
+
+        swapColumns(connection);
+    }
+
+    private void addColumnAndTrigger(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE messages ADD COLUMN IF NOT EXISTS room_ref BIGINT");
+            statement.execute("""
+                    CREATE OR REPLACE FUNCTION messages_fill_room_ref() RETURNS trigger AS $$
+                    BEGIN
+                        IF NEW.room_ref IS NULL THEN
+                            SELECT id INTO NEW.room_ref FROM chat_rooms WHERE name = NEW.room_id;
+                        END IF;
+                        RETURN NEW;
+                    END
+                    $$ LANGUAGE plpgsql""");
+            statement.execute("DROP TRIGGER IF EXISTS messages_fill_room_ref ON messages");
+            statement.execute("CREATE TRIGGER messages_fill_room_ref BEFORE INSERT ON messages " +
+                    "FOR EACH ROW EXECUTE FUNCTION messages_fill_room_ref()");
+        }
+    }
+
+    private void backfill(Connection connection) throws SQLException {
+        long lastId = Long.MIN_VALUE;
+        long updated = 0;
+        try (PreparedStatement chunkEnd = connection.prepareStatement(
+                     "SELECT max(id) FROM (SELECT id FROM messages WHERE id > ? ORDER BY id LIMIT ?) chunk");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE messages m SET room_ref = r.id FROM chat_rooms r " +
+                             "WHERE m.id > ? AND m.id <= ? AND m.room_ref IS NULL AND r.name = m.room_id")) {
+            while (true) {
+                chunkEnd.setLong(1, lastId);
+                chunkEnd.setInt(2, BACKFILL_CHUNK_ROWS);
+                long end;
+                try (ResultSet rs = chunkEnd.executeQuery()) {
+                    rs.next();
+                    end = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        break;
+                    }
+                }
+                update.setLong(1, lastId);
+                update.setLong(2, end);
+                updated += update.executeUpdate();
+                lastId = end;
+            }
+        }
+        log.info("Backfilled the room id of {} messages", updated);
+    }
+
+    private void archiveOrphans(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS messages_orphaned (
+                        id BIGINT PRIMARY KEY,
+                        content TEXT NOT NULL,
+                        sender VARCHAR(50) NOT NULL,
+                        room_name VARCHAR(50) NOT NULL,
+                        timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+                        client_message_id VARCHAR(64),
+                        archived_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )""");
+        }
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            // Copy and delete in one transaction, so a message is either still in messages or archived
+            int archived = statement.executeUpdate("""
+                    INSERT INTO messages_orphaned (id, content, sender, room_name, timestamp, client_message_id)
+                    SELECT id, content, sender, room_id, timestamp, client_message_id FROM messages WHERE room_ref IS NULL
+                    ON CONFLICT (id) DO NOTHING""");
+            int deleted = statement.executeUpdate("DELETE FROM messages WHERE room_ref IS NULL");
+            connection.commit();
+            if (deleted > 0) {
+                log.warn("Moved {} messages of rooms that no longer exist to messages_orphaned ({} newly archived)", deleted, archived);
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private List<String> partitions(Connection connection) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                     "WHERE i.inhparent = 'messages'::regclass")) {
+            while (rs.next()) {
+                partitions.add(rs.getString(1));
+            }
+        }
+        return partitions;
+    }
+
+    private void createIndex(Connection connection, List<String> partitions) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Invalid until every partition has its index attached
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_messages_room_ref ON ONLY messages (room_ref, id DESC)");
+            for (String partition : partitions) {
+                statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + partition + "_room_ref_idx ON " + partition + " (room_ref, id DESC)");
+                statement.execute("ALTER INDEX idx_messages_room_ref ATTACH PARTITION " + partition + "_room_ref_idx");
+            }
+        }
+    }
+
+    private void addForeignKey(Connection connection, List<String> partitions) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String partition : partitions) {
+                String constraint = partition + "_room_ref_fkey";
+                if (!constraintExists(connection, constraint)) {
+                    statement.execute("ALTER TABLE " + partition + " ADD CONSTRAINT " + constraint +
+                            " FOREIGN KEY (room_ref) REFERENCES chat_rooms (id) ON DELETE CASCADE NOT VALID");
+                }
+                statement.execute("ALTER TABLE " + partition + " VALIDATE CONSTRAINT " + constraint);
+            }
+            if (!constraintExists(connection, "fk_messages_room")) {
+                // Must match the per-partition constraints, ON DELETE included, to attach them
+                statement.execute("ALTER TABLE messages ADD CONSTRAINT fk_messages_room FOREIGN KEY (room_ref) " +
+                        "REFERENCES chat_rooms (id) ON DELETE CASCADE");
+            }
+        }
+    }
+
+    private void setNotNull(Connection connection, List<String> partitions) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String partition : partitions) {
+                String constraint = partition + "_room_ref_not_null";
+                if (!constraintExists(connection, constraint)) {
+                    statement.execute("ALTER TABLE " + partition + " ADD CONSTRAINT " + constraint +
+                            " CHECK (room_ref IS NOT NULL) NOT VALID");
+                }
+                statement.execute("ALTER TABLE " + partition + " VALIDATE CONSTRAINT " + constraint);
+            }
+            // Each partition proves NOT NULL through its validated CHECK and is not scanned again
+            statement.execute("ALTER TABLE messages ALTER COLUMN room_ref SET NOT NULL");
+            for (String partition : partitions) {
+                statement.execute("ALTER TABLE " + partition + " DROP CONSTRAINT IF EXISTS " + partition + "_room_ref_not_null");
+            }
+        }
+    }
+
+    private void swapColumns(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TRIGGER IF EXISTS messages_fill_room_ref ON messages");
+            statement.execute("DROP FUNCTION IF EXISTS messages_fill_room_ref()");
+            // Takes idx_messages_room_id and idx_messages_room_timestamp_id with it
+            statement.execute("ALTER TABLE messages DROP COLUMN room_id");
+            statement.execute("ALTER TABLE messages RENAME COLUMN room_ref TO room_id");
+            statement.execute("ALTER INDEX idx_messages_room_ref RENAME TO idx_messages_room_id");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static boolean constraintExists(Connection connection, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM pg_constraint WHERE conname = ?")) {
+            statement.setString(1, name);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full-text search over message content (GET /api/messages/search): a {@code content_tsv} column with a GIN index.
+ * The 'simple' configuration lower-cases and splits words without stemming or stop words, since rooms are not
+ * written in any one language.
+ * <p>
+ * A stored generated column would rewrite every partition under an exclusive lock. Like V12, this runs outside a
+ * transaction instead, so no step blocks writes to {@code messages} for longer than it takes:
+ * <ol>
+ *     <li>A plain nullable {@code content_tsv} column is added, and a trigger fills it on every insert and on
+ *     updates of the content.</li>
+ *     <li>Existing rows are backfilled in chunks of {@value #BACKFILL_CHUNK_ROWS} ids, each committed on its own.
+ *     Until a row is backfilled it does not show up in search results.</li>
+ *     <li>The index is built per partition with {@code CREATE INDEX CONCURRENTLY} and attached to an index declared
+ *     {@code ON ONLY} the partitioned table. Partitions created later get it from the partitioned table.</li>
+ * </ol>
+ * As for V12, {@code spring.flyway.postgresql.transactional-lock} must be {@code false}: the index build waits for
+ * every open transaction, including one holding Flyway's lock. Every step can run again, so a failed run can be
+ * repaired and retried.
+ */
+public class V13__Add_messages_full_text_search extends BaseJavaMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(V13__Add_messages_full_text_search.class);
+
+    static final int BACKFILL_CHUNK_ROWS = 10_000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        connection.setAutoCommit(true);
+
+        addColumnAndTrigger(connection);
+        backfill(connection);
+        createIndex(connection, partitions(connection));
+    }
+
+    private void addColumnAndTrigger(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_tsv tsvector");
+            statement.execute("""
+                    CREATE OR REPLACE FUNCTION messages_fill_content_tsv() RETURNS trigger AS $$
+                    BEGIN
+                        NEW.content_tsv := to_tsvector('simple', NEW.content);
+                        RETURN NEW;
+                    END
+                    $$ LANGUAGE plpgsql""");
+            statement.execute("DROP TRIGGER IF EXISTS messages_fill_content_tsv ON messages");
+            statement.execute("CREATE TRIGGER messages_fill_content_tsv BEFORE INSERT OR UPDATE OF content ON messages " +
+                    "FOR EACH ROW EXECUTE FUNCTION messages_fill_content_tsv()");
+        }
+    }
+
+    private void backfill(Connection connection) throws SQLException {
+        long lastId = Long.MIN_VALUE;
+        long updated = 0;
+        try (PreparedStatement chunkEnd = connection.prepareStatement(
+                     "SELECT max(id) FROM (SELECT id FROM messages WHERE id > ? ORDER BY id LIMIT ?) chunk");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE messages SET content_tsv = to_tsvector('simple', content) " +
+                             "WHERE id > ? AND id <= ? AND content_tsv IS NULL")) {
+            while (true) {
+                chunkEnd.setLong(1, lastId);
+                chunkEnd.setInt(2, BACKFILL_CHUNK_ROWS);
+                long end;
+                try (ResultSet rs = chunkEnd.executeQuery()) {
+                    rs.next();
+                    end = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        break;
+                    }
+                }
+                update.setLong(1, lastId);
+                update.setLong(2, end);
+                updated += update.executeUpdate();
+                lastId = end;
+            }
+        }
+        log.info("Backfilled the search vector of {} messages", updated);
+    }
+
+    private List<String> partitions(Connection connection) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                     "WHERE i.inhparent = 'messages'::regclass")) {
+            while (rs.next()) {
+                partitions.add(rs.getString(1));
+            }
+        }
+        return partitions;
+    }
+
+    private void createIndex(Connection connection, List<String> partitions) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Invalid until every partition has its index attached
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_messages_content_tsv ON ONLY messages USING GIN (content_tsv)");
+            for (String partition : partitions) {
+                statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + partition + "_content_tsv_idx ON " + partition +
+                        " USING GIN (content_tsv)");
+                statement.execute("ALTER INDEX idx_messages_content_tsv ATTACH PARTITION " + partition + "_content_tsv_idx");
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+-- Message ids are generated by the application (SnowflakeIdGenerator) and ordered by time. They are far above
+-- any value the sequence handed out, so existing messages keep sorting before new ones.
+ALTER TABLE messages ALTER COLUMN id DROP DEFAULT;
+DROP SEQUENCE IF EXISTS messages_id_seq;
+
+-- Keyset pagination of a room's history by id: WHERE room_id = ? AND id < ? ORDER BY id DESC LIMIT ?
+CREATE INDEX idx_messages_room_id ON messages (room_id, id DESC);
@@ -0,0 +1,4 @@
+-- Id assigned to the message at ingest. A redrive publishes the message with it again, so a message that was
+-- stored after all (or redriven twice) is recognised as a copy instead of being stored under a new id.
+-- NULL for dead letters recorded before this column existed; those still get a fresh id on redrive.
+ALTER TABLE dead_letter_messages ADD COLUMN message_id BIGINT;
@@ -0,0 +1,35 @@
+-- Brings back the uniqueness of (sender, client_message_id) that V11 had to give up: a unique constraint on the
+-- partitioned messages table would have to include the partition key (id), and a message the client sends twice
+-- gets two ids. The claim lives in a plain table instead, written by a trigger in the same statement, and so the
+-- same transaction, as the message. A second message with the same key fails with a unique violation like before,
+-- whichever way it is inserted (JPA, multi-row INSERT or COPY). MessagePartitionManager deletes the claims of
+-- messages whose partition it removes.
+CREATE TABLE message_dedup (
+    sender VARCHAR(50) NOT NULL,
+    client_message_id VARCHAR(64) NOT NULL,
+    message_id BIGINT NOT NULL,
+    CONSTRAINT uq_message_dedup_sender_client_message_id PRIMARY KEY (sender, client_message_id)
+);
+
+CREATE INDEX idx_message_dedup_message_id ON message_dedup (message_id);
+
+-- Copies that slipped in while there was no constraint keep their rows; the oldest one holds the claim
+INSERT INTO message_dedup (sender, client_message_id, message_id)
+SELECT DISTINCT ON (sender, client_message_id) sender, client_message_id, id
+FROM messages
+WHERE client_message_id IS NOT NULL
+ORDER BY sender, client_message_id, id;
+
+CREATE FUNCTION messages_claim_client_message_id() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO message_dedup (sender, client_message_id, message_id)
+    VALUES (NEW.sender, NEW.client_message_id, NEW.id);
+    RETURN NULL;
+END $$;
+
+-- Defined on the partitioned table, so every current and future partition gets it
+CREATE TRIGGER trg_messages_claim_client_message_id
+    AFTER INSERT ON messages
+    FOR EACH ROW
+    WHEN (NEW.client_message_id IS NOT NULL)
+    EXECUTE FUNCTION messages_claim_client_message_id();
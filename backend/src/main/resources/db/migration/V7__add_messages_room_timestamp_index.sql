@@ -0,0 +1,3 @@
+-- Serves keyset pagination of a room's history: WHERE room_id = ? AND (timestamp, id) < (?, ?)
+-- ORDER BY timestamp DESC, id DESC LIMIT ? becomes a single index range scan.
+CREATE INDEX idx_messages_room_timestamp_id ON messages (room_id, timestamp DESC, id DESC);
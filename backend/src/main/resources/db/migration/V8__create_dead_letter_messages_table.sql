@@ -0,0 +1,19 @@
+CREATE TABLE dead_letter_messages (
+    id BIGSERIAL PRIMARY KEY,
+    dlt_topic VARCHAR(255) NOT NULL,
+    dlt_partition INT NOT NULL,
+    dlt_offset BIGINT NOT NULL,
+    room_id VARCHAR(50) NOT NULL,
+    sender VARCHAR(50) NOT NULL,
+    content TEXT NOT NULL,
+    message_timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+    error_message TEXT,
+    failed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    redriven_at TIMESTAMP WITH TIME ZONE,
+
+    -- A DLT record that is delivered twice is stored once
+    CONSTRAINT uq_dead_letter_source UNIQUE (dlt_topic, dlt_partition, dlt_offset)
+);
+
+CREATE INDEX idx_dead_letters_room_timestamp ON dead_letter_messages (room_id, message_timestamp);
+CREATE INDEX idx_dead_letters_timestamp ON dead_letter_messages (message_timestamp);
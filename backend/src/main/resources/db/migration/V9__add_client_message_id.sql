@@ -0,0 +1,6 @@
+-- Idempotency key generated by the client for every send. Redelivered copies of a message carry the same key,
+-- so the constraint rejects them; NULLs (older messages, clients without ids) never conflict.
+ALTER TABLE messages ADD COLUMN client_message_id VARCHAR(64);
+ALTER TABLE messages ADD CONSTRAINT uq_messages_sender_client_message_id UNIQUE (sender, client_message_id);
+
+ALTER TABLE dead_letter_messages ADD COLUMN client_message_id VARCHAR(64);
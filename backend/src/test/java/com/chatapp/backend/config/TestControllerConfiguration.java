@@ -5,6 +5,7 @@ import com.chatapp.backend.repository.MessageRepository;
 import com.chatapp.backend.repository.UserRepository;
 import com.chatapp.backend.service.ChatRoomService;
 import com.chatapp.backend.service.CustomUserDetailsService;
+import com.chatapp.backend.service.RoomMembershipCache;
 import com.chatapp.backend.service.RoomInvitationService;
 import com.chatapp.backend.utils.JwtUtils;
 import org.mockito.Mockito;
@@ -17,6 +18,8 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.Optional;
+
 import static org.mockito.ArgumentMatchers.anyString;
 
 @TestConfiguration
@@ -88,6 +91,16 @@ public class TestControllerConfiguration {
         return redisTemplateMock;
     }
 
+    @Bean
+    @Primary
+    public RoomMembershipCache mockRoomMembershipCache() {
+        System.out.println("--- Providing Mock RoomMembershipCache via TestConfig ---");
+        RoomMembershipCache roomMembershipCacheMock = Mockito.mock(RoomMembershipCache.class);
+        // Every room exists, so consumed messages can be persisted
+        Mockito.when(roomMembershipCacheMock.findRoomId(anyString())).thenReturn(Optional.of(1L));
+        return roomMembershipCacheMock;
+    }
+
     @Bean
     @Primary
     public MessageRepository mockMessageRepository() {
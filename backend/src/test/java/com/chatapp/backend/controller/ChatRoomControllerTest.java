@@ -3,6 +3,7 @@ package com.chatapp.backend.controller;
 import com.chatapp.backend.config.TestControllerConfiguration;
 import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.User;
+import com.chatapp.backend.model.dto.ChatRoomDto;
 import com.chatapp.backend.model.dto.CreateChatRoomRequest;
 import com.chatapp.backend.repository.ChatRoomRepository;
 import com.chatapp.backend.repository.UserRepository;
@@ -159,7 +160,10 @@ class ChatRoomControllerTest {
     @Test
     @WithMockUser(username = "mockUser")
     void getUserChatRooms_shouldReturnUserRooms() throws Exception {
-        List<ChatRoom> userRooms = List.of(room1, room2);
+        Instant lastActivity = Instant.parse("2025-03-01T12:00:00Z");
+        List<ChatRoomDto> userRooms = List.of(
+                ChatRoomDto.builder().id(10L).name("Room 1").createdByUsername("mockUser").memberCount(3L).lastActivityAt(lastActivity).build(),
+                ChatRoomDto.builder().id(11L).name("Room 2").createdByUsername("mockUser").memberCount(1L).build());
         given(chatRoomService.findRoomsForUser(any(User.class))).willReturn(userRooms);
 
         ResultActions response = mockMvc.perform(get("/api/rooms"));
@@ -168,7 +172,11 @@ class ChatRoomControllerTest {
             response.andExpect(status().isOk())
                     .andExpect(jsonPath("$", hasSize(2)))
                     .andExpect(jsonPath("$[0].name", is("Room 1")))
-                    .andExpect(jsonPath("$[1].name", is("Room 2")));
+                    .andExpect(jsonPath("$[0].createdByUsername", is("mockUser")))
+                    .andExpect(jsonPath("$[0].memberCount", is(3)))
+                    .andExpect(jsonPath("$[0].lastActivityAt", is("2025-03-01T12:00:00Z")))
+                    .andExpect(jsonPath("$[1].name", is("Room 2")))
+                    .andExpect(jsonPath("$[1].lastActivityAt", nullValue()));
         } catch (AssertionError e) {
             System.err.println("Failure in: getUserChatRooms");
             response.andDo(print());
@@ -348,9 +356,9 @@ class ChatRoomControllerTest {
     @Test
     @WithMockUser(username = "mockUser")
     void getDiscoverableRooms_whenAuthenticated_shouldReturnDiscoverableRoomList() throws Exception {
-        ChatRoom discoverableRoomA = ChatRoom.builder().id(30L).name("Disco Room A").isPublic(true).createdAt(Instant.now()).build();
-        ChatRoom discoverableRoomB = ChatRoom.builder().id(31L).name("Disco Room B").isPublic(true).createdAt(Instant.now()).build();
-        List<ChatRoom> serviceResponse = List.of(discoverableRoomA, discoverableRoomB);
+        ChatRoomDto discoverableRoomA = ChatRoomDto.builder().id(30L).name("Disco Room A").isPublic(true).createdAt(Instant.now()).build();
+        ChatRoomDto discoverableRoomB = ChatRoomDto.builder().id(31L).name("Disco Room B").isPublic(true).createdAt(Instant.now()).build();
+        List<ChatRoomDto> serviceResponse = List.of(discoverableRoomA, discoverableRoomB);
 
         given(chatRoomService.findDiscoverableRooms(any(User.class))).willReturn(serviceResponse);
 
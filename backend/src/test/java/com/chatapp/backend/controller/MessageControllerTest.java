@@ -1,7 +1,12 @@
 package com.chatapp.backend.controller;
 
+import com.chatapp.backend.model.AuthenticatedUser;
 import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.dto.MessageSearchHitDto;
 import com.chatapp.backend.repository.MessageRepository;
+import com.chatapp.backend.service.RecentMessageBuffer;
+import com.chatapp.backend.service.RoomMembershipCache;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,6 +26,7 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 
 import org.springframework.web.context.WebApplicationContext;
@@ -28,12 +34,17 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -52,6 +63,18 @@ class MessageControllerTest {
         public MessageRepository mockMessageRepository() {
             return Mockito.mock(MessageRepository.class);
         }
+
+        @Bean
+        @Primary
+        public RoomMembershipCache mockRoomMembershipCache() {
+            return Mockito.mock(RoomMembershipCache.class);
+        }
+
+        @Bean
+        @Primary
+        public RecentMessageBuffer mockRecentMessageBuffer() {
+            return Mockito.mock(RecentMessageBuffer.class);
+        }
     }
 
     @Autowired
@@ -68,6 +91,17 @@ class MessageControllerTest {
     @Autowired
     private MessageRepository messageRepository;
 
+    @Autowired
+    private RoomMembershipCache roomMembershipCache;
+
+    @Autowired
+    private RecentMessageBuffer recentMessageBuffer;
+
+    private static final long ROOM1_ID = 7L;
+    private static final long USER_ID = 42L;
+
+    private final AuthenticatedUser member = new AuthenticatedUser(USER_ID, "user1");
+
     private ChatMessage message1;
     private ChatMessage message2;
 
@@ -78,7 +112,11 @@ class MessageControllerTest {
                 .apply(springSecurity())
                 .build();
 
-        Mockito.reset(messageRepository);
+        Mockito.reset(messageRepository, roomMembershipCache, recentMessageBuffer);
+        given(roomMembershipCache.findRoomId("room1")).willReturn(Optional.of(ROOM1_ID));
+        given(roomMembershipCache.findRoomId("emptyRoom")).willReturn(Optional.of(8L));
+        given(roomMembershipCache.isMember(USER_ID, "room1")).willReturn(true);
+        given(roomMembershipCache.isMember(USER_ID, "emptyRoom")).willReturn(true);
 
         message1 = new ChatMessage();
         message1.setId(1L);
@@ -98,7 +136,6 @@ class MessageControllerTest {
     }
 
     @Test
-    @WithMockUser
     void getMessages_whenMessagesExist_shouldReturnPagedMessages() throws Exception {
         // Arrange
         String roomId = "room1";
@@ -109,11 +146,11 @@ class MessageControllerTest {
         Page<ChatMessage> messagePage = new PageImpl<>(messages, pageable, messages.size());
 
         // Mock repository behavior
-        given(messageRepository.findByRoomIdOrderByTimestampDesc(eq(roomId), any(Pageable.class)))
+        given(messageRepository.findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class)))
                 .willReturn(messagePage);
 
         // Act
-        ResultActions response = mockMvc.perform(get("/api/messages")
+        ResultActions response = mockMvc.perform(get("/api/messages").with(user(member))
                 .param("roomId", roomId)
                 .param("page", String.valueOf(page))
                 .param("size", String.valueOf(size))
@@ -122,8 +159,8 @@ class MessageControllerTest {
         // Assert
         response.andExpect(status().isOk())
                 .andExpect(jsonPath("$.content", hasSize(2)))
-                .andExpect(jsonPath("$.content[0].id", is((int)message2.getId().longValue())))
-                .andExpect(jsonPath("$.content[1].id", is((int)message1.getId().longValue())))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message2.getId()))))
+                .andExpect(jsonPath("$.content[1].id", is(String.valueOf(message1.getId()))))
                 .andExpect(jsonPath("$.content[0].content", is("Hi there")))
                 .andExpect(jsonPath("$.content[1].content", is("Hello")))
                 .andExpect(jsonPath("$.totalPages", is(1)))
@@ -132,11 +169,10 @@ class MessageControllerTest {
                 .andExpect(jsonPath("$.size", is(size)));
 
         // Verify
-        verify(messageRepository, times(1)).findByRoomIdOrderByTimestampDesc(eq(roomId), any(Pageable.class));
+        verify(messageRepository, times(1)).findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class));
     }
 
     @Test
-    @WithMockUser
     void getMessages_whenNoMessagesExist_shouldReturnEmptyPage() throws Exception {
         String roomId = "emptyRoom";
         int page = 0;
@@ -144,10 +180,10 @@ class MessageControllerTest {
         Pageable pageable = PageRequest.of(page, size);
         Page<ChatMessage> emptyPage = new PageImpl<>(List.of(), pageable, 0); // Empty page
 
-        given(messageRepository.findByRoomIdOrderByTimestampDesc(eq(roomId), any(Pageable.class)))
+        given(messageRepository.findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class)))
                 .willReturn(emptyPage);
 
-        ResultActions response = mockMvc.perform(get("/api/messages")
+        ResultActions response = mockMvc.perform(get("/api/messages").with(user(member))
                 .param("roomId", roomId)
                 .param("page", String.valueOf(page))
                 .param("size", String.valueOf(size))
@@ -157,7 +193,75 @@ class MessageControllerTest {
                 .andExpect(jsonPath("$.content", hasSize(0)))
                 .andExpect(jsonPath("$.totalElements", is(0)));
 
-        verify(messageRepository, times(1)).findByRoomIdOrderByTimestampDesc(eq(roomId), any(Pageable.class));
+        verify(messageRepository, times(1)).findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    void getMessages_firstPageWhenBuffered_shouldNotQueryTheDatabase() throws Exception {
+        given(recentMessageBuffer.latest("room1", ROOM1_ID, 10))
+                .willReturn(Optional.of(List.of(message2, message1)));
+
+        ResultActions response = mockMvc.perform(get("/api/messages").with(user(member))
+                .param("roomId", "room1")
+                .param("page", "0")
+                .param("size", "10")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(2)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message2.getId()))))
+                .andExpect(jsonPath("$.totalElements", is(2)))
+                .andExpect(jsonPath("$.totalPages", is(1)));
+
+        verify(messageRepository, never()).findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class));
+        // A page that is not full tells the total by itself
+        verify(messageRepository, never()).countByChatRoomId(anyLong());
+    }
+
+    @Test
+    void getMessagesSince_whenBuffered_shouldNotQueryTheDatabase() throws Exception {
+        given(recentMessageBuffer.after("room1", ROOM1_ID, 1L, 3)).willReturn(Optional.of(List.of(message2)));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/since").with(user(member))
+                .param("roomId", "room1")
+                .param("after", "1")
+                .param("limit", "2")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message2.getId()))))
+                .andExpect(jsonPath("$.hasNext", is(false)));
+
+        verify(messageRepository, never()).findByChatRoomIdAfterId(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void getMessagesSince_whenNotBuffered_shouldReadNewerMessagesFromTheDatabase() throws Exception {
+        given(messageRepository.findByChatRoomIdAfterId(ROOM1_ID, 0L, 2)).willReturn(List.of(message1, message2));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/since").with(user(member))
+                .param("roomId", "room1")
+                .param("after", "0")
+                .param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message1.getId()))))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is(String.valueOf(message1.getId()))));
+    }
+
+    @Test
+    void getMessagesSince_withMalformedCursor_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/api/messages/since").with(user(member))
+                        .param("roomId", "room1")
+                        .param("after", "yesterday")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(recentMessageBuffer, never()).after(any(), anyLong(), anyLong(), anyInt());
     }
 
     @Test
@@ -172,11 +276,174 @@ class MessageControllerTest {
     }
 
     @Test
-    @WithMockUser
     void getMessages_whenMissingRoomId_shouldReturnBadRequest() throws Exception {
-        ResultActions response = mockMvc.perform(get("/api/messages")
+        ResultActions response = mockMvc.perform(get("/api/messages").with(user(member))
                 .accept(MediaType.APPLICATION_JSON));
 
         response.andExpect(status().isBadRequest());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getMessageHistory_withoutCursor_shouldReturnNewestSliceAndNextCursor() throws Exception {
+        String roomId = "room1";
+        // limit + 1 rows come back, so there is an older slice
+        given(messageRepository.findLatestByChatRoomId(ROOM1_ID, 2)).willReturn(List.of(message2, message1));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/history").with(user(member))
+                .param("roomId", roomId)
+                .param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message2.getId()))))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is(String.valueOf(message2.getId()))));
+
+        verify(messageRepository, never()).findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    void getMessageHistory_withMessageIdCursor_shouldSeekPastThatMessage() throws Exception {
+        String roomId = "room1";
+        given(messageRepository.findByChatRoomIdBeforeId(ROOM1_ID, message2.getId(), 21))
+                .willReturn(List.of(message1));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/history").with(user(member))
+                .param("roomId", roomId)
+                .param("before", String.valueOf(message2.getId()))
+                .param("limit", "20")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message1.getId()))))
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.nextCursor", nullValue()));
+
+        // The cursor is the id itself, the anchor message is not looked up
+        verify(messageRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void getMessageHistory_withTimestampCursor_shouldReturnStrictlyOlderMessages() throws Exception {
+        String roomId = "room1";
+        Instant before = message2.getTimestamp();
+        long beforeId = SnowflakeIdGenerator.lowestIdAt(before);
+        given(messageRepository.findByChatRoomIdBeforeId(ROOM1_ID, beforeId, 51)).willReturn(List.of(message1));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/history").with(user(member))
+                .param("roomId", roomId)
+                .param("before", before.toString())
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.hasNext", is(false)));
+
+        verify(messageRepository, times(1)).findByChatRoomIdBeforeId(ROOM1_ID, beforeId, 51);
+    }
+
+    @Test
+    void getMessageHistory_withMalformedCursor_shouldReturnBadRequest() throws Exception {
+        ResultActions response = mockMvc.perform(get("/api/messages/history").with(user(member))
+                .param("roomId", "room1")
+                .param("before", "not-a-cursor")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isBadRequest());
+        verify(messageRepository, never()).findByChatRoomIdBeforeId(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void getMessageHistory_forUnknownRoom_shouldReturnEmptySliceWithoutQueryingMessages() throws Exception {
+        given(roomMembershipCache.findRoomId("noSuchRoom")).willReturn(Optional.empty());
+
+        ResultActions response = mockMvc.perform(get("/api/messages/history").with(user(member))
+                .param("roomId", "noSuchRoom")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(0)))
+                .andExpect(jsonPath("$.hasNext", is(false)));
+
+        verify(messageRepository, never()).findLatestByChatRoomId(anyLong(), anyInt());
+    }
+
+    @Test
+    void readingMessages_ofARoomTheCallerIsNotAMemberOf_shouldBeForbidden() throws Exception {
+        given(roomMembershipCache.isMember(USER_ID, "room1")).willReturn(false);
+
+        mockMvc.perform(get("/api/messages").with(user(member)).param("roomId", "room1"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/api/messages/history").with(user(member)).param("roomId", "room1"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/api/messages/since").with(user(member)).param("roomId", "room1").param("after", "1"))
+                .andExpect(status().isForbidden());
+
+        verify(recentMessageBuffer, never()).latest(any(), anyLong(), anyInt());
+        verify(recentMessageBuffer, never()).after(any(), anyLong(), anyLong(), anyInt());
+        verify(messageRepository, never()).findLatestByChatRoomId(anyLong(), anyInt());
+        verify(messageRepository, never()).findByChatRoomIdOrderByIdDesc(anyLong(), any(Pageable.class));
+    }
+
+    private MessageSearchHitDto hit(ChatMessage message, float rank) {
+        return MessageSearchHitDto.builder()
+                .id(message.getId())
+                .roomId(message.getRoomId())
+                .sender(message.getSender())
+                .content(message.getContent())
+                .snippet("<mark>" + message.getContent() + "</mark>")
+                .timestamp(message.getTimestamp())
+                .rank(rank)
+                .build();
+    }
+
+    @Test
+    @WithMockUser(username = "user1")
+    void searchMessages_shouldSearchTheCallersRoomsAndReturnARankCursor() throws Exception {
+        given(messageRepository.search("user1", ROOM1_ID, "hello", null, null, 2))
+                .willReturn(List.of(hit(message1, 0.5f), hit(message2, 0.25f)));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/search")
+                .param("roomId", "room1")
+                .param("q", " hello ")
+                .param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(String.valueOf(message1.getId()))))
+                .andExpect(jsonPath("$.content[0].snippet", is("<mark>Hello</mark>")))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.nextCursor", is("0.5_" + message1.getId())));
+    }
+
+    @Test
+    @WithMockUser(username = "user1")
+    void searchMessages_withCursorAndNoRoom_shouldContinueAfterTheCursorAcrossAllRooms() throws Exception {
+        given(messageRepository.search("user1", null, "hello", 0.5f, 1L, 21)).willReturn(List.of(hit(message2, 0.25f)));
+
+        ResultActions response = mockMvc.perform(get("/api/messages/search")
+                .param("q", "hello")
+                .param("after", "0.5_1")
+                .accept(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.nextCursor", nullValue()));
+    }
+
+    @Test
+    @WithMockUser
+    void searchMessages_withBlankQueryOrMalformedCursor_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/api/messages/search").param("q", "  ").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/messages/search").param("q", "hello").param("after", "not-a-cursor")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        verify(messageRepository, never()).search(any(), any(), any(), any(), any(), anyInt());
+    }
+}
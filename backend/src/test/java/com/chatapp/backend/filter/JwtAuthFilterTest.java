@@ -0,0 +1,96 @@
+package com.chatapp.backend.filter;
+
+import com.chatapp.backend.model.AuthenticatedUser;
+import com.chatapp.backend.model.User;
+import com.chatapp.backend.utils.JwtUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JwtAuthFilterTest {
+
+    private static final String SECRET = "BjfdkB2OVEAfWA41INn0vDxf+Uknf6Cf3ED1NZTUf8g=";
+
+    @Mock
+    private UserDetailsService userDetailsService;
+
+    private JwtUtils jwtUtils;
+    private JwtAuthFilter jwtAuthFilter;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", 60_000);
+        jwtUtils.init();
+        jwtAuthFilter = new JwtAuthFilter(jwtUtils, userDetailsService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private Authentication filterWithBearer(String token) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/rooms");
+        request.addHeader("Authorization", "Bearer " + token);
+        jwtAuthFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Test
+    void whenTokenCarriesUserId_thenPrincipalIsBuiltFromClaimsWithoutLookup() throws Exception {
+        User user = new User();
+        user.setId(42L);
+        user.setUsername("alice");
+        user.setPassword("encoded");
+
+        Authentication authentication = filterWithBearer(jwtUtils.generateToken(user));
+
+        assertThat(authentication).isNotNull();
+        assertThat(authentication.getName()).isEqualTo("alice");
+        assertThat(authentication.getPrincipal()).isEqualTo(new AuthenticatedUser(42L, "alice"));
+        verifyNoInteractions(userDetailsService);
+    }
+
+    @Test
+    void whenTokenHasNoUserId_thenFallsBackToUserDetailsService() throws Exception {
+        UserDetails legacyUser = org.springframework.security.core.userdetails.User
+                .withUsername("bob").password("encoded").build();
+        when(userDetailsService.loadUserByUsername("bob")).thenReturn(legacyUser);
+
+        Authentication authentication = filterWithBearer(jwtUtils.generateToken(legacyUser));
+
+        assertThat(authentication).isNotNull();
+        assertThat(authentication.getPrincipal()).isSameAs(legacyUser);
+        verify(userDetailsService, times(1)).loadUserByUsername("bob");
+    }
+
+    @Test
+    void whenTokenIsTampered_thenRequestStaysAnonymous() throws Exception {
+        User user = new User();
+        user.setId(42L);
+        user.setUsername("alice");
+        String token = jwtUtils.generateToken(user);
+
+        Authentication authentication = filterWithBearer(token.substring(0, token.length() - 2) + "xx");
+
+        assertThat(authentication).isNull();
+        verifyNoInteractions(userDetailsService);
+    }
+}
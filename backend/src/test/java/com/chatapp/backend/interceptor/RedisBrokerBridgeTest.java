@@ -0,0 +1,147 @@
+package com.chatapp.backend.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Two bridges stand in for two instances; the mocked Redis template hands what one publishes to the other.
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisBrokerBridgeTest {
+
+    private static final String CHANNEL = "chat-broker";
+    private static final String USER_DESTINATION_BROADCAST = "/topic/unresolved-user-destination";
+    private static final String USER_REGISTRY_BROADCAST = "/topic/simp-user-registry";
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private MessageChannel brokerChannelA;
+
+    @Mock
+    private MessageChannel brokerChannelB;
+
+    @Mock
+    private MessageHandler userDestinationHandlerB;
+
+    @Mock
+    private MessageHandler userRegistryHandlerB;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private RedisBrokerBridge nodeA;
+    private RedisBrokerBridge nodeB;
+
+    @BeforeEach
+    void setUp() {
+        nodeA = new RedisBrokerBridge(redisTemplate, objectMapper, CHANNEL, "node-a", brokerChannelA,
+                mock(MessageHandler.class), mock(MessageHandler.class), USER_DESTINATION_BROADCAST, USER_REGISTRY_BROADCAST);
+        nodeB = new RedisBrokerBridge(redisTemplate, objectMapper, CHANNEL, "node-b", brokerChannelB,
+                userDestinationHandlerB, userRegistryHandlerB, USER_DESTINATION_BROADCAST, USER_REGISTRY_BROADCAST);
+    }
+
+    private Message<byte[]> brokerMessage(String destination, String payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    /** Sends on node A and returns what Redis would deliver to the subscribers. */
+    private DefaultMessage publishFromNodeA(Message<?> message) {
+        assertThat(nodeA.preSend(message, brokerChannelA)).isSameAs(message);
+        ArgumentCaptor<String> published = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(CHANNEL), published.capture());
+        return new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8), published.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void topicMessage_shouldBeDeliveredToTheBrokerOfOtherNodes() {
+        DefaultMessage redisMessage = publishFromNodeA(brokerMessage("/topic/chat/General", "{\"content\":\"hi\"}"));
+
+        nodeB.onMessage(redisMessage, null);
+
+        ArgumentCaptor<Message<?>> delivered = ArgumentCaptor.forClass(Message.class);
+        verify(brokerChannelB).send(delivered.capture());
+        Message<?> message = delivered.getValue();
+        assertThat(SimpMessageHeaderAccessor.getDestination(message.getHeaders())).isEqualTo("/topic/chat/General");
+        assertThat(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8)).isEqualTo("{\"content\":\"hi\"}");
+        assertThat(message.getHeaders().get("contentType").toString()).isEqualTo("application/json");
+    }
+
+    @Test
+    void ownMessages_shouldNotBeDeliveredTwice() {
+        DefaultMessage redisMessage = publishFromNodeA(brokerMessage("/topic/chat/General", "{}"));
+
+        nodeA.onMessage(redisMessage, null);
+
+        verifyNoInteractions(brokerChannelA);
+    }
+
+    @Test
+    void deliveredRemoteMessages_shouldNotBePublishedAgain() {
+        DefaultMessage redisMessage = publishFromNodeA(brokerMessage("/topic/chat/General", "{}"));
+        // The broker channel runs its interceptors on the sending thread
+        when(brokerChannelB.send(any())).thenAnswer(invocation -> {
+            nodeB.preSend(invocation.getArgument(0), brokerChannelB);
+            return true;
+        });
+
+        nodeB.onMessage(redisMessage, null);
+
+        verify(redisTemplate, times(1)).convertAndSend(anyString(), anyString());
+    }
+
+    @Test
+    void unresolvedUserDestination_shouldBeResolvedByTheOtherNodes() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(USER_DESTINATION_BROADCAST);
+        accessor.setNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, "/user/alice/queue/invitations");
+        DefaultMessage redisMessage = publishFromNodeA(
+                MessageBuilder.createMessage("{}".getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders()));
+
+        nodeB.onMessage(redisMessage, null);
+
+        ArgumentCaptor<Message<?>> delivered = ArgumentCaptor.forClass(Message.class);
+        verify(userDestinationHandlerB).handleMessage(delivered.capture());
+        SimpMessageHeaderAccessor received = SimpMessageHeaderAccessor.getAccessor(delivered.getValue(), SimpMessageHeaderAccessor.class);
+        assertThat(received).isNotNull();
+        assertThat(received.getSessionId()).isEqualTo(RedisBrokerBridge.BRIDGE_SESSION_ID);
+        assertThat(received.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION))
+                .isEqualTo("/user/alice/queue/invitations");
+        verifyNoInteractions(brokerChannelB);
+    }
+
+    @Test
+    void userRegistrySnapshot_shouldBeHandedToTheUserRegistry() {
+        DefaultMessage redisMessage = publishFromNodeA(brokerMessage(USER_REGISTRY_BROADCAST, "{}"));
+
+        nodeB.onMessage(redisMessage, null);
+
+        verify(userRegistryHandlerB).handleMessage(any());
+        verifyNoInteractions(brokerChannelB, userDestinationHandlerB);
+    }
+}
@@ -3,6 +3,8 @@ package com.chatapp.backend.kafka;
 import com.chatapp.backend.config.TestControllerConfiguration;
 import com.chatapp.backend.model.ChatMessage;
 import com.chatapp.backend.repository.MessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -12,8 +14,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 
@@ -30,7 +34,8 @@ import static org.mockito.Mockito.*;
 @DirtiesContext
 @EmbeddedKafka(partitions = 1,
         brokerProperties = {"listeners=PLAINTEXT://localhost:9092", "port=9092"},
-        topics = {"${app.kafka.topics.chat-messages}", "${app.kafka.topics.chat-messages-dlt}"})
+        topics = {"${app.kafka.topics.chat-messages}", "${app.kafka.topics.chat-messages}-retry-100",
+                "${app.kafka.topics.chat-messages}-retry-200", "${app.kafka.topics.chat-messages-dlt}", "${app.kafka.topics.chat-broadcast}"})
 @Import(TestControllerConfiguration.class)
 class KafkaIntegrationTest {
 
@@ -49,6 +54,12 @@ class KafkaIntegrationTest {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Captor
     private ArgumentCaptor<ChatMessage> chatMessageCaptor;
     @Captor
@@ -57,6 +68,8 @@ class KafkaIntegrationTest {
     @BeforeEach
     void setUp() {
         Mockito.reset(messageRepository, messagingTemplate);
+        // The broadcast consumer starts at the latest offset, so it must be assigned before anything is sent
+        ContainerTestUtils.waitForAssignment(registry.getListenerContainer("chat-broadcast"), 1);
     }
 
     @Test
@@ -82,14 +95,21 @@ class KafkaIntegrationTest {
                 verify(messageRepository, times(1)).save(any(ChatMessage.class))
         );
 
-        verify(messagingTemplate, times(1)).convertAndSend(
-                destinationCaptor.capture(),
-                chatMessageCaptor.capture()
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                verify(messagingTemplate, times(1)).convertAndSend(
+                        destinationCaptor.capture(),
+                        chatMessageCaptor.capture()
+                )
         );
         assertThat(destinationCaptor.getValue()).isEqualTo("/topic/chat/testRoom");
         assertThat(chatMessageCaptor.getValue().getId()).isEqualTo(savedMessage.getId());
     }
 
+    private double consumed(String tier, String outcome) {
+        Counter counter = meterRegistry.find("chat.messages.consumed").tags("tier", tier, "outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
     @Test
     void whenMessageProcessingFailsAfterRetries_shouldEndUpInDLT() {
         ChatMessage messageToFail = new ChatMessage();
@@ -100,16 +120,19 @@ class KafkaIntegrationTest {
 
         doThrow(new RuntimeException("Simulated permanent processing error!"))
                 .when(messageRepository).save(any(ChatMessage.class));
+        double deadLettered = consumed("dlt", "dead-lettered");
 
         kafkaTemplate.send(chatTopic, messageToFail);
 
-        await().atMost(10, TimeUnit.SECONDS).untilAsserted(() ->
-                verify(messageRepository, times(4)).save(any(ChatMessage.class))
+        // Main topic, then one attempt on each retry topic (retry-100, retry-200 in tests)
+        await().atMost(20, TimeUnit.SECONDS).untilAsserted(() ->
+                assertThat(consumed("dlt", "dead-lettered")).isEqualTo(deadLettered + 1)
         );
+        verify(messageRepository, times(3)).save(any(ChatMessage.class));
+        assertThat(consumed("retry-100", "failure")).isGreaterThanOrEqualTo(1);
+        assertThat(consumed("retry-200", "failure")).isGreaterThanOrEqualTo(1);
 
         verify(messagingTemplate, never()).convertAndSend(anyString(), any(ChatMessage.class));
-
-        System.out.println("DLT Test: Verified save failed 4 times. Assuming DLT processing occurred.");
     }
 
     @Test
@@ -122,15 +145,15 @@ class KafkaIntegrationTest {
 
         doThrow(new IllegalArgumentException("Simulated non-retryable error!"))
                 .when(messageRepository).save(any(ChatMessage.class));
+        double deadLettered = consumed("dlt", "dead-lettered");
 
         kafkaTemplate.send(chatTopic, messageNonRetry);
 
-        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
-                verify(messageRepository, times(1)).save(any(ChatMessage.class))
+        await().atMost(10, TimeUnit.SECONDS).untilAsserted(() ->
+                assertThat(consumed("dlt", "dead-lettered")).isEqualTo(deadLettered + 1)
         );
+        verify(messageRepository, times(1)).save(any(ChatMessage.class));
 
         verify(messagingTemplate, never()).convertAndSend(anyString(), any(ChatMessage.class));
-
-        System.out.println("Non-Retryable Test: Verified save failed once. Assuming DLT processing occurred.");
     }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+package com.chatapp.backend.kafka;
+
+import com.chatapp.backend.config.TestControllerConfiguration;
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import com.chatapp.backend.service.KafkaProducerService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "app.kafka.topics.chat-messages=chat-messages-ordering-test",
+        "app.kafka.topics.chat-messages-dlt=chat-messages-ordering-test-dlt",
+        "app.kafka.topics.chat-broadcast=chat-broadcast-ordering-test",
+        "app.kafka.consumer.concurrency=" + KafkaRoomOrderingIntegrationTest.PARTITIONS
+})
+@DirtiesContext
+@EmbeddedKafka(partitions = KafkaRoomOrderingIntegrationTest.PARTITIONS,
+        topics = {"chat-messages-ordering-test", "chat-messages-ordering-test-dlt", "chat-broadcast-ordering-test"})
+@Import(TestControllerConfiguration.class)
+class KafkaRoomOrderingIntegrationTest {
+
+    static final int PARTITIONS = 4;
+    private static final int ROOMS = 8;
+    private static final int MESSAGES_PER_ROOM = 50;
+
+    @Autowired
+    private KafkaProducerService kafkaProducerService;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final Map<String, List<Integer>> broadcastSequences = new ConcurrentHashMap<>();
+    private final Set<String> consumerThreads = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() {
+        Mockito.reset(messageRepository, messagingTemplate);
+        AtomicLong ids = new AtomicLong();
+
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> {
+            // Jitter widens the window in which partitions are processed concurrently
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            consumerThreads.add(Thread.currentThread().getName());
+            ChatMessage message = invocation.getArgument(0);
+            message.setId(ids.incrementAndGet());
+            return message;
+        });
+        doAnswer(invocation -> {
+            ChatMessage message = invocation.getArgument(1);
+            broadcastSequences
+                    .computeIfAbsent(message.getRoomId(), roomId -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.parseInt(message.getContent()));
+            return null;
+        }).when(messagingTemplate).convertAndSend(anyString(), any(ChatMessage.class));
+
+        ContainerTestUtils.waitForAssignment(registry.getListenerContainer("chat-messages"), PARTITIONS);
+        ContainerTestUtils.waitForAssignment(registry.getListenerContainer("chat-broadcast"), PARTITIONS);
+    }
+
+    @Test
+    void whenRoomsAreConsumedConcurrently_thenEachRoomKeepsItsSendOrder() {
+        for (int seq = 0; seq < MESSAGES_PER_ROOM; seq++) {
+            for (int room = 0; room < ROOMS; room++) {
+                ChatMessage message = new ChatMessage();
+                message.setRoomId("room-" + room);
+                message.setSender("sender-" + room);
+                message.setContent(String.valueOf(seq));
+                message.setTimestamp(Instant.now());
+                kafkaProducerService.sendMessage(message);
+            }
+        }
+
+        await().atMost(30, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(broadcastSequences).hasSize(ROOMS);
+            broadcastSequences.values().forEach(sequence -> assertThat(sequence).hasSize(MESSAGES_PER_ROOM));
+        });
+
+        List<Integer> expectedOrder = new ArrayList<>();
+        for (int seq = 0; seq < MESSAGES_PER_ROOM; seq++) {
+            expectedOrder.add(seq);
+        }
+        broadcastSequences.forEach((roomId, sequence) ->
+                assertThat(sequence).as("broadcast order for %s", roomId).containsExactlyElementsOf(expectedOrder));
+        assertThat(consumerThreads).as("records should be consumed by more than one listener thread").hasSizeGreaterThan(1);
+    }
+}
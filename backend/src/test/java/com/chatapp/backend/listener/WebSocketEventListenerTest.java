@@ -4,30 +4,34 @@ import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.User;
 import com.chatapp.backend.repository.ChatRoomRepository;
 import com.chatapp.backend.repository.UserRepository;
+import com.chatapp.backend.service.PresenceService;
+import com.chatapp.backend.service.RoomCatchUpService;
+import com.chatapp.backend.service.RoomSnapshotService;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
-import static org.mockito.Mockito.lenient;
 
 @ExtendWith(MockitoExtension.class)
 class WebSocketEventListenerTest {
@@ -36,10 +40,7 @@ class WebSocketEventListenerTest {
     private SimpMessagingTemplate messagingTemplate;
 
     @Mock
-    private RedisTemplate<String, String> redisTemplate;
-
-    @Mock
-    private ValueOperations<String, String> valueOperations;
+    private PresenceService presenceService;
 
     @Mock
     private UserRepository userRepository;
@@ -47,7 +48,12 @@ class WebSocketEventListenerTest {
     @Mock
     private ChatRoomRepository chatRoomRepository;
 
-    @InjectMocks
+    @Mock
+    private RoomCatchUpService roomCatchUpService;
+
+    @Mock
+    private RoomSnapshotService roomSnapshotService;
+
     private WebSocketEventListener listener;
 
     @Captor
@@ -57,17 +63,58 @@ class WebSocketEventListenerTest {
     private ArgumentCaptor<Object> payloadCaptor;
 
     private final String username = "testUser";
-    private final String onlineKey = "user:testUser:online";
+    private final String sessionId = "session-1";
 
     @BeforeEach
-    void setup() {
-        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    void setUp() {
+        listener = new WebSocketEventListener(messagingTemplate, presenceService, userRepository, chatRoomRepository,
+                roomCatchUpService, roomSnapshotService, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.shutdown();
     }
 
     private Principal createPrincipal(String name) {
         return new UsernamePasswordAuthenticationToken(name, null);
     }
 
+    private SessionConnectedEvent connectedEvent(Principal principal) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setSessionId(sessionId);
+        SessionConnectedEvent event = mock(SessionConnectedEvent.class);
+        when(event.getUser()).thenReturn(principal);
+        when(event.getMessage()).thenReturn(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        return event;
+    }
+
+    private SessionSubscribeEvent subscribeEvent(String destination, String lastSeenId) {
+        return subscribeEvent(destination, lastSeenId, null);
+    }
+
+    private SessionSubscribeEvent subscribeEvent(String destination, String lastSeenId, String snapshot) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(destination);
+        if (lastSeenId != null) {
+            accessor.setNativeHeader(RoomCatchUpService.LAST_SEEN_ID_HEADER, lastSeenId);
+        }
+        if (snapshot != null) {
+            accessor.setNativeHeader(RoomSnapshotService.SNAPSHOT_HEADER, snapshot);
+        }
+        return new SessionSubscribeEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()),
+                createPrincipal(username));
+    }
+
+    private SessionDisconnectEvent disconnectEvent(Principal principal) {
+        SessionDisconnectEvent event = mock(SessionDisconnectEvent.class);
+        when(event.getUser()).thenReturn(principal);
+        when(event.getSessionId()).thenReturn(sessionId);
+        return event;
+    }
+
     @Test
     @DisplayName("Anonymous user on connect is ignored")
     void testConnectAnonymousIgnored() {
@@ -77,15 +124,14 @@ class WebSocketEventListenerTest {
 
         listener.handleConnect(event);
 
-        verifyNoInteractions(valueOperations, userRepository, chatRoomRepository, messagingTemplate);
+        verifyNoInteractions(presenceService, userRepository, chatRoomRepository, messagingTemplate);
     }
 
     @Test
     @DisplayName("Handle connect: user online set and presence broadcast")
     void testHandleConnectBroadcastsOnline() {
-        Principal userPrincipal = createPrincipal(username);
-        SessionConnectedEvent event = mock(SessionConnectedEvent.class);
-        when(event.getUser()).thenReturn(userPrincipal);
+        SessionConnectedEvent event = connectedEvent(createPrincipal(username));
+        when(presenceService.sessionConnected(username, sessionId)).thenReturn(true);
 
         User user = new User();
         user.setId(42L);
@@ -101,7 +147,7 @@ class WebSocketEventListenerTest {
 
         listener.handleConnect(event);
 
-        verify(valueOperations).set(eq(onlineKey), eq("true"));
+        verify(presenceService).sessionConnected(username, sessionId);
 
         Map<String, Object> expectedPayload = Map.of("username", username, "online", true);
         verify(messagingTemplate).convertAndSend("/topic/presence/roomA", expectedPayload);
@@ -111,19 +157,29 @@ class WebSocketEventListenerTest {
     @Test
     @DisplayName("Handle connect: missing user in repository")
     void testHandleConnectMissingUser() {
-        Principal userPrincipal = createPrincipal(username);
-        SessionConnectedEvent event = mock(SessionConnectedEvent.class);
-        when(event.getUser()).thenReturn(userPrincipal);
+        SessionConnectedEvent event = connectedEvent(createPrincipal(username));
+        when(presenceService.sessionConnected(username, sessionId)).thenReturn(true);
         when(userRepository.findByUsername(username)).thenReturn(Optional.empty());
 
         listener.handleConnect(event);
 
-        verify(valueOperations).set(eq(onlineKey), eq("true"));
+        verify(presenceService).sessionConnected(username, sessionId);
 
         verify(chatRoomRepository, never()).findChatRoomsByUserId(anyLong());
         verifyNoInteractions(messagingTemplate);
     }
 
+    @Test
+    @DisplayName("Handle connect: additional session of an online user is not broadcast")
+    void testHandleConnectSecondSessionNotBroadcast() {
+        SessionConnectedEvent event = connectedEvent(createPrincipal(username));
+        when(presenceService.sessionConnected(username, sessionId)).thenReturn(false);
+
+        listener.handleConnect(event);
+
+        verifyNoInteractions(userRepository, chatRoomRepository, messagingTemplate);
+    }
+
     @Test
     @DisplayName("Anonymous user on disconnect is ignored")
     void testDisconnectAnonymousIgnored() {
@@ -133,15 +189,14 @@ class WebSocketEventListenerTest {
 
         listener.handleDisconnect(event);
 
-        verifyNoInteractions(redisTemplate, userRepository, chatRoomRepository, messagingTemplate);
+        verifyNoInteractions(presenceService, userRepository, chatRoomRepository, messagingTemplate);
     }
 
     @Test
     @DisplayName("Handle disconnect: user offline delete and presence broadcast")
     void testHandleDisconnectBroadcastsOffline() {
-        Principal userPrincipal = createPrincipal(username);
-        SessionDisconnectEvent event = mock(SessionDisconnectEvent.class);
-        when(event.getUser()).thenReturn(userPrincipal);
+        SessionDisconnectEvent event = disconnectEvent(createPrincipal(username));
+        when(presenceService.sessionDisconnected(username, sessionId)).thenReturn(true);
 
         User user = new User();
         user.setId(24L);
@@ -152,28 +207,112 @@ class WebSocketEventListenerTest {
         room1.setName("roomX");
         when(chatRoomRepository.findChatRoomsByUserId(24L)).thenReturn(List.of(room1));
 
-        when(redisTemplate.delete(onlineKey)).thenReturn(true);
-
         listener.handleDisconnect(event);
 
-        verify(redisTemplate).delete(eq(onlineKey));
+        verify(presenceService).sessionDisconnected(username, sessionId);
 
         Map<String, Object> expectedPayload = Map.of("username", username, "online", false);
         verify(messagingTemplate).convertAndSend("/topic/presence/roomX", expectedPayload);
     }
 
+    @Test
+    @DisplayName("Renew presence: users restored after a missed heartbeat are broadcast online")
+    void testRenewPresenceBroadcastsRestoredUsers() {
+        when(presenceService.renewLeases()).thenReturn(List.of(username));
+
+        User user = new User();
+        user.setId(24L);
+        user.setUsername(username);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        ChatRoom room1 = new ChatRoom();
+        room1.setName("roomX");
+        when(chatRoomRepository.findChatRoomsByUserId(24L)).thenReturn(List.of(room1));
+
+        listener.renewPresence();
+
+        Map<String, Object> expectedPayload = Map.of("username", username, "online", true);
+        verify(messagingTemplate).convertAndSend("/topic/presence/roomX", expectedPayload);
+    }
+
     @Test
     @DisplayName("Handle disconnect: missing user in repository")
     void testHandleDisconnectMissingUser() {
-        Principal userPrincipal = createPrincipal(username);
-        SessionDisconnectEvent event = mock(SessionDisconnectEvent.class);
-        when(event.getUser()).thenReturn(userPrincipal);
+        SessionDisconnectEvent event = disconnectEvent(createPrincipal(username));
+        when(presenceService.sessionDisconnected(username, sessionId)).thenReturn(true);
         when(userRepository.findByUsername(username)).thenReturn(Optional.empty());
 
         listener.handleDisconnect(event);
 
-        verify(redisTemplate).delete(eq(onlineKey));
+        verify(presenceService).sessionDisconnected(username, sessionId);
         verify(chatRoomRepository, never()).findChatRoomsByUserId(anyLong());
         verifyNoInteractions(messagingTemplate);
     }
+
+    @Test
+    @DisplayName("Handle disconnect: user with other open sessions stays online")
+    void testHandleDisconnectWithOtherSessionsNotBroadcast() {
+        SessionDisconnectEvent event = disconnectEvent(createPrincipal(username));
+        when(presenceService.sessionDisconnected(username, sessionId)).thenReturn(false);
+
+        listener.handleDisconnect(event);
+
+        verifyNoInteractions(userRepository, chatRoomRepository, messagingTemplate);
+    }
+
+    @Test
+    @DisplayName("Expired presence leases are broadcast as offline")
+    void testHandleExpiredPresenceBroadcastsOffline() {
+        User user = new User();
+        user.setId(7L);
+        user.setUsername(username);
+        ChatRoom room = new ChatRoom();
+        room.setName("roomZ");
+        when(presenceService.reapExpired()).thenReturn(List.of(username));
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+        when(chatRoomRepository.findChatRoomsByUserId(7L)).thenReturn(List.of(room));
+
+        listener.handleExpiredPresence();
+
+        verify(messagingTemplate).convertAndSend("/topic/presence/roomZ", Map.of("username", username, "online", false));
+    }
+
+    @Test
+    @DisplayName("Handle subscribe: room topic with last seen id replays the gap")
+    void testHandleSubscribeWithLastSeenIdReplays() {
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA", "123456789"));
+
+        // Sent from the room state executor
+        verify(roomCatchUpService, timeout(1000)).replay(sessionId, "sub-0", "/topic/chat/roomA", "roomA", 123456789L);
+        verifyNoInteractions(roomSnapshotService);
+    }
+
+    @Test
+    @DisplayName("Handle subscribe: first subscriptions and other topics are not replayed")
+    void testHandleSubscribeWithoutLastSeenIdIgnored() {
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA", null));
+        listener.handleSubscribe(subscribeEvent("/topic/typing/roomA", "123"));
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA/extra", "123"));
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA", "not-an-id"));
+
+        verifyNoInteractions(roomCatchUpService, roomSnapshotService);
+    }
+
+    @Test
+    @DisplayName("Handle subscribe: room topic with snapshot header sends the snapshot")
+    void testHandleSubscribeWithSnapshotSendsSnapshot() {
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA", null, "50"));
+
+        verify(roomSnapshotService, timeout(1000)).send(sessionId, "sub-0", "/topic/chat/roomA", "roomA", 50);
+        verifyNoInteractions(roomCatchUpService);
+    }
+
+    @Test
+    @DisplayName("Handle subscribe: last seen id takes precedence over a snapshot")
+    void testHandleSubscribeWithLastSeenIdAndSnapshotReplays() {
+        listener.handleSubscribe(subscribeEvent("/topic/chat/roomA", "123", "50"));
+
+        verify(roomCatchUpService, timeout(1000)).replay(sessionId, "sub-0", "/topic/chat/roomA", "roomA", 123L);
+        verifyNoInteractions(roomSnapshotService);
+    }
 }
@@ -1,21 +1,27 @@
 package com.chatapp.backend.repository;
 
+import com.chatapp.backend.model.ChatMessage;
 import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.User;
+import com.chatapp.backend.model.dto.ChatRoomDto;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 class ChatRoomRepositoryTest {
 
     @Autowired
@@ -238,4 +244,81 @@ class ChatRoomRepositoryTest {
                 .extracting(ChatRoom::getName)
                 .containsExactlyInAnyOrder("Repo Public A", "Repo Public B", "Repo Public C");
     }
-}
\ No newline at end of file
+
+    private Statistics statistics() {
+        return entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private void persistMessage(long id, ChatRoom room, Instant timestamp) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setChatRoomId(room.getId());
+        message.setSender("userRepo1");
+        message.setContent("message " + id);
+        message.setTimestamp(timestamp);
+        entityManager.persist(message);
+    }
+
+    @Test
+    void findRoomSummariesByUserId_shouldIncludeCreatorMemberCountAndLastActivity() {
+        Instant newest = Instant.parse("2025-03-01T12:00:00Z");
+        persistMessage(1L, roomPublicA, newest.minusSeconds(60));
+        persistMessage(2L, roomPublicA, newest);
+        entityManager.flush();
+        entityManager.clear();
+
+        List<ChatRoomDto> rooms = chatRoomRepository.findRoomSummariesByUserId(user1.getId());
+
+        assertThat(rooms).extracting(ChatRoomDto::getName)
+                .containsExactlyInAnyOrder("Repo Public A", "Repo Public B", "Repo Private D");
+        ChatRoomDto roomA = rooms.stream().filter(room -> room.getId().equals(roomPublicA.getId())).findFirst().orElseThrow();
+        assertThat(roomA.getCreatedByUsername()).isEqualTo("userRepo1");
+        assertThat(roomA.getMemberCount()).isEqualTo(2L);
+        assertThat(roomA.getLastActivityAt()).isEqualTo(newest);
+        ChatRoomDto roomB = rooms.stream().filter(room -> room.getId().equals(roomPublicB.getId())).findFirst().orElseThrow();
+        assertThat(roomB.getMemberCount()).isEqualTo(1L);
+        assertThat(roomB.getLastActivityAt()).isNull();
+    }
+
+    @Test
+    void findDiscoverableRoomSummariesForUser_shouldMatchTheEntityQuery() {
+        assertThat(chatRoomRepository.findDiscoverableRoomSummariesForUser(user2.getId()))
+                .extracting(ChatRoomDto::getName, ChatRoomDto::getCreatedByUsername, ChatRoomDto::getMemberCount)
+                .containsExactlyInAnyOrder(
+                        tuple("Repo Public B", "userRepo1", 1L),
+                        tuple("Repo Public C", "userRepo2", 0L));
+    }
+
+    @Test
+    void roomSummaries_shouldTakeOneStatementRegardlessOfTheNumberOfRooms() {
+        Statistics statistics = statistics();
+        statistics.clear();
+        assertThat(chatRoomRepository.findRoomSummariesByUserId(user2.getId())).hasSize(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        // Twenty more rooms, each with its own creator, that user2 is a member of
+        User managedUser2 = userRepository.findById(user2.getId()).orElseThrow();
+        for (int i = 0; i < 20; i++) {
+            User creator = new User();
+            creator.setUsername("creator" + i);
+            creator.setEmail("creator" + i + "@test.com");
+            creator.setPassword("pass");
+            creator.setChatRooms(new HashSet<>());
+            entityManager.persist(creator);
+            ChatRoom room = entityManager.persist(ChatRoom.builder().name("Extra " + i).createdBy(creator).isPublic(true).members(new HashSet<>()).build());
+            managedUser2.getChatRooms().add(room);
+            persistMessage(100L + i, room, Instant.now());
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics.clear();
+        List<ChatRoomDto> rooms = chatRoomRepository.findRoomSummariesByUserId(user2.getId());
+        assertThat(rooms).hasSize(21).allSatisfy(room -> assertThat(room.getCreatedByUsername()).isNotNull());
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        statistics.clear();
+        assertThat(chatRoomRepository.findDiscoverableRoomSummariesForUser(user3.getId())).hasSize(23);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,44 @@
+package com.chatapp.backend.repository;
+
+import com.chatapp.backend.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+class MessageRepositoryTest {
+
+    private static final long ROOM_ID = 3L;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    private ChatMessage message(long id, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId("roomA");
+        message.setChatRoomId(ROOM_ID);
+        message.setSender("alice");
+        message.setContent(content);
+        message.setTimestamp(Instant.now());
+        return message;
+    }
+
+    @Test
+    void copyAll_withoutPostgres_shouldFallBackToInsertAll() {
+        List<ChatMessage> messages = List.of(message(1L, "first"), message(2L, "second"), message(3L, "third"));
+
+        List<ChatMessage> stored = messageRepository.copyAll(messages);
+
+        assertThat(stored).containsExactlyElementsOf(messages);
+        assertThat(stored).allMatch(message -> !message.isNew());
+        assertThat(messageRepository.findLatestByChatRoomId(ROOM_ID, 10))
+                .extracting(ChatMessage::getContent)
+                .containsExactly("third", "second", "first");
+    }
+}
@@ -2,6 +2,7 @@ package com.chatapp.backend.service;
 
 import com.chatapp.backend.model.ChatRoom;
 import com.chatapp.backend.model.User;
+import com.chatapp.backend.model.dto.ChatRoomDto;
 import com.chatapp.backend.model.dto.CreateChatRoomRequest;
 import com.chatapp.backend.repository.ChatRoomRepository;
 import com.chatapp.backend.repository.UserRepository;
@@ -12,8 +13,6 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -38,9 +37,10 @@ class ChatRoomServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private RedisTemplate<String, String> redisTemplate;
+    private RoomMembershipCache roomMembershipCache;
+
     @Mock
-    private ValueOperations<String, String> valueOperations;
+    private PresenceService presenceService;
 
     @InjectMocks
     private ChatRoomService chatRoomService;
@@ -51,7 +51,7 @@ class ChatRoomServiceTest {
 
     @BeforeEach
     void setUp() {
-        reset(chatRoomRepository, userRepository, redisTemplate);
+        reset(chatRoomRepository, userRepository, presenceService);
 
         testUser = new User();
         testUser.setId(1L);
@@ -169,22 +169,22 @@ class ChatRoomServiceTest {
 
     @Test
     void findRoomsForUser_shouldReturnRoomsFromRepository() {
-        ChatRoom room1 = ChatRoom.builder().id(1L).name("Room 1").build();
-        ChatRoom room2 = ChatRoom.builder().id(2L).name("Room 2").build();
-        List<ChatRoom> expectedRooms = List.of(room1, room2);
-        when(chatRoomRepository.findChatRoomsByUserId(testUser.getId())).thenReturn(expectedRooms);
+        ChatRoomDto room1 = ChatRoomDto.builder().id(1L).name("Room 1").build();
+        ChatRoomDto room2 = ChatRoomDto.builder().id(2L).name("Room 2").build();
+        List<ChatRoomDto> expectedRooms = List.of(room1, room2);
+        when(chatRoomRepository.findRoomSummariesByUserId(testUser.getId())).thenReturn(expectedRooms);
 
-        List<ChatRoom> actualRooms = chatRoomService.findRoomsForUser(testUser);
+        List<ChatRoomDto> actualRooms = chatRoomService.findRoomsForUser(testUser);
 
         assertThat(actualRooms).hasSize(2).containsExactlyInAnyOrder(room1, room2);
-        verify(chatRoomRepository).findChatRoomsByUserId(testUser.getId());
+        verify(chatRoomRepository).findRoomSummariesByUserId(testUser.getId());
     }
 
     @Test
     void findRoomsForUser_whenUserIsNull_shouldReturnEmptyList() {
-        List<ChatRoom> actualRooms = chatRoomService.findRoomsForUser(null);
+        List<ChatRoomDto> actualRooms = chatRoomService.findRoomsForUser(null);
         assertThat(actualRooms).isEmpty();
-        verify(chatRoomRepository, never()).findChatRoomsByUserId(anyLong());
+        verify(chatRoomRepository, never()).findRoomSummariesByUserId(anyLong());
     }
 
     // Tests for joinRoom
@@ -216,6 +216,7 @@ class ChatRoomServiceTest {
 
         verify(chatRoomRepository).findById(roomId);
         verify(userRepository).findById(anotherUser.getId());
+        verify(roomMembershipCache).invalidate(testRoom.getName());
     }
 
     @Test
@@ -266,6 +267,7 @@ class ChatRoomServiceTest {
         assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
         assertTrue(exception.getReason().contains("already in room"));
         verify(userRepository, never()).save(any(User.class));
+        verify(roomMembershipCache, never()).invalidate(anyString());
     }
 
 
@@ -292,6 +294,7 @@ class ChatRoomServiceTest {
 
         verify(chatRoomRepository).findById(roomId);
         verify(userRepository).findById(testUser.getId());
+        verify(roomMembershipCache).invalidate(testRoom.getName());
     }
 
     @Test
@@ -349,25 +352,25 @@ class ChatRoomServiceTest {
     // Tests for findDiscoverableRooms
     @Test
     void findDiscoverableRooms_whenUserIsValid_shouldCallRepositoryAndReturnList() {
-        ChatRoom discoverableRoom1 = ChatRoom.builder().id(20L).name("Discoverable 1").isPublic(true).build();
-        ChatRoom discoverableRoom2 = ChatRoom.builder().id(21L).name("Discoverable 2").isPublic(true).build();
-        List<ChatRoom> mockRepoResponse = List.of(discoverableRoom1, discoverableRoom2);
+        ChatRoomDto discoverableRoom1 = ChatRoomDto.builder().id(20L).name("Discoverable 1").isPublic(true).build();
+        ChatRoomDto discoverableRoom2 = ChatRoomDto.builder().id(21L).name("Discoverable 2").isPublic(true).build();
+        List<ChatRoomDto> mockRepoResponse = List.of(discoverableRoom1, discoverableRoom2);
 
-        when(chatRoomRepository.findDiscoverableRoomsForUser(testUser.getId())).thenReturn(mockRepoResponse);
+        when(chatRoomRepository.findDiscoverableRoomSummariesForUser(testUser.getId())).thenReturn(mockRepoResponse);
 
-        List<ChatRoom> actualRooms = chatRoomService.findDiscoverableRooms(testUser);
+        List<ChatRoomDto> actualRooms = chatRoomService.findDiscoverableRooms(testUser);
 
         assertThat(actualRooms).isEqualTo(mockRepoResponse);
         assertThat(actualRooms).hasSize(2);
-        verify(chatRoomRepository, times(1)).findDiscoverableRoomsForUser(testUser.getId());
+        verify(chatRoomRepository, times(1)).findDiscoverableRoomSummariesForUser(testUser.getId());
     }
 
     @Test
     void findDiscoverableRooms_whenUserIsNull_shouldReturnEmptyList() {
-        List<ChatRoom> actualRooms = chatRoomService.findDiscoverableRooms(null);
+        List<ChatRoomDto> actualRooms = chatRoomService.findDiscoverableRooms(null);
 
         assertThat(actualRooms).isNotNull().isEmpty();
-        verify(chatRoomRepository, never()).findDiscoverableRoomsForUser(anyLong());
+        verify(chatRoomRepository, never()).findDiscoverableRoomSummariesForUser(anyLong());
     }
 
     @Test
@@ -375,24 +378,22 @@ class ChatRoomServiceTest {
         User userWithNullId = new User();
         userWithNullId.setUsername("noIdUser");
 
-        List<ChatRoom> actualRooms = chatRoomService.findDiscoverableRooms(userWithNullId);
+        List<ChatRoomDto> actualRooms = chatRoomService.findDiscoverableRooms(userWithNullId);
 
         assertThat(actualRooms).isNotNull().isEmpty();
-        verify(chatRoomRepository, never()).findDiscoverableRoomsForUser(anyLong());
+        verify(chatRoomRepository, never()).findDiscoverableRoomSummariesForUser(anyLong());
     }
 
     // Tests for getOnlineMembers
 
     @Test
-    void getOnlineMembers_whenRoomExists_shouldCheckRedisAndReturnOnlineUsernames() {
+    void getOnlineMembers_whenRoomExists_shouldResolveOnlineMembersInOneLookup() {
         Long roomId = testRoom.getId();
+        List<String> memberUsernames = List.of("anotheruser", "testuser");
 
-        assertThat(testRoom.getMembers()).hasSize(2);
-
-        when(chatRoomRepository.findById(roomId)).thenReturn(Optional.of(testRoom));
-
-        when(redisTemplate.hasKey("user:testuser:online")).thenReturn(true);
-        when(redisTemplate.hasKey("user:anotheruser:online")).thenReturn(false);
+        when(chatRoomRepository.existsById(roomId)).thenReturn(true);
+        when(userRepository.findUsernamesByChatRoomId(roomId)).thenReturn(memberUsernames);
+        when(presenceService.filterOnline(memberUsernames)).thenReturn(List.of("testuser"));
 
         List<String> onlineMembers = chatRoomService.getOnlineMembers(roomId);
 
@@ -401,50 +402,48 @@ class ChatRoomServiceTest {
                 .hasSize(1)
                 .containsExactly("testuser");
 
-        verify(chatRoomRepository).findById(roomId);
-        verify(redisTemplate).hasKey("user:testuser:online");
-        verify(redisTemplate).hasKey("user:anotheruser:online");
+        verify(chatRoomRepository, never()).findById(anyLong());
+        verify(presenceService, times(1)).filterOnline(memberUsernames);
     }
 
     @Test
     void getOnlineMembers_whenRoomHasNoMembers_shouldReturnEmptyList() {
         Long roomId = testRoom.getId();
-        testRoom.getMembers().clear();
-        when(chatRoomRepository.findById(roomId)).thenReturn(Optional.of(testRoom));
+        when(chatRoomRepository.existsById(roomId)).thenReturn(true);
+        when(userRepository.findUsernamesByChatRoomId(roomId)).thenReturn(List.of());
 
         List<String> onlineMembers = chatRoomService.getOnlineMembers(roomId);
 
         assertThat(onlineMembers).isNotNull().isEmpty();
-        verify(chatRoomRepository).findById(roomId);
-        verify(redisTemplate, never()).hasKey(anyString());
+        verify(userRepository).findUsernamesByChatRoomId(roomId);
+        verifyNoInteractions(presenceService);
     }
 
     @Test
     void getOnlineMembers_whenNoMembersAreOnline_shouldReturnEmptyList() {
         Long roomId = testRoom.getId();
-        assertThat(testRoom.getMembers()).hasSize(2);
-        when(chatRoomRepository.findById(roomId)).thenReturn(Optional.of(testRoom));
-
-        when(redisTemplate.hasKey("user:testuser:online")).thenReturn(false);
-        when(redisTemplate.hasKey("user:anotheruser:online")).thenReturn(false);
+        List<String> memberUsernames = List.of("anotheruser", "testuser");
+        when(chatRoomRepository.existsById(roomId)).thenReturn(true);
+        when(userRepository.findUsernamesByChatRoomId(roomId)).thenReturn(memberUsernames);
+        when(presenceService.filterOnline(memberUsernames)).thenReturn(List.of());
 
         List<String> onlineMembers = chatRoomService.getOnlineMembers(roomId);
 
         assertThat(onlineMembers).isNotNull().isEmpty();
-        verify(chatRoomRepository).findById(roomId);
-        verify(redisTemplate, times(2)).hasKey(anyString());
+        verify(presenceService, times(1)).filterOnline(memberUsernames);
     }
 
     @Test
     void getOnlineMembers_whenRoomNotFound_shouldThrowNotFoundException() {
         Long nonExistentRoomId = 99L;
-        when(chatRoomRepository.findById(nonExistentRoomId)).thenReturn(Optional.empty());
+        when(chatRoomRepository.existsById(nonExistentRoomId)).thenReturn(false);
 
         ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> {
             chatRoomService.getOnlineMembers(nonExistentRoomId);
         });
 
         assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
-        verify(redisTemplate, never()).hasKey(anyString());
+        verify(userRepository, never()).findUsernamesByChatRoomId(anyLong());
+        verifyNoInteractions(presenceService);
     }
-}
\ No newline at end of file
+}
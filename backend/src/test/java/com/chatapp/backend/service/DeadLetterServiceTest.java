@@ -0,0 +1,170 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.model.DeadLetterMessage;
+import com.chatapp.backend.repository.DeadLetterMessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeadLetterServiceTest {
+
+    private static final String TOPIC = "chat-messages";
+
+    @Mock
+    private DeadLetterMessageRepository deadLetterMessageRepository;
+
+    @Mock
+    private KafkaTemplate<String, ChatMessage> kafkaTemplate;
+
+    private DeadLetterService deadLetterService;
+
+    @BeforeEach
+    void setUp() {
+        deadLetterService = new DeadLetterService(deadLetterMessageRepository, kafkaTemplate, TOPIC, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deadLetterService.shutdown();
+    }
+
+    private DeadLetterMessage deadLetter(long id, String roomId) {
+        return DeadLetterMessage.builder()
+                .id(id)
+                .messageId(1000 + id)
+                .dltTopic("chat-messages-dlt")
+                .dltOffset(id)
+                .roomId(roomId)
+                .sender("sender")
+                .content("content-" + id)
+                .messageTimestamp(Instant.parse("2026-01-01T00:00:00Z").plusSeconds(id))
+                .build();
+    }
+
+    @Test
+    void record_shouldStoreMessageWithItsDltCoordinates() {
+        ChatMessage message = new ChatMessage();
+        message.setId(123L);
+        message.setRoomId("roomA");
+        message.setSender("alice");
+        message.setContent("hello");
+
+        deadLetterService.record(message, "chat-messages-dlt", 1, 7L, "boom");
+
+        ArgumentCaptor<DeadLetterMessage> captor = ArgumentCaptor.forClass(DeadLetterMessage.class);
+        verify(deadLetterMessageRepository).save(captor.capture());
+        assertThat(captor.getValue().getMessageId()).isEqualTo(123L);
+        assertThat(captor.getValue().getRoomId()).isEqualTo("roomA");
+        assertThat(captor.getValue().getDltPartition()).isEqualTo(1);
+        assertThat(captor.getValue().getDltOffset()).isEqualTo(7L);
+        assertThat(captor.getValue().getErrorMessage()).isEqualTo("boom");
+    }
+
+    @Test
+    void record_whenAlreadyStored_shouldNotStoreAgain() {
+        when(deadLetterMessageRepository.existsByDltTopicAndDltPartitionAndDltOffset("chat-messages-dlt", 1, 7L)).thenReturn(true);
+
+        deadLetterService.record(new ChatMessage(), "chat-messages-dlt", 1, 7L, "boom");
+
+        verify(deadLetterMessageRepository, never()).save(any());
+    }
+
+    @Test
+    void redrive_shouldReplayMatchingMessagesInOrderAndMarkThem() {
+        List<DeadLetterMessage> page = List.of(deadLetter(1, "roomA"), deadLetter(2, "roomA"));
+        when(deadLetterMessageRepository.findRedriveCandidates(eq("roomA"), isNull(), isNull(), eq(0L), any(Pageable.class)))
+                .thenReturn(page);
+        when(deadLetterMessageRepository.findRedriveCandidates(eq("roomA"), isNull(), isNull(), eq(2L), any(Pageable.class)))
+                .thenReturn(List.of());
+        List<String> sent = new ArrayList<>();
+        when(kafkaTemplate.send(eq(TOPIC), eq("roomA"), any(ChatMessage.class))).thenAnswer(invocation -> {
+            ChatMessage message = invocation.getArgument(2);
+            // Published with the id given at ingest, not a new one
+            assertThat(message.getId()).isEqualTo(1000 + Long.parseLong(message.getContent().substring("content-".length())));
+            sent.add(message.getContent());
+            return CompletableFuture.completedFuture(null);
+        });
+
+        int redriven = deadLetterService.redrive("roomA", null, null, 0);
+
+        assertThat(redriven).isEqualTo(2);
+        assertThat(sent).containsExactly("content-1", "content-2");
+        assertThat(page).allSatisfy(deadLetter -> assertThat(deadLetter.getRedrivenAt()).isNotNull());
+        verify(deadLetterMessageRepository).saveAll(page);
+    }
+
+    @Test
+    void redrive_whenSendFails_shouldLeaveMessageForTheNextRedrive() {
+        DeadLetterMessage deadLetter = deadLetter(1, "roomA");
+        when(deadLetterMessageRepository.findRedriveCandidates(isNull(), isNull(), isNull(), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(deadLetter));
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        int redriven = deadLetterService.redrive(null, null, null, 1);
+
+        assertThat(redriven).isZero();
+        assertThat(deadLetter.getRedrivenAt()).isNull();
+        assertThat(deadLetterService.getStatus().getFailed()).isEqualTo(1);
+    }
+
+    @Test
+    void redrive_shouldNotExceedTheConfiguredRate() {
+        deadLetterService = new DeadLetterService(deadLetterMessageRepository, kafkaTemplate, TOPIC, 20);
+        List<DeadLetterMessage> page = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            page.add(deadLetter(id, "roomA"));
+        }
+        when(deadLetterMessageRepository.findRedriveCandidates(any(), any(), any(), anyLong(), any(Pageable.class)))
+                .thenReturn(page);
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        long start = System.nanoTime();
+        deadLetterService.redrive(null, null, null, 5);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 5 messages at 20/s: the first goes out at once, the other four 50ms apart
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(190);
+        verify(kafkaTemplate, times(5)).send(anyString(), anyString(), any(ChatMessage.class));
+    }
+
+    @Test
+    void startRedrive_whenAlreadyRunning_shouldConflict() {
+        when(deadLetterMessageRepository.findRedriveCandidates(any(), any(), any(), anyLong(), any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(500);
+                    return List.of();
+                });
+
+        assertThat(deadLetterService.startRedrive(null, null, null, 0).isRunning()).isTrue();
+        assertThrows(ResponseStatusException.class, () -> deadLetterService.startRedrive(null, null, null, 0));
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> !deadLetterService.getStatus().isRunning());
+        assertThat(deadLetterService.getStatus().getFinishedAt()).isNotNull();
+    }
+}
@@ -0,0 +1,368 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaConsumerServiceTest {
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private KafkaTemplate<String, ChatMessage> kafkaTemplate;
+
+    @Mock
+    private Acknowledgment acknowledgment;
+
+    @Mock
+    private DeadLetterService deadLetterService;
+
+    @Mock
+    private RoomMembershipCache roomMembershipCache;
+
+    private KafkaConsumerService kafkaConsumerService;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private static final String MESSAGES_TOPIC = "chat-messages";
+    private static final String BROADCAST_TOPIC = "chat-broadcast";
+    private static final int COPY_THRESHOLD = 4;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        MessageDeduplicator messageDeduplicator = new MessageDeduplicator(meterRegistry, 10, 1000);
+        kafkaConsumerService = new KafkaConsumerService(messageRepository, kafkaTemplate, deadLetterService, messageDeduplicator,
+                roomMembershipCache, new SnowflakeIdGenerator(1, Clock.systemUTC()), meterRegistry, MESSAGES_TOPIC, BROADCAST_TOPIC, COPY_THRESHOLD);
+        lenient().when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        lenient().when(roomMembershipCache.findRoomId(anyString())).thenReturn(Optional.of(7L));
+    }
+
+    private ConsumerRecord<String, ChatMessage> record(String roomId, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setSender("sender");
+        message.setContent(content);
+        message.setTimestamp(Instant.now());
+        return new ConsumerRecord<>("chat-messages", 0, ids.incrementAndGet(), roomId, message);
+    }
+
+    private ChatMessage withId(ChatMessage message) {
+        message.setId(ids.incrementAndGet());
+        return message;
+    }
+
+    private double consumed(String tier, String outcome) {
+        return meterRegistry.get("chat.messages.consumed").tags("tier", tier, "outcome", outcome).counter().count();
+    }
+
+    @Test
+    void consumeMessage_shouldSavePublishAckAndCountPerTier() {
+        ChatMessage message = record("roomA", "a1").value();
+        when(messageRepository.save(message)).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC, acknowledgment);
+        kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC + "-retry-1000", acknowledgment);
+
+        verify(kafkaTemplate, times(2)).send(BROADCAST_TOPIC, "roomA", message);
+        verify(acknowledgment, times(2)).acknowledge();
+        assertThat(consumed("main", "success")).isEqualTo(1);
+        assertThat(consumed("retry-1000", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeMessage_whenSaveFails_shouldCountFailureOnItsTierAndRethrow() {
+        ChatMessage message = record("roomA", "a1").value();
+        when(messageRepository.save(message)).thenThrow(new DataIntegrityViolationException("db down"));
+
+        assertThrows(KafkaException.class,
+                () -> kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC + "-retry-10000", acknowledgment));
+
+        assertThat(consumed("retry-10000", "failure")).isEqualTo(1);
+        verify(acknowledgment, never()).acknowledge();
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(ChatMessage.class));
+    }
+
+    @Test
+    void consumeMessage_whenRedelivered_shouldDropTheCopyBeforeSavingOrBroadcasting() {
+        ChatMessage first = record("roomA", "a1").value();
+        first.setClientMessageId("c-1");
+        ChatMessage copy = record("roomA", "a1").value();
+        copy.setClientMessageId("c-1");
+        when(messageRepository.save(first)).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        kafkaConsumerService.consumeMessage(first, MESSAGES_TOPIC, acknowledgment);
+        kafkaConsumerService.consumeMessage(copy, MESSAGES_TOPIC, acknowledgment);
+
+        verify(messageRepository, times(1)).save(any(ChatMessage.class));
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(ChatMessage.class));
+        verify(acknowledgment, times(2)).acknowledge();
+        assertThat(consumed("main", "duplicate")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeMessage_whenBroadcastFails_shouldRethrowAndPublishAgainWhenRedelivered() {
+        ChatMessage message = record("roomA", "a1").value();
+        message.setClientMessageId("c-1");
+        when(messageRepository.save(message))
+                .thenAnswer(invocation -> invocation.getArgument(0))
+                .thenThrow(new DataIntegrityViolationException("messages_pkey"));
+        when(kafkaTemplate.send(BROADCAST_TOPIC, "roomA", message))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        assertThrows(KafkaException.class, () -> kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC, acknowledgment));
+        verify(acknowledgment, never()).acknowledge();
+
+        // Back from the retry topic: stored already, under the same id
+        when(messageRepository.findById(message.getId())).thenReturn(Optional.of(message));
+        kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC + "-retry-1000", acknowledgment);
+
+        verify(kafkaTemplate, times(2)).send(BROADCAST_TOPIC, "roomA", message);
+        verify(acknowledgment).acknowledge();
+        assertThat(consumed("retry-1000", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeMessage_whenConstraintRejectsAStoredCopy_shouldAckAndSkip() {
+        ChatMessage copy = record("roomA", "a1").value();
+        copy.setClientMessageId("c-1");
+        when(messageRepository.save(copy)).thenThrow(new DataIntegrityViolationException("uq_messages_sender_client_message_id"));
+        when(messageRepository.existsBySenderAndClientMessageId("sender", "c-1")).thenReturn(true);
+
+        kafkaConsumerService.consumeMessage(copy, MESSAGES_TOPIC, acknowledgment);
+
+        verify(acknowledgment).acknowledge();
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(ChatMessage.class));
+        assertThat(consumed("main", "duplicate")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeMessage_whenItsIdBelongsToAnotherMessage_shouldStoreItUnderANewId() {
+        ChatMessage message = withId(record("roomA", "a1").value());
+        message.setClientMessageId("c-1");
+        long takenId = message.getId();
+        ChatMessage other = withId(record("roomA", "a2").value());
+        other.setSender("someone-else");
+        other.setClientMessageId("c-9");
+        when(messageRepository.save(message))
+                .thenThrow(new DataIntegrityViolationException("messages_pkey"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(messageRepository.findById(takenId)).thenReturn(Optional.of(other));
+
+        kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC, acknowledgment);
+
+        assertThat(message.getId()).isNotEqualTo(takenId);
+        verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", message);
+        verify(acknowledgment).acknowledge();
+        assertThat(consumed("main", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeMessageBatch_shouldDropMessagesPersistedByAnEarlierBatch() {
+        ConsumerRecord<String, ChatMessage> original = record("roomA", "a1");
+        original.value().setClientMessageId("c-1");
+        when(messageRepository.insertAll(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(0);
+            messages.forEach(this::withId);
+            return messages;
+        });
+        kafkaConsumerService.consumeMessageBatch(List.of(original), acknowledgment);
+
+        ConsumerRecord<String, ChatMessage> copy = record("roomA", "a1");
+        copy.value().setClientMessageId("c-1");
+        ConsumerRecord<String, ChatMessage> next = record("roomA", "a2");
+        kafkaConsumerService.consumeMessageBatch(List.of(copy, next), acknowledgment);
+
+        verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", original.value());
+        verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", next.value());
+        verify(kafkaTemplate, never()).send(BROADCAST_TOPIC, "roomA", copy.value());
+        assertThat(consumed("main", "duplicate")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeDeadLetterMessage_shouldStoreAckAndCount() {
+        ChatMessage message = record("roomA", "a1").value();
+
+        kafkaConsumerService.consumeDeadLetterMessage(message, "chat-messages-dlt", 2, 42L,
+                "db down".getBytes(StandardCharsets.UTF_8), acknowledgment);
+
+        verify(deadLetterService).record(message, "chat-messages-dlt", 2, 42L, "db down");
+        verify(acknowledgment).acknowledge();
+        assertThat(consumed("dlt", "dead-lettered")).isEqualTo(1);
+    }
+
+    @Test
+    void consumeDeadLetterMessage_whenItCannotBeStored_shouldAckAndCountInsteadOfRethrowing() {
+        ChatMessage message = record("roomA", "a1").value();
+        doThrow(new DataIntegrityViolationException("value too long")).when(deadLetterService)
+                .record(message, "chat-messages-dlt", 2, 42L, null);
+
+        kafkaConsumerService.consumeDeadLetterMessage(message, "chat-messages-dlt", 2, 42L, null, acknowledgment);
+
+        verify(acknowledgment).acknowledge();
+        assertThat(consumed("dlt", "unstored")).isEqualTo(1);
+        assertThat(meterRegistry.find("chat.messages.consumed").tags("outcome", "dead-lettered").counter()).isNull();
+    }
+
+    @Test
+    void consumeMessageBatch_shouldBulkInsertPublishInPollOrderAndAckOnce() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(
+                record("roomA", "a1"), record("roomB", "b1"), record("roomA", "a2"));
+        when(messageRepository.insertAll(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(0);
+            messages.forEach(this::withId);
+            return messages;
+        });
+
+        kafkaConsumerService.consumeMessageBatch(records, acknowledgment);
+
+        verify(messageRepository, times(1)).insertAll(anyList());
+        verify(messageRepository, never()).save(any(ChatMessage.class));
+
+        InOrder inOrder = inOrder(kafkaTemplate, acknowledgment);
+        inOrder.verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", records.get(0).value());
+        inOrder.verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomB", records.get(1).value());
+        inOrder.verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", records.get(2).value());
+        inOrder.verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void consumeMessageBatch_whenBroadcastFails_shouldRethrowWithoutAcknowledging() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(record("roomA", "a1"), record("roomB", "b1"));
+        when(messageRepository.insertAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(kafkaTemplate.send(BROADCAST_TOPIC, "roomB", records.get(1).value()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        assertThrows(KafkaException.class, () -> kafkaConsumerService.consumeMessageBatch(records, acknowledgment));
+
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void consumeMessageBatch_fromThresholdOn_shouldCopyInsteadOfInsert() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(
+                record("roomA", "a1"), record("roomA", "a2"), record("roomB", "b1"), record("roomA", "a3"));
+        when(messageRepository.copyAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        kafkaConsumerService.consumeMessageBatch(records, acknowledgment);
+
+        verify(messageRepository, times(1)).copyAll(anyList());
+        verify(messageRepository, never()).insertAll(anyList());
+        verify(kafkaTemplate, times(4)).send(eq(BROADCAST_TOPIC), anyString(), any(ChatMessage.class));
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void consumeMessageBatch_whenBulkInsertFails_shouldFallBackToPerRecordSaves() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(record("roomA", "a1"), record("roomA", "a2"));
+        when(messageRepository.insertAll(anyList())).thenThrow(new DataIntegrityViolationException("bulk failed"));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> withId(invocation.getArgument(0)));
+
+        kafkaConsumerService.consumeMessageBatch(records, acknowledgment);
+
+        verify(messageRepository, times(2)).save(any(ChatMessage.class));
+        verify(kafkaTemplate, times(2)).send(eq(BROADCAST_TOPIC), eq("roomA"), any(ChatMessage.class));
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void consumeMessageBatch_whenRecordIsPoison_shouldReportItsIndexAndPublishOnlyPrecedingRecords() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(
+                record("roomA", "a1"), record("roomA", "poison"), record("roomA", "a3"));
+        List<ChatMessage> saved = new ArrayList<>();
+        when(messageRepository.insertAll(anyList())).thenThrow(new DataIntegrityViolationException("bulk failed"));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(invocation -> {
+            ChatMessage message = invocation.getArgument(0);
+            if ("poison".equals(message.getContent())) {
+                throw new DataIntegrityViolationException("bad row");
+            }
+            saved.add(message);
+            return withId(message);
+        });
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumerService.consumeMessageBatch(records, acknowledgment));
+
+        assertThat(exception.getIndex()).isEqualTo(1);
+        assertThat(saved).containsExactly(records.get(0).value());
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(ChatMessage.class));
+        verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", records.get(0).value());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void consumeMessageBatch_whenValueCouldNotBeDeserialized_shouldFailWithoutPersisting() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(
+                record("roomA", "a1"), new ConsumerRecord<String, ChatMessage>("chat-messages", 0, 99L, "roomA", null));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumerService.consumeMessageBatch(records, acknowledgment));
+
+        assertThat(exception.getIndex()).isEqualTo(1);
+        verifyNoInteractions(messageRepository);
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(ChatMessage.class));
+    }
+
+    @Test
+    void consumeMessage_shouldStoreTheIdOfTheNamedRoom() {
+        ChatMessage message = record("roomA", "a1").value();
+        when(messageRepository.save(message)).thenAnswer(invocation -> invocation.getArgument(0));
+
+        kafkaConsumerService.consumeMessage(message, MESSAGES_TOPIC, acknowledgment);
+
+        assertThat(message.getChatRoomId()).isEqualTo(7L);
+        assertThat(message.getRoomId()).isEqualTo("roomA");
+        verify(kafkaTemplate).send(BROADCAST_TOPIC, "roomA", message);
+    }
+
+    @Test
+    void consumeMessageBatch_whenRoomIsUnknown_shouldPersistPrecedingRecordsAndReportItsIndex() {
+        List<ConsumerRecord<String, ChatMessage>> records = List.of(
+                record("roomA", "a1"), record("gone", "g1"), record("roomA", "a2"));
+        when(roomMembershipCache.findRoomId("gone")).thenReturn(Optional.empty());
+        when(messageRepository.insertAll(anyList())).thenAnswer(invocation -> new ArrayList<>(invocation.getArgument(0)));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumerService.consumeMessageBatch(records, acknowledgment));
+
+        assertThat(exception.getIndex()).isEqualTo(1);
+        verify(messageRepository).insertAll(List.of(records.get(0).value()));
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(ChatMessage.class));
+        verify(acknowledgment, never()).acknowledge();
+    }
+}
@@ -0,0 +1,211 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaProducerServiceTest {
+
+    private static final String TOPIC = "chat-messages";
+
+    @Mock
+    private KafkaTemplate<String, ChatMessage> kafkaTemplate;
+
+    @TempDir
+    private Path spoolDir;
+
+    private MessageSpool spool;
+    private KafkaProducerService kafkaProducerService;
+
+    @BeforeEach
+    void setUp() {
+        spool = new MessageSpool(new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry(),
+                spoolDir.toString(), 64 * 1024, 1024 * 1024);
+        spool.open();
+        kafkaProducerService = new KafkaProducerService(kafkaTemplate, spool, TOPIC, 2, 50, 5000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        kafkaProducerService.shutdown();
+        spool.close();
+    }
+
+    private ChatMessage message(String roomId) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setSender("sender");
+        message.setContent("hello");
+        return message;
+    }
+
+    @Test
+    void sendMessage_shouldSendOffTheCallerThreadKeyedByRoom() throws Exception {
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        @SuppressWarnings("unchecked")
+        SendResult<String, ChatMessage> sendResult = mock(SendResult.class);
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class))).thenAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return CompletableFuture.completedFuture(sendResult);
+        });
+        ChatMessage message = message("roomA");
+
+        SendResult<String, ChatMessage> result = kafkaProducerService.sendMessage(message).get(5, TimeUnit.SECONDS);
+
+        assertThat(result).isSameAs(sendResult);
+        assertThat(sendThread.get()).isEqualTo("kafka-send").isNotEqualTo(Thread.currentThread().getName());
+        verify(kafkaTemplate).send(TOPIC, "roomA", message);
+    }
+
+    @Test
+    void sendMessage_whenTooManyInFlight_shouldRejectWithoutSending() {
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class))).thenReturn(new CompletableFuture<>());
+        kafkaProducerService.sendMessage(message("roomA"));
+        kafkaProducerService.sendMessage(message("roomA"));
+
+        CompletableFuture<SendResult<String, ChatMessage>> rejected = kafkaProducerService.sendMessage(message("roomA"));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertThat(exception.getCause()).isInstanceOf(RejectedExecutionException.class);
+        verify(kafkaTemplate, timeout(1000).times(2)).send(anyString(), anyString(), any(ChatMessage.class));
+    }
+
+    @Test
+    void sendMessage_whenSendFails_shouldCompleteExceptionallyAndReleaseThePermit() throws Exception {
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<SendResult<String, ChatMessage>> failed = kafkaProducerService.sendMessage(message("roomA"));
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            assertThat(exception.getCause()).hasMessage("broker down");
+        }
+
+        // Both permits were handed back, so a third send still goes through
+        kafkaProducerService.sendMessage(message("roomA")).get(5, TimeUnit.SECONDS);
+        verify(kafkaTemplate, times(3)).send(anyString(), anyString(), any(ChatMessage.class));
+    }
+
+    @Test
+    void whenBrokerGoesDownMidRun_thenMessagesAreSpooledAndReplayedInOrder() throws Exception {
+        AtomicBoolean brokerUp = new AtomicBoolean(true);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class))).thenAnswer(invocation -> {
+            if (!brokerUp.get()) {
+                return CompletableFuture.failedFuture(new TimeoutException("broker down"));
+            }
+            ChatMessage message = invocation.getArgument(2);
+            delivered.add(message.getContent());
+            return CompletableFuture.completedFuture(null);
+        });
+        kafkaProducerService.shutdown();
+        kafkaProducerService = new KafkaProducerService(kafkaTemplate, spool, TOPIC, 1000, 50, 5000);
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i == 100) {
+                brokerUp.set(false);
+            }
+            if (i == 200) {
+                brokerUp.set(true);
+            }
+            ChatMessage message = message("room-" + (i % 3));
+            message.setContent(String.valueOf(i));
+            sent.add(message.getContent());
+            // Accepted either way: by Kafka, or by the spool while it is down
+            kafkaProducerService.sendMessage(message).get(5, TimeUnit.SECONDS);
+        }
+        assertThat(spool.pendingMessages()).isEqualTo(200);
+
+        // Message 100 was the last one offered to the broker; everything after it queued up behind it in the spool
+        verify(kafkaTemplate, times(101)).send(anyString(), anyString(), any(ChatMessage.class));
+
+        brokerUp.set(false);
+        kafkaProducerService.drainSpool();
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                verify(kafkaTemplate, times(101 + 50)).send(anyString(), anyString(), any(ChatMessage.class)));
+        assertThat(spool.pendingMessages()).isEqualTo(200);
+
+        brokerUp.set(true);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> {
+            kafkaProducerService.drainSpool();
+            return spool.isEmpty();
+        });
+
+        assertThat(delivered).containsExactlyElementsOf(sent);
+    }
+
+    @Test
+    void drainSpool_whenKafkaRejectsASpooledMessageForGood_shouldDropItAndDeliverTheRest() {
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class))).thenAnswer(invocation -> {
+            ChatMessage message = invocation.getArgument(2);
+            if (message.getContent().equals("too large")) {
+                return CompletableFuture.failedFuture(new RecordTooLargeException("too large"));
+            }
+            delivered.add(message.getContent());
+            return CompletableFuture.completedFuture(null);
+        });
+        for (String content : List.of("1", "too large", "2")) {
+            ChatMessage message = message("roomA");
+            message.setContent(content);
+            spool.append(message);
+        }
+
+        kafkaProducerService.drainSpool();
+
+        await().atMost(5, TimeUnit.SECONDS).until(spool::isEmpty);
+        assertThat(delivered).containsExactly("1", "2");
+        assertThat(spool.pendingMessages()).isZero();
+    }
+
+    @Test
+    void sendMessage_whenBrokerIsDownAndMessageDoesNotFitTheSpool_shouldReject() {
+        when(kafkaTemplate.send(anyString(), anyString(), any(ChatMessage.class)))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("broker down")));
+        ChatMessage tooLarge = message("roomA");
+        tooLarge.setContent("x".repeat(128 * 1024));
+
+        CompletableFuture<SendResult<String, ChatMessage>> result = kafkaProducerService.sendMessage(tooLarge);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertThat(exception.getCause()).isInstanceOf(RejectedExecutionException.class);
+        assertThat(spool.isEmpty()).isTrue();
+    }
+}
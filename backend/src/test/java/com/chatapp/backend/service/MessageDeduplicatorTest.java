@@ -0,0 +1,43 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDeduplicatorTest {
+
+    private MessageDeduplicator messageDeduplicator;
+
+    @BeforeEach
+    void setUp() {
+        messageDeduplicator = new MessageDeduplicator(new SimpleMeterRegistry(), 10, 100);
+    }
+
+    private ChatMessage message(String sender, String clientMessageId) {
+        ChatMessage message = new ChatMessage();
+        message.setSender(sender);
+        message.setRoomId("roomA");
+        message.setContent("hello");
+        message.setClientMessageId(clientMessageId);
+        return message;
+    }
+
+    @Test
+    void isDuplicate_shouldOnlyMatchPersistedMessagesOfTheSameSender() {
+        messageDeduplicator.markPersisted(message("alice", "c-1"));
+
+        assertThat(messageDeduplicator.isDuplicate(message("alice", "c-1"))).isTrue();
+        assertThat(messageDeduplicator.isDuplicate(message("alice", "c-2"))).isFalse();
+        assertThat(messageDeduplicator.isDuplicate(message("bob", "c-1"))).isFalse();
+    }
+
+    @Test
+    void isDuplicate_withoutClientMessageId_shouldNeverMatch() {
+        messageDeduplicator.markPersisted(message("alice", null));
+
+        assertThat(messageDeduplicator.isDuplicate(message("alice", null))).isFalse();
+    }
+}
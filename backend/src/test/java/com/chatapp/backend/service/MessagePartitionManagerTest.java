@@ -0,0 +1,134 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.service.MessagePartitionManager.Partition;
+import com.chatapp.backend.utils.SnowflakeIdGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessagePartitionManagerTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-10-16T10:00:00Z"), ZoneOffset.UTC);
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(true);
+    }
+
+    private static long firstIdOf(String month) {
+        return SnowflakeIdGenerator.lowestIdAt(Instant.parse(month + "-01T00:00:00Z"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenPartitions(Partition... partitions) {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class))).thenReturn(List.of(partitions));
+    }
+
+    private MessagePartitionManager manager(int retentionMonths, String expired) {
+        return new MessagePartitionManager(jdbcTemplate, transactionManager, CLOCK, true, 3, retentionMonths, expired);
+    }
+
+    @Test
+    void maintainPartitions_shouldCreateMissingMonthsAfterTheLegacyPartition() {
+        givenPartitions(new Partition("messages_legacy", Long.MIN_VALUE, firstIdOf("2026-11")));
+
+        manager(0, "detach").maintainPartitions();
+
+        ArgumentCaptor<String> statements = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, times(3)).execute(statements.capture());
+        assertThat(statements.getAllValues()).containsExactly(
+                "CREATE TABLE IF NOT EXISTS messages_y2026m11 PARTITION OF messages FOR VALUES FROM ("
+                        + firstIdOf("2026-11") + ") TO (" + firstIdOf("2026-12") + ")",
+                "CREATE TABLE IF NOT EXISTS messages_y2026m12 PARTITION OF messages FOR VALUES FROM ("
+                        + firstIdOf("2026-12") + ") TO (" + firstIdOf("2027-01") + ")",
+                "CREATE TABLE IF NOT EXISTS messages_y2027m01 PARTITION OF messages FOR VALUES FROM ("
+                        + firstIdOf("2027-01") + ") TO (" + firstIdOf("2027-02") + ")");
+    }
+
+    @Test
+    void maintainPartitions_shouldDropOnlyPartitionsPastTheRetention() {
+        givenPartitions(
+                new Partition("messages_legacy", Long.MIN_VALUE, firstIdOf("2025-09")),
+                new Partition("messages_y2025m09", firstIdOf("2025-09"), firstIdOf("2025-10")),
+                new Partition("messages_y2025m10", firstIdOf("2025-10"), firstIdOf("2025-11")),
+                new Partition("messages_y2026m10", firstIdOf("2026-10"), firstIdOf("2026-11")),
+                new Partition("messages_y2026m11", firstIdOf("2026-11"), firstIdOf("2026-12")),
+                new Partition("messages_y2026m12", firstIdOf("2026-12"), firstIdOf("2027-01")),
+                new Partition("messages_y2027m01", firstIdOf("2027-01"), firstIdOf("2027-02")));
+
+        manager(12, "drop").maintainPartitions();
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE messages DETACH PARTITION messages_legacy");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE messages_legacy");
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE messages DETACH PARTITION messages_y2025m09");
+        inOrder.verify(jdbcTemplate).execute("DROP TABLE messages_y2025m09");
+        inOrder.verify(jdbcTemplate).update("DELETE FROM message_dedup WHERE message_id < ?", firstIdOf("2025-10"));
+        verify(jdbcTemplate, times(4)).execute(anyString());
+    }
+
+    @Test
+    void maintainPartitions_whenDetaching_shouldKeepTheExpiredTables() {
+        givenPartitions(
+                new Partition("messages_y2025m01", firstIdOf("2025-01"), firstIdOf("2025-02")),
+                new Partition("messages_y2026m10", firstIdOf("2026-10"), firstIdOf("2027-02")));
+
+        manager(12, "detach").maintainPartitions();
+
+        verify(jdbcTemplate).execute("ALTER TABLE messages DETACH PARTITION messages_y2025m01");
+        verify(jdbcTemplate, never()).execute(startsWith("DROP TABLE"));
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE TABLE"));
+    }
+
+    @Test
+    void maintainPartitions_whenAnotherInstanceHoldsTheLock_shouldDoNothing() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), any())).thenReturn(false);
+
+        manager(12, "drop").maintainPartitions();
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void maintainPartitions_whenDisabled_shouldNotTouchTheDatabase() {
+        new MessagePartitionManager(jdbcTemplate, transactionManager, CLOCK, false, 3, 12, "drop").maintainPartitions();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void partitionParse_shouldReadPostgresBoundExpressions() {
+        assertThat(Partition.parse("messages_legacy", "FOR VALUES FROM (MINVALUE) TO ('123')"))
+                .isEqualTo(new Partition("messages_legacy", Long.MIN_VALUE, 123L));
+        assertThat(Partition.parse("messages_y2026m11", "FOR VALUES FROM (5) TO (9)"))
+                .isEqualTo(new Partition("messages_y2026m11", 5L, 9L));
+        assertThatThrownBy(() -> Partition.parse("messages_default", "DEFAULT"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
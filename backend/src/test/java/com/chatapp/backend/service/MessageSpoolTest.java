@@ -0,0 +1,159 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageSpoolTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    private Path spoolDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MessageSpool spool;
+
+    @BeforeEach
+    void setUp() {
+        spool = openSpool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        spool.close();
+    }
+
+    private MessageSpool openSpool() {
+        meterRegistry = new SimpleMeterRegistry();
+        MessageSpool opened = new MessageSpool(new ObjectMapper().findAndRegisterModules(), meterRegistry,
+                spoolDir.toString(), SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+        opened.open();
+        return opened;
+    }
+
+    private ChatMessage message(int seq) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId("room-" + (seq % 2));
+        message.setSender("sender");
+        message.setContent(String.valueOf(seq));
+        return message;
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    void peekAndCommit_shouldReturnMessagesInAppendOrderAcrossSegments() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertThat(spool.append(message(i))).isTrue();
+        }
+        assertThat(segmentFiles()).isGreaterThan(1);
+
+        int next = 0;
+        while (!spool.isEmpty()) {
+            MessageSpool.Batch batch = spool.peek(7);
+            for (ChatMessage message : batch.messages()) {
+                assertThat(message.getContent()).isEqualTo(String.valueOf(next++));
+            }
+            spool.commit(batch);
+        }
+
+        assertThat(next).isEqualTo(100);
+        assertThat(spool.pendingMessages()).isZero();
+        assertThat(meterRegistry.get("chat.spool.drained").counter().count()).isEqualTo(100);
+        // Drained segments are deleted, only the one being written stays
+        assertThat(segmentFiles()).isEqualTo(1);
+    }
+
+    @Test
+    void peek_withoutCommit_shouldReturnTheSameMessagesAgain() {
+        spool.append(message(1));
+        spool.append(message(2));
+
+        assertThat(spool.peek(10).messages()).extracting(ChatMessage::getContent).containsExactly("1", "2");
+        assertThat(spool.peek(10).messages()).extracting(ChatMessage::getContent).containsExactly("1", "2");
+        assertThat(spool.pendingMessages()).isEqualTo(2);
+    }
+
+    @Test
+    void open_afterRestart_shouldResumeFromTheCommittedPosition() {
+        for (int i = 0; i < 30; i++) {
+            spool.append(message(i));
+        }
+        spool.commit(spool.peek(10));
+        spool.close();
+
+        spool = openSpool();
+
+        assertThat(spool.pendingMessages()).isEqualTo(20);
+        MessageSpool.Batch batch = spool.peek(100);
+        assertThat(batch.messages().get(0).getContent()).isEqualTo("10");
+        spool.commit(batch);
+        while (!spool.isEmpty()) {
+            spool.commit(spool.peek(100));
+        }
+        assertThat(spool.append(message(30))).isTrue();
+        assertThat(spool.peek(1).messages()).extracting(ChatMessage::getContent).containsExactly("30");
+    }
+
+    @Test
+    void peekAndCommit_whenNoRecordOfABatchCanBeRead_shouldStillMovePastThem() {
+        spool.append(message(1));
+        spool.append(message(2));
+        spool.close();
+        ObjectMapper failingReader = new ObjectMapper() {
+            @Override
+            public <T> T readValue(byte[] src, Class<T> valueType) throws IOException {
+                throw new IOException("corrupt");
+            }
+        };
+        meterRegistry = new SimpleMeterRegistry();
+        spool = new MessageSpool(failingReader, meterRegistry, spoolDir.toString(), SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+        spool.open();
+
+        MessageSpool.Batch batch = spool.peek(10);
+        assertThat(batch.messages()).isEmpty();
+        assertThat(batch.isEmpty()).isFalse();
+        spool.commit(batch);
+
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(meterRegistry.get("chat.spool.pending").gauge().value()).isZero();
+    }
+
+    @Test
+    void append_whenSpoolIsFull_shouldRejectAndCountIt() {
+        int accepted = 0;
+        while (spool.append(message(accepted))) {
+            accepted++;
+        }
+
+        assertThat(accepted).isPositive();
+        assertThat(spool.pendingMessages()).isEqualTo(accepted);
+        assertThat(meterRegistry.get("chat.spool.rejected").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chat.spool.pending").gauge().value()).isEqualTo(accepted);
+    }
+
+    @Test
+    void open_whenDirectoryIsInUse_shouldFail() {
+        MessageSpool second = new MessageSpool(new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry(),
+                spoolDir.toString(), SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+
+        assertThrows(IllegalStateException.class, second::open);
+    }
+}
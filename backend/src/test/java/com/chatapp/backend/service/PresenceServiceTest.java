@@ -0,0 +1,141 @@
+package com.chatapp.backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceServiceTest {
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    private PresenceService presenceService;
+
+    @BeforeEach
+    void setUp() {
+        presenceService = new PresenceService(redisTemplate, 30_000);
+        lenient().when(redisTemplate.opsForSet()).thenReturn(setOperations);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenScriptReturns(Object first, Object... next) {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(first, next);
+    }
+
+    @Test
+    void filterOnline_shouldCheckAllCandidatesWithOneCallAndKeepOrder() {
+        List<String> members = List.of("alice", "bob", "carol");
+        when(setOperations.isMember(PresenceService.ONLINE_USERS_KEY, "alice", "bob", "carol"))
+                .thenReturn(Map.of("alice", true, "bob", false, "carol", true));
+
+        List<String> online = presenceService.filterOnline(members);
+
+        assertThat(online).containsExactly("alice", "carol");
+        verify(setOperations, times(1)).isMember(eq(PresenceService.ONLINE_USERS_KEY), any(Object[].class));
+        verify(redisTemplate, never()).hasKey(anyString());
+    }
+
+    @Test
+    void filterOnline_whenNoCandidates_shouldNotCallRedis() {
+        assertThat(presenceService.filterOnline(List.of())).isEmpty();
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void sessionConnected_shouldReportOnlyTheFirstSessionAsComingOnline() {
+        givenScriptReturns(List.of(1L, 0L, 0L), List.of(2L, 1L, 0L));
+
+        assertThat(presenceService.sessionConnected("alice", "tab-1")).isTrue();
+        assertThat(presenceService.sessionConnected("alice", "tab-2")).isFalse();
+    }
+
+    @Test
+    void sessionConnected_whenSameSessionIsReportedTwice_shouldCountItOnce() {
+        givenScriptReturns(List.of(1L, 0L, 0L));
+
+        presenceService.sessionConnected("alice", "tab-1");
+        presenceService.sessionConnected("alice", "tab-1");
+
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), any(Object[].class));
+    }
+
+    @Test
+    void sessionDisconnected_shouldReportOfflineOnlyWhenTheLastSessionCloses() {
+        givenScriptReturns(List.of(1L, 0L, 0L), List.of(2L, 1L, 0L), 1L, 0L);
+        presenceService.sessionConnected("alice", "tab-1");
+        presenceService.sessionConnected("alice", "tab-2");
+
+        assertThat(presenceService.sessionDisconnected("alice", "tab-1")).isFalse();
+        assertThat(presenceService.sessionDisconnected("alice", "tab-2")).isTrue();
+    }
+
+    @Test
+    void sessionDisconnected_whenTheUserWasReapedMeanwhile_shouldNotReportOfflineAgain() {
+        // -1: the reaper already dropped the count and announced the user offline
+        givenScriptReturns(List.of(1L, 0L, 0L), -1L);
+        presenceService.sessionConnected("alice", "tab-1");
+
+        assertThat(presenceService.sessionDisconnected("alice", "tab-1")).isFalse();
+    }
+
+    @Test
+    void sessionDisconnected_whenSessionIsUnknown_shouldNotTouchRedis() {
+        assertThat(presenceService.sessionDisconnected("alice", "tab-1")).isFalse();
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void reapExpired_shouldReturnUsersWhoseLeaseExpired() {
+        givenScriptReturns(List.of("alice", "bob"));
+
+        assertThat(presenceService.reapExpired()).containsExactly("alice", "bob");
+    }
+
+    @Test
+    void renewLeases_shouldRestoreReapedUsersWithTheirLocalSessionCount() {
+        givenScriptReturns(List.of(1L, 0L, 0L), List.of(2L, 1L, 0L), List.of("alice", 1L, 1L));
+        presenceService.sessionConnected("alice", "tab-1");
+        presenceService.sessionConnected("alice", "tab-2");
+
+        assertThat(presenceService.renewLeases()).containsExactly("alice");
+
+        // Lease expiry, then username, reaps last seen and local sessions
+        verify(redisTemplate).execute(any(RedisScript.class), anyList(), anyString(), eq("alice"), eq("0"), eq("2"));
+    }
+
+    @Test
+    void renewLeases_afterARestore_shouldSendTheNewReapCount() {
+        givenScriptReturns(List.of(1L, 0L, 0L), List.of("alice", 1L, 1L), List.of(), 0L);
+        presenceService.sessionConnected("alice", "tab-1");
+        presenceService.renewLeases();
+
+        assertThat(presenceService.renewLeases()).isEmpty();
+        presenceService.sessionDisconnected("alice", "tab-1");
+
+        verify(redisTemplate).execute(any(RedisScript.class), anyList(), eq("alice"), eq("1"));
+    }
+
+    @Test
+    void renewLeases_whenNoLocalSessions_shouldNotTouchRedis() {
+        assertThat(presenceService.renewLeases()).isEmpty();
+        verifyNoInteractions(redisTemplate);
+    }
+}
@@ -0,0 +1,169 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecentMessageBufferTest {
+
+    private static final String ROOM = "room1";
+    private static final long ROOM_ID = 7L;
+    private static final int PER_ROOM = 3;
+
+    private MessageRepository messageRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private RecentMessageBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        messageRepository = mock(MessageRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        buffer = new RecentMessageBuffer(messageRepository, meterRegistry, PER_ROOM, 1_000_000, 30);
+    }
+
+    private void activate() {
+        buffer.onPartitionsAssigned(Map.of(new TopicPartition("chat-broadcast", 0), 0L), null);
+    }
+
+    private static ChatMessage message(long id) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId(ROOM);
+        message.setChatRoomId(ROOM_ID);
+        message.setSender("alice");
+        message.setContent("message " + id);
+        message.setTimestamp(Instant.now());
+        return message;
+    }
+
+    // The repository returns fresh rows, without the room name, like the database does. One more row than the buffer
+    // holds is asked for, which tells whether the room has older messages
+    private void givenStoredMessages(long... newestFirst) {
+        List<ChatMessage> rows = new ArrayList<>();
+        for (long id : newestFirst) {
+            ChatMessage row = message(id);
+            row.setRoomId(null);
+            rows.add(row);
+        }
+        when(messageRepository.findLatestByChatRoomId(ROOM_ID, PER_ROOM + 1)).thenReturn(rows);
+    }
+
+    private static List<Long> ids(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getId).toList();
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("chat.recent-messages.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void latest_whileTheListenerIsNotAssigned_shouldMissWithoutLoading() {
+        assertThat(buffer.latest(ROOM, ROOM_ID, 2)).isEmpty();
+
+        verify(messageRepository, never()).findLatestByChatRoomId(anyLong(), anyInt());
+        assertThat(requests("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void latest_shouldLoadTheRoomOnceAndThenFollowAppendedMessages() {
+        activate();
+        givenStoredMessages(30L, 20L, 10L, 5L);
+
+        List<ChatMessage> first = buffer.latest(ROOM, ROOM_ID, 2).orElseThrow();
+        assertThat(ids(first)).containsExactly(30L, 20L);
+        assertThat(first).allMatch(message -> ROOM.equals(message.getRoomId()));
+
+        buffer.append(message(40L));
+        assertThat(buffer.latest(ROOM, ROOM_ID, 3)).map(RecentMessageBufferTest::ids).contains(List.of(40L, 30L, 20L));
+
+        verify(messageRepository, times(1)).findLatestByChatRoomId(ROOM_ID, PER_ROOM + 1);
+        verify(messageRepository, never()).countByChatRoomId(anyLong());
+        assertThat(requests("hit")).isEqualTo(2);
+    }
+
+    @Test
+    void latest_beyondTheBufferedMessages_shouldMiss() {
+        activate();
+        givenStoredMessages(20L, 10L);
+
+        // The whole room fits, so any page of it can be answered
+        assertThat(buffer.latest(ROOM, ROOM_ID, 3)).map(RecentMessageBufferTest::ids).contains(List.of(20L, 10L));
+
+        buffer.append(message(30L));
+        buffer.append(message(40L));
+        // 10 was dropped to make room for 40, so three messages are still fine but more than that is not
+        assertThat(buffer.latest(ROOM, ROOM_ID, 3)).map(RecentMessageBufferTest::ids).contains(List.of(40L, 30L, 20L));
+        assertThat(buffer.latest(ROOM, ROOM_ID, 4)).isEmpty();
+    }
+
+    @Test
+    void after_shouldOnlyAnswerWhenTheBufferReachesBackToTheCursor() {
+        activate();
+        givenStoredMessages(30L, 20L, 10L, 5L);
+
+        assertThat(buffer.after(ROOM, ROOM_ID, 10L, 10)).map(RecentMessageBufferTest::ids).contains(List.of(20L, 30L));
+        assertThat(buffer.after(ROOM, ROOM_ID, 30L, 10)).map(RecentMessageBufferTest::ids).contains(List.of());
+        assertThat(buffer.after(ROOM, ROOM_ID, 10L, 1)).map(RecentMessageBufferTest::ids).contains(List.of(20L));
+        // A catch-up may ask for more than a room holds, as long as the gap itself is held
+        assertThat(buffer.after(ROOM, ROOM_ID, 10L, PER_ROOM + 1)).map(RecentMessageBufferTest::ids).contains(List.of(20L, 30L));
+        // Messages between 5 and 10 are not held
+        assertThat(buffer.after(ROOM, ROOM_ID, 5L, 10)).isEmpty();
+    }
+
+    @Test
+    void append_duringTheLoad_shouldBeMergedWithoutDuplicates() {
+        activate();
+        when(messageRepository.findLatestByChatRoomId(ROOM_ID, PER_ROOM + 1)).thenAnswer(invocation -> {
+            // Broadcasts that arrive while the rows are read: 20 is part of the snapshot, 30 is not
+            buffer.append(message(20L));
+            buffer.append(message(30L));
+            return new ArrayList<>(List.of(message(20L), message(10L)));
+        });
+
+        assertThat(buffer.latest(ROOM, ROOM_ID, 3)).map(RecentMessageBufferTest::ids).contains(List.of(30L, 20L, 10L));
+    }
+
+    @Test
+    void append_outOfOrderOrRedelivered_shouldKeepIdOrder() {
+        activate();
+        givenStoredMessages(10L);
+        buffer.latest(ROOM, ROOM_ID, 1);
+
+        buffer.append(message(30L));
+        buffer.append(message(20L));
+        buffer.append(message(30L));
+
+        assertThat(buffer.latest(ROOM, ROOM_ID, 3)).map(RecentMessageBufferTest::ids).contains(List.of(30L, 20L, 10L));
+    }
+
+    @Test
+    void onPartitionsRevoked_shouldDropAllRoomsAndStopAnswering() {
+        activate();
+        givenStoredMessages(10L);
+        buffer.latest(ROOM, ROOM_ID, 1);
+
+        buffer.onPartitionsRevoked(List.of(new TopicPartition("chat-broadcast", 0)));
+        assertThat(buffer.latest(ROOM, ROOM_ID, 1)).isEmpty();
+
+        activate();
+        buffer.latest(ROOM, ROOM_ID, 1);
+        verify(messageRepository, times(2)).findLatestByChatRoomId(ROOM_ID, PER_ROOM + 1);
+    }
+}
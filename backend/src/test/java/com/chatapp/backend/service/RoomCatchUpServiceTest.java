@@ -0,0 +1,138 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoomCatchUpServiceTest {
+
+    private static final String ROOM = "General";
+    private static final String DESTINATION = "/topic/chat/General";
+    private static final long ROOM_ID = 7L;
+    private static final int MAX_MESSAGES = 2;
+
+    @Mock
+    private RoomMembershipCache roomMembershipCache;
+
+    @Mock
+    private RecentMessageBuffer recentMessageBuffer;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private MessageChannel clientOutboundChannel;
+
+    private RoomCatchUpService catchUpService;
+
+    @BeforeEach
+    void setUp() {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(new ObjectMapper().findAndRegisterModules());
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(mock(MessageChannel.class));
+        messagingTemplate.setMessageConverter(converter);
+        catchUpService = new RoomCatchUpService(roomMembershipCache, recentMessageBuffer, messageRepository,
+                clientOutboundChannel, messagingTemplate, MAX_MESSAGES);
+    }
+
+    private static ChatMessage message(long id, String roomName) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId(roomName);
+        message.setChatRoomId(ROOM_ID);
+        message.setSender("alice");
+        message.setContent("message " + id);
+        message.setTimestamp(Instant.parse("2025-01-01T10:00:00Z"));
+        return message;
+    }
+
+    private List<Message<?>> sentFrames(int times) {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Message<?>> frames = ArgumentCaptor.forClass(Message.class);
+        verify(clientOutboundChannel, times(times)).send(frames.capture());
+        return frames.getAllValues();
+    }
+
+    private static String body(Message<?> frame) {
+        return new String((byte[]) frame.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void replay_shouldSendTheBufferedGapToTheSubscriptionOldestFirst() {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.of(ROOM_ID));
+        when(recentMessageBuffer.after(ROOM, ROOM_ID, 10L, MAX_MESSAGES + 1))
+                .thenReturn(Optional.of(List.of(message(20L, ROOM), message(30L, ROOM))));
+
+        assertThat(catchUpService.replay("session-1", "sub-0", DESTINATION, ROOM, 10L)).isEqualTo(2);
+
+        List<Message<?>> frames = sentFrames(2);
+        StompHeaderAccessor first = StompHeaderAccessor.wrap(frames.get(0));
+        assertThat(first.getSessionId()).isEqualTo("session-1");
+        assertThat(first.getSubscriptionId()).isEqualTo("sub-0");
+        assertThat(first.getDestination()).isEqualTo(DESTINATION);
+        assertThat(first.getFirstNativeHeader(RoomCatchUpService.CATCH_UP_HEADER)).isEqualTo("true");
+        assertThat(first.getFirstNativeHeader(RoomCatchUpService.HAS_MORE_HEADER)).isNull();
+        // Ids are sent as strings, like on the live topic
+        assertThat(body(frames.get(0))).contains("\"id\":\"20\"", "\"roomId\":\"General\"");
+        assertThat(body(frames.get(1))).contains("\"id\":\"30\"");
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void replay_whenTheBufferDoesNotReachBack_shouldReadTheGapFromTheDatabase() {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.of(ROOM_ID));
+        when(recentMessageBuffer.after(ROOM, ROOM_ID, 10L, MAX_MESSAGES + 1)).thenReturn(Optional.empty());
+        when(messageRepository.findByChatRoomIdAfterId(ROOM_ID, 10L, MAX_MESSAGES + 1))
+                .thenReturn(new ArrayList<>(List.of(message(20L, null))));
+
+        assertThat(catchUpService.replay("session-1", "sub-0", DESTINATION, ROOM, 10L)).isEqualTo(1);
+
+        assertThat(body(sentFrames(1).get(0))).contains("\"id\":\"20\"", "\"roomId\":\"General\"");
+    }
+
+    @Test
+    void replay_whenTheGapIsTooLarge_shouldFlagTheLastFrame() {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.of(ROOM_ID));
+        when(recentMessageBuffer.after(ROOM, ROOM_ID, 10L, MAX_MESSAGES + 1))
+                .thenReturn(Optional.of(List.of(message(20L, ROOM), message(30L, ROOM), message(40L, ROOM))));
+
+        assertThat(catchUpService.replay("session-1", "sub-0", DESTINATION, ROOM, 10L)).isEqualTo(MAX_MESSAGES);
+
+        List<Message<?>> frames = sentFrames(MAX_MESSAGES);
+        assertThat(StompHeaderAccessor.wrap(frames.get(0)).getFirstNativeHeader(RoomCatchUpService.HAS_MORE_HEADER)).isNull();
+        assertThat(StompHeaderAccessor.wrap(frames.get(1)).getFirstNativeHeader(RoomCatchUpService.HAS_MORE_HEADER)).isEqualTo("true");
+        assertThat(body(frames.get(1))).contains("\"id\":\"30\"");
+    }
+
+    @Test
+    void replay_forAnUnknownRoom_shouldSendNothing() {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.empty());
+
+        assertThat(catchUpService.replay("session-1", "sub-0", DESTINATION, ROOM, 10L)).isZero();
+
+        verifyNoInteractions(recentMessageBuffer, messageRepository);
+        verify(clientOutboundChannel, never()).send(any());
+    }
+}
@@ -0,0 +1,81 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.repository.ChatRoomRepository;
+import com.chatapp.backend.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoomMembershipCacheTest {
+
+    @Mock
+    private ChatRoomRepository chatRoomRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private RoomMembershipCache roomMembershipCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        roomMembershipCache = new RoomMembershipCache(chatRoomRepository, userRepository, meterRegistry, 60, 100);
+    }
+
+    private double gets(String result) {
+        return meterRegistry.get("cache.gets")
+                .tag("cache", RoomMembershipCache.CACHE_NAME)
+                .tag("result", result)
+                .functionCounter()
+                .count();
+    }
+
+    @Test
+    void isMember_shouldLoadRoomOnceAndAnswerLaterChecksFromCache() {
+        when(chatRoomRepository.findIdByName("General")).thenReturn(Optional.of(10L));
+        when(userRepository.findIdsByChatRoomId(10L)).thenReturn(List.of(1L, 2L));
+
+        assertThat(roomMembershipCache.isMember(1L, "General")).isTrue();
+        assertThat(roomMembershipCache.isMember(2L, "General")).isTrue();
+        assertThat(roomMembershipCache.isMember(3L, "General")).isFalse();
+
+        verify(chatRoomRepository, times(1)).findIdByName("General");
+        verify(userRepository, times(1)).findIdsByChatRoomId(10L);
+        assertThat(gets("miss")).isEqualTo(1);
+        assertThat(gets("hit")).isEqualTo(2);
+    }
+
+    @Test
+    void invalidate_shouldReloadMembershipOnNextCheck() {
+        when(chatRoomRepository.findIdByName("General")).thenReturn(Optional.of(10L));
+        when(userRepository.findIdsByChatRoomId(10L)).thenReturn(List.of(1L), List.of(1L, 3L));
+
+        assertThat(roomMembershipCache.isMember(3L, "General")).isFalse();
+        roomMembershipCache.invalidate("General");
+        assertThat(roomMembershipCache.isMember(3L, "General")).isTrue();
+
+        verify(userRepository, times(2)).findIdsByChatRoomId(10L);
+    }
+
+    @Test
+    void isMember_whenRoomDoesNotExist_shouldReturnFalseWithoutCaching() {
+        when(chatRoomRepository.findIdByName("Missing")).thenReturn(Optional.empty());
+
+        assertThat(roomMembershipCache.isMember(1L, "Missing")).isFalse();
+        assertThat(roomMembershipCache.isMember(1L, "Missing")).isFalse();
+
+        verify(chatRoomRepository, times(2)).findIdByName("Missing");
+        verifyNoInteractions(userRepository);
+    }
+}
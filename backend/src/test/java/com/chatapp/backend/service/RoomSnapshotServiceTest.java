@@ -0,0 +1,150 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.ChatMessage;
+import com.chatapp.backend.repository.MessageRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoomSnapshotServiceTest {
+
+    private static final String ROOM = "General";
+    private static final String DESTINATION = "/topic/chat/General";
+    private static final long ROOM_ID = 7L;
+    private static final int MAX_MESSAGES = 3;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Mock
+    private RoomMembershipCache roomMembershipCache;
+
+    @Mock
+    private RecentMessageBuffer recentMessageBuffer;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private ChatRoomService chatRoomService;
+
+    @Mock
+    private MessageChannel clientOutboundChannel;
+
+    private RoomSnapshotService snapshotService;
+
+    @BeforeEach
+    void setUp() {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(mock(MessageChannel.class));
+        messagingTemplate.setMessageConverter(converter);
+        snapshotService = new RoomSnapshotService(roomMembershipCache, recentMessageBuffer, messageRepository,
+                chatRoomService, clientOutboundChannel, messagingTemplate, MAX_MESSAGES);
+    }
+
+    private static ChatMessage message(long id, String roomName) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId(roomName);
+        message.setChatRoomId(ROOM_ID);
+        message.setSender("alice");
+        message.setContent("message " + id);
+        message.setTimestamp(Instant.parse("2025-01-01T10:00:00Z"));
+        return message;
+    }
+
+    private Message<?> sentFrame() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Message<?>> frame = ArgumentCaptor.forClass(Message.class);
+        verify(clientOutboundChannel).send(frame.capture());
+        return frame.getValue();
+    }
+
+    private JsonNode body(Message<?> frame) throws Exception {
+        return objectMapper.readTree((byte[]) frame.getPayload());
+    }
+
+    private static List<String> ids(JsonNode messages) {
+        List<String> ids = new ArrayList<>();
+        messages.get("content").forEach(message -> ids.add(message.get("id").asText()));
+        return ids;
+    }
+
+    private static List<String> texts(JsonNode array) {
+        List<String> texts = new ArrayList<>();
+        array.forEach(element -> texts.add(element.asText()));
+        return texts;
+    }
+
+    @Test
+    void send_shouldSendOneFrameWithTheNewestMessagesAndTheOnlineUsers() throws Exception {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.of(ROOM_ID));
+        when(recentMessageBuffer.latest(ROOM, ROOM_ID, 3))
+                .thenReturn(Optional.of(List.of(message(30L, ROOM), message(20L, ROOM), message(10L, ROOM))));
+        when(chatRoomService.getOnlineMembers(ROOM_ID)).thenReturn(List.of("alice", "bob"));
+
+        assertThat(snapshotService.send("session-1", "sub-0", DESTINATION, ROOM, 2)).isTrue();
+
+        Message<?> frame = sentFrame();
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(frame);
+        assertThat(headers.getSessionId()).isEqualTo("session-1");
+        assertThat(headers.getSubscriptionId()).isEqualTo("sub-0");
+        assertThat(headers.getDestination()).isEqualTo(DESTINATION);
+        assertThat(headers.getFirstNativeHeader(RoomSnapshotService.SNAPSHOT_HEADER)).isEqualTo("true");
+
+        JsonNode snapshot = body(frame);
+        assertThat(snapshot.get("roomId").asText()).isEqualTo(ROOM);
+        assertThat(ids(snapshot.get("messages"))).containsExactly("30", "20");
+        assertThat(snapshot.get("messages").get("hasNext").asBoolean()).isTrue();
+        assertThat(snapshot.get("messages").get("nextCursor").asText()).isEqualTo("20");
+        assertThat(texts(snapshot.get("onlineUsers"))).containsExactly("alice", "bob");
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void send_whenTheRoomIsNotBuffered_shouldReadTheMessagesFromTheDatabase() throws Exception {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.of(ROOM_ID));
+        when(recentMessageBuffer.latest(ROOM, ROOM_ID, MAX_MESSAGES + 1)).thenReturn(Optional.empty());
+        when(messageRepository.findLatestByChatRoomId(ROOM_ID, MAX_MESSAGES + 1))
+                .thenReturn(new ArrayList<>(List.of(message(20L, null), message(10L, null))));
+        when(chatRoomService.getOnlineMembers(ROOM_ID)).thenReturn(List.of());
+
+        // More than the maximum is capped
+        assertThat(snapshotService.send("session-1", "sub-0", DESTINATION, ROOM, 500)).isTrue();
+
+        JsonNode messages = body(sentFrame()).get("messages");
+        assertThat(ids(messages)).containsExactly("20", "10");
+        assertThat(messages.get("content").get(0).get("roomId").asText()).isEqualTo(ROOM);
+        assertThat(messages.get("hasNext").asBoolean()).isFalse();
+    }
+
+    @Test
+    void send_forAnUnknownRoom_shouldSendNothing() {
+        when(roomMembershipCache.findRoomId(ROOM)).thenReturn(Optional.empty());
+
+        assertThat(snapshotService.send("session-1", "sub-0", DESTINATION, ROOM, 50)).isFalse();
+
+        verifyNoInteractions(recentMessageBuffer, messageRepository, chatRoomService);
+        verify(clientOutboundChannel, never()).send(any());
+    }
+}
@@ -0,0 +1,145 @@
+package com.chatapp.backend.service;
+
+import com.chatapp.backend.model.dto.TypingDigestDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TypingAggregatorTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    // Stands in for the shared Redis hashes, per key: username to expiry
+    private final Map<String, Map<String, Long>> sharedTypers = new HashMap<>();
+
+    private TypingAggregator typingAggregator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        typingAggregator = new TypingAggregator(messagingTemplate, redisTemplate, 5_000);
+        lenient().when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenAnswer(invocation -> syncSharedTypers(invocation.getArgument(1), invocation.getRawArguments()));
+    }
+
+    private List<String> syncSharedTypers(List<String> keys, Object[] rawArguments) {
+        Object[] args = (Object[]) rawArguments[2];
+        Map<String, Long> typers = sharedTypers.computeIfAbsent(keys.get(0), key -> new HashMap<>());
+        for (int i = 2; i < args.length; i += 2) {
+            if ("0".equals(args[i + 1])) {
+                typers.remove((String) args[i]);
+            } else {
+                typers.put((String) args[i], Long.parseLong((String) args[i + 1]));
+            }
+        }
+        long now = Long.parseLong((String) args[0]);
+        typers.values().removeIf(expiry -> expiry <= now);
+        return new ArrayList<>(typers.keySet());
+    }
+
+    private List<TypingDigestDto> sentDigests(String roomId, int times) {
+        ArgumentCaptor<TypingDigestDto> digests = ArgumentCaptor.forClass(TypingDigestDto.class);
+        verify(messagingTemplate, times(times)).convertAndSend(eq("/topic/typing/" + roomId), digests.capture());
+        return digests.getAllValues();
+    }
+
+    @Test
+    void flush_shouldSendOneDigestPerRoomForABurstOfEvents() {
+        for (int i = 0; i < 20; i++) {
+            typingAggregator.record("General", "alice", true);
+            typingAggregator.record("General", "bob", true);
+        }
+
+        typingAggregator.flush();
+
+        assertThat(sentDigests("General", 1))
+                .singleElement()
+                .satisfies(digest -> assertThat(digest.getUsernames()).containsExactly("alice", "bob"));
+    }
+
+    @Test
+    void flush_whenNothingChanged_shouldNotSendAgain() {
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.flush();
+
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.flush();
+
+        sentDigests("General", 1);
+    }
+
+    @Test
+    void flush_whenTyperStops_shouldSendUpdatedDigest() {
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.flush();
+
+        typingAggregator.record("General", "alice", false);
+        typingAggregator.flush();
+
+        List<TypingDigestDto> digests = sentDigests("General", 2);
+        assertThat(digests.get(1).getUsernames()).isEmpty();
+    }
+
+    @Test
+    void flush_shouldExpireTypersThatStoppedSendingEvents() throws InterruptedException {
+        typingAggregator = new TypingAggregator(messagingTemplate, redisTemplate, 20);
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.flush();
+
+        Thread.sleep(40);
+        typingAggregator.flush();
+
+        List<TypingDigestDto> digests = sentDigests("General", 2);
+        assertThat(digests.get(1).getUsernames()).isEmpty();
+    }
+
+    @Test
+    void flush_whenStopArrivesBeforeFlush_shouldSendNothing() {
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.record("General", "alice", false);
+
+        typingAggregator.flush();
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    void flush_shouldListTypersConnectedToOtherInstances() {
+        TypingAggregator otherInstance = new TypingAggregator(messagingTemplate, redisTemplate, 5_000);
+        otherInstance.record("General", "bob", true);
+        otherInstance.flush();
+
+        typingAggregator.record("General", "alice", true);
+        typingAggregator.flush();
+        // An instance whose last typer stopped must not clear the other instance's typers
+        otherInstance.record("General", "bob", false);
+        otherInstance.flush();
+
+        List<TypingDigestDto> digests = sentDigests("General", 3);
+        assertThat(digests.get(1).getUsernames()).containsExactly("alice", "bob");
+        assertThat(digests.get(2).getUsernames()).containsExactly("alice");
+    }
+}
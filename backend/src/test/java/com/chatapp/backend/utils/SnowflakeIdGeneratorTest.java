@@ -0,0 +1,148 @@
+package com.chatapp.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final Instant NOW = Instant.parse("2025-03-01T12:00:00Z");
+
+    private final AtomicLong millis = new AtomicLong(NOW.toEpochMilli());
+
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+    };
+
+    @Test
+    void nextId_shouldEncodeTimestampAndWorkerId() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, clock);
+
+        long id = generator.nextId();
+
+        assertThat(SnowflakeIdGenerator.timestampOf(id)).isEqualTo(NOW);
+        assertThat((id >>> SnowflakeIdGenerator.SEQUENCE_BITS) & SnowflakeIdGenerator.MAX_WORKER_ID).isEqualTo(5);
+    }
+
+    @Test
+    void nextId_shouldIncreaseWithinAndAcrossMilliseconds() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock);
+
+        long first = generator.nextId();
+        long second = generator.nextId();
+        millis.addAndGet(1);
+        long third = generator.nextId();
+
+        assertThat(second).isGreaterThan(first);
+        assertThat(third).isGreaterThan(second);
+        assertThat(SnowflakeIdGenerator.timestampOf(third)).isEqualTo(NOW.plusMillis(1));
+    }
+
+    @Test
+    void nextId_whenClockStepsBack_shouldKeepIncreasing() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock);
+        long before = generator.nextId();
+
+        millis.addAndGet(-5_000);
+        long after = generator.nextId();
+
+        assertThat(after).isGreaterThan(before);
+        assertThat(SnowflakeIdGenerator.timestampOf(after)).isEqualTo(NOW);
+    }
+
+    @Test
+    void nextId_whenSequenceIsExhausted_shouldBorrowTheNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock);
+
+        long last = 0;
+        for (int i = 0; i <= 1 << SnowflakeIdGenerator.SEQUENCE_BITS; i++) {
+            long id = generator.nextId();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+
+        assertThat(SnowflakeIdGenerator.timestampOf(last)).isEqualTo(NOW.plusMillis(1));
+    }
+
+    @Test
+    void nextId_fromManyThreads_shouldNeverRepeat() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, Clock.systemUTC());
+        int threads = 8;
+        int idsPerThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Callable<long[]> task = () -> {
+                    long[] ids = new long[idsPerThread];
+                    for (int i = 0; i < idsPerThread; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                };
+                futures.add(executor.submit(task));
+            }
+
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int i = 0; i < ids.length; i++) {
+                    if (i > 0) {
+                        assertThat(ids[i]).isGreaterThan(ids[i - 1]);
+                    }
+                    seen.add(ids[i]);
+                }
+            }
+            assertThat(seen).hasSize(threads * idsPerThread);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void lowestIdAt_shouldSortBeforeEveryIdOfThatMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID, clock);
+
+        long id = generator.nextId();
+
+        assertThat(SnowflakeIdGenerator.lowestIdAt(NOW)).isLessThanOrEqualTo(id);
+        assertThat(SnowflakeIdGenerator.lowestIdAt(NOW.plusMillis(1))).isGreaterThan(id);
+        assertThat(SnowflakeIdGenerator.timestampOf(SnowflakeIdGenerator.lowestIdAt(NOW))).isEqualTo(NOW);
+    }
+
+    @Test
+    void constructor_shouldRejectOutOfRangeWorkerId() {
+        assertThatThrownBy(() -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID + 1, clock))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new SnowflakeIdGenerator(-1, clock))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatapp.backend.utils;
+
+import com.chatapp.backend.config.NodeIdentity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WorkerIdLeaseTest {
+
+    private static final long TTL_MS = 60_000;
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private final NodeIdentity nodeIdentity = new NodeIdentity("node-a");
+    private final int firstCandidate = Math.floorMod("node-a".hashCode(), SnowflakeIdGenerator.MAX_WORKER_ID + 1);
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    private WorkerIdLease lease(int configuredWorkerId) {
+        return new WorkerIdLease(redisTemplate, nodeIdentity, configuredWorkerId, TTL_MS);
+    }
+
+    private void givenFreeFrom(int freeOffset) {
+        when(valueOperations.setIfAbsent(anyString(), eq(nodeIdentity.getInstanceId()), eq(Duration.ofMillis(TTL_MS))))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).equals(key(freeOffset)));
+    }
+
+    private String key(int offset) {
+        return WorkerIdLease.KEY_PREFIX + (firstCandidate + offset) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1);
+    }
+
+    @Test
+    void acquire_withAConfiguredWorkerId_shouldNotTouchRedis() {
+        assertThat(lease(7).acquire()).isEqualTo(7);
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void acquire_shouldLeaseTheFirstFreeWorkerIdStartingFromTheNodesOwn() {
+        givenFreeFrom(2);
+
+        WorkerIdLease lease = lease(-1);
+
+        assertThat(lease.acquire()).isEqualTo((firstCandidate + 2) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+        // Leased once, then kept
+        assertThat(lease.acquire()).isEqualTo((firstCandidate + 2) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+        verify(valueOperations, times(3)).setIfAbsent(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    void acquire_whenEveryWorkerIdIsLeased_shouldFail() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        assertThatThrownBy(() -> lease(-1).acquire()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void renew_whenTheLeaseWasTakenByAnotherInstance_shouldLeaseAnotherIdAndReportIt() {
+        givenFreeFrom(0);
+        WorkerIdLease lease = lease(-1);
+        lease.acquire();
+        List<Integer> reassigned = new ArrayList<>();
+        lease.onReassigned(reassigned::add);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(0L);
+        givenFreeFrom(1);
+
+        lease.renew();
+
+        assertThat(reassigned).containsExactly((firstCandidate + 1) % (SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+        assertThat(lease.acquire()).isEqualTo(reassigned.get(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void renew_whenTheLeaseIsStillOurs_shouldKeepTheWorkerId() {
+        givenFreeFrom(0);
+        WorkerIdLease lease = lease(-1);
+        int workerId = lease.acquire();
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of(key(0))), any(Object[].class))).thenReturn(1L);
+
+        lease.renew();
+
+        assertThat(lease.acquire()).isEqualTo(workerId);
+    }
+}
@@ -2,7 +2,7 @@ import { Component, OnInit, OnDestroy, ViewChild, ElementRef, AfterViewChecked,
 import { CommonModule, AsyncPipe } from '@angular/common';
 import { FormBuilder, FormGroup, ReactiveFormsModule } from '@angular/forms';
 import { Router } from '@angular/router';
-import { Subscription, Subject, filter, distinctUntilChanged, takeUntil, debounceTime, timer } from 'rxjs';
+import { Subscription, Subject, filter, distinctUntilChanged, takeUntil, debounceTime, timer, first, timeout } from 'rxjs';
 
 // Material Modules
 import { MatCardModule } from '@angular/material/card';
@@ -22,7 +22,7 @@ import { MatBadgeModule } from '@angular/material/badge';
 import { MatExpansionModule } from '@angular/material/expansion';
 
 // App Services and Interfaces
-import { WebsocketService, ChatMessage, PresenceEvent, TypingEvent } from '../../services/websocket.service';
+import { WebsocketService, ChatMessage, PresenceEvent, TypingEvent, RoomSnapshot, compareMessageIds } from '../../services/websocket.service';
 import { AuthService } from '../../services/auth.service';
 import { MessageService } from '../../services/message.service';
 import { ChatRoomService, ChatRoom } from '../../services/chat-room.service';
@@ -75,10 +75,14 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
   pendingInvitations: RoomInvitation[] = [];
   hasUnreadInvitations = false;
 
+  // How long to wait for the room snapshot pushed on subscribe before loading the room over REST
+  private static readonly SNAPSHOT_TIMEOUT_MS = 5000;
+
   @ViewChild('messagesContainer') private messagesContainer!: ElementRef;
   private shouldScrollToBottom = true;
   private destroy$ = new Subject<void>();
   private typingTimeout: any;
+  private snapshotWait?: Subscription;
 
   private fb = inject(FormBuilder);
   public websocketService = inject(WebsocketService);
@@ -103,6 +107,7 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
     this.setupTypingSubscription();
     this.setupRoomSubscription();
     this.setupMessageSubscription();
+    this.setupReconnectSubscriptions();
     this.loadUserRooms();
     this.setupInvitationNotificationSubscription();
     this.loadPendingInvitations();
@@ -111,6 +116,7 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
   ngOnDestroy(): void {
     this.destroy$.next();
     this.destroy$.complete();
+    this.snapshotWait?.unsubscribe();
     if (this.typingTimeout) {
       clearTimeout(this.typingTimeout);
     }
@@ -230,9 +236,9 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
                 this.messages = [];
                 this.isSomeoneTyping = false;
                 this.typingUsername = '';
-                this.loadInitialMessages(roomName);
-                this.loadInitialRoomPresence(roomName);
+                this.awaitRoomSnapshot(roomName);
             } else if (!roomName) {
+                 this.snapshotWait?.unsubscribe();
                  this.messages = [];
                  this.websocketService.setCurrentRoomPresence([]);
             }
@@ -250,7 +256,12 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
                 next: (newMessage: ChatMessage) => {
                      console.log('[ChatComponent] Received NEW message for current room:', newMessage);
                     if (!this.messages.some(m => m.id === newMessage.id && m.timestamp === newMessage.timestamp)) {
+                        const last = this.messages[this.messages.length - 1];
                         this.messages = [...this.messages, newMessage];
+                        // Replayed messages can interleave with live ones after a reconnect
+                        if (last?.id && newMessage.id && compareMessageIds(newMessage.id, last.id) < 0) {
+                            this.messages.sort((a, b) => compareMessageIds(a.id ?? '', b.id ?? ''));
+                        }
                         this.shouldScrollToBottom = true;
                         this.cdRef.detectChanges();
                     } else {
@@ -264,6 +275,48 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
             });
   }
 
+  // History and presence arrive in one frame on subscribe; REST is only the fallback if it does not come
+  private awaitRoomSnapshot(roomName: string): void {
+      this.snapshotWait?.unsubscribe();
+      this.snapshotWait = this.websocketService.roomSnapshot$
+          .pipe(
+              filter(snapshot => snapshot.roomId === roomName),
+              first(),
+              timeout({ first: ChatComponent.SNAPSHOT_TIMEOUT_MS }),
+              takeUntil(this.destroy$)
+          )
+          .subscribe({
+              next: (snapshot: RoomSnapshot) => this.applyRoomSnapshot(snapshot),
+              error: () => {
+                  if (roomName === this.currentRoomName) {
+                      console.warn(`[ChatComponent] No snapshot for room ${roomName}, loading it over REST`);
+                      this.loadInitialMessages(roomName);
+                      this.loadInitialRoomPresence(roomName);
+                  }
+              }
+          });
+  }
+
+  private applyRoomSnapshot(snapshot: RoomSnapshot): void {
+      // Live messages may have arrived first, and may also be part of the snapshot
+      const known = new Set(this.messages.map(m => m.id));
+      this.messages = [...this.messages, ...snapshot.messages.content.filter(m => !known.has(m.id))]
+          .sort((a, b) => compareMessageIds(a.id ?? '', b.id ?? ''));
+      this.shouldScrollToBottom = true;
+      this.cdRef.detectChanges();
+  }
+
+  private setupReconnectSubscriptions(): void {
+      // Missed messages are replayed by the server on resubscribe; only the online set has to be fetched again
+      this.websocketService.roomResumed$
+          .pipe(takeUntil(this.destroy$), filter(roomName => roomName === this.currentRoomName))
+          .subscribe(roomName => this.loadInitialRoomPresence(roomName));
+
+      this.websocketService.catchUpIncomplete$
+          .pipe(takeUntil(this.destroy$), filter(roomName => roomName === this.currentRoomName))
+          .subscribe(roomName => this.loadInitialMessages(roomName));
+  }
+
   // --- Data Loading ---
 
   loadUserRooms(): void {
@@ -320,6 +373,7 @@ export class ChatComponent implements OnInit, OnDestroy, AfterViewChecked {
             } else {
                 this.messages = [];
             }
+            this.websocketService.markMessagesSeen(this.messages);
             this.shouldScrollToBottom = true;
             this.cdRef.detectChanges();
             timer(0).pipe(takeUntil(this.destroy$)).subscribe(() => this.scrollToBottom());
@@ -9,6 +9,8 @@ export interface ChatRoom {
     createdByUsername?: string;
     createdAt: string;
     isPublic: boolean;
+    memberCount?: number;
+    lastActivityAt?: string | null;
 }
 
 export interface CreateRoomPayload {
@@ -4,6 +4,12 @@ import { Observable } from 'rxjs';
 import { environment } from '../../environments/environment';
 import { ChatMessage } from './websocket.service';
 
+export interface MessageSlice {
+  content: ChatMessage[];
+  hasNext: boolean;
+  nextCursor: string | null;
+}
+
 @Injectable({
   providedIn: 'root'
 })
@@ -19,4 +25,13 @@ export class MessageService {
       params: { roomId, page: page.toString(), size: size.toString() }
     });
   }
+
+  // Cursor based history: pass the previous slice's nextCursor as `before` to scroll further back
+  getMessageHistory(roomId: string, before?: string, limit = 50): Observable<MessageSlice> {
+    const params: Record<string, string> = { roomId, limit: limit.toString() };
+    if (before) {
+      params['before'] = before;
+    }
+    return this.http.get<MessageSlice>(`${environment.apiUrl}/api/messages/history`, { params });
+  }
 }
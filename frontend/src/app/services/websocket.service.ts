@@ -4,13 +4,22 @@ import { BehaviorSubject, Observable, ReplaySubject, Subject, Subscription, filt
 import { environment } from '../../environments/environment';
 import { AuthService } from './auth.service';
 import SockJS from 'sockjs-client';
+import { MessageSlice } from './message.service';
 
 export interface ChatMessage {
-  id?: number;
+  // 64-bit, time-ordered; sent as a string because it does not fit a JavaScript number
+  id?: string;
   content: string;
   sender: string;
   roomId: string;
   timestamp?: string;
+  // Generated per send; lets the server drop redelivered copies of the message
+  clientMessageId?: string;
+}
+
+/** Orders two message ids; they are 64-bit integers, so compared as digit strings rather than numbers. */
+export function compareMessageIds(a: string, b: string): number {
+  return a.length !== b.length ? a.length - b.length : a < b ? -1 : a > b ? 1 : 0;
 }
 
 export interface TypingEvent {
@@ -19,6 +28,23 @@ export interface TypingEvent {
   typing: boolean;
 }
 
+/** Everyone currently typing in a room, as coalesced by the server. */
+export interface TypingDigest {
+  roomId: string;
+  usernames: string[];
+}
+
+/** The state of a room, sent once by the server when the room topic is subscribed with a 'snapshot' header. */
+export interface RoomSnapshot {
+  roomId: string;
+  // Newest first; pass nextCursor to the history endpoint for older messages
+  messages: MessageSlice;
+  onlineUsers: string[];
+}
+
+// Messages asked for in the snapshot when a room is opened
+const SNAPSHOT_MESSAGES = 50;
+
 export interface PresenceEvent {
   username: string;
   online: boolean;
@@ -60,6 +86,21 @@ export class WebsocketService implements OnDestroy {
   private currentRoomSubject = new BehaviorSubject<string | null>(null);
   public currentRoom$ = this.currentRoomSubject.asObservable();
 
+  // Emits the history and online members of a room just opened
+  private roomSnapshotSubject = new Subject<RoomSnapshot>();
+  public roomSnapshot$ = this.roomSnapshotSubject.asObservable();
+
+  // Emits the room after a reconnect resubscribed to it, having asked the server to replay what was missed
+  private roomResumedSubject = new Subject<string>();
+  public roomResumed$ = this.roomResumedSubject.asObservable();
+
+  // Emits the room when the server had more missed messages than it replays; the room should be reloaded
+  private catchUpIncompleteSubject = new Subject<string>();
+  public catchUpIncomplete$ = this.catchUpIncompleteSubject.asObservable();
+
+  // Newest message id of the current room this client has, sent as 'last-seen-id' when resubscribing
+  private lastSeenMessageId?: string;
+
   // Subject for Invitation Notifications
   private invitationNotificationSubject = new Subject<InvitationNotification>();
   public invitationNotification$ = this.invitationNotificationSubject.asObservable();
@@ -146,7 +187,15 @@ export class WebsocketService implements OnDestroy {
     this.subscribeToUserInvitationQueue();
 
     const intendedRoom = this.currentRoomSubject.value;
-    if (intendedRoom) {
+    if (intendedRoom && this.lastSeenMessageId) {
+        // Subscriptions of the dropped connection are gone; resubscribing with the last seen id replays the gap
+        console.log(`[WebSocket] Resuming room after reconnect: ${intendedRoom} (last seen ${this.lastSeenMessageId})`);
+        this.roomMessageSubscription = undefined;
+        this.roomTypingSubscription = undefined;
+        this.roomPresenceSubscription = undefined;
+        this.subscribeToRoomTopics(intendedRoom);
+        this.roomResumedSubject.next(intendedRoom);
+    } else if (intendedRoom) {
         console.log(`[WebSocket] Re-joining intended room after connect: ${intendedRoom}`);
         this.joinRoom(intendedRoom);
     }
@@ -216,6 +265,10 @@ export class WebsocketService implements OnDestroy {
 
     if (!this.client?.connected) {
       console.warn(`[WebSocket] Client not connected. Setting target room to ${roomId}. Will join upon connect.`);
+      if (this.currentRoomSubject.value !== roomId) {
+          // The last seen id belongs to the previous room; the new one is opened with a snapshot, not resumed
+          this.lastSeenMessageId = undefined;
+      }
       this.currentRoomSubject.next(roomId);
        if (!this.client || !this.client.active) {
            this.activateConnection();
@@ -247,31 +300,20 @@ export class WebsocketService implements OnDestroy {
 
      const subscriptionHeaders = this.getAuthHeaders();
 
-     // Subscribe to new chat messages
-     const messageDestination = `/topic/chat/${roomId}`;
-     this.roomMessageSubscription = this.client.subscribe(
-       messageDestination,
-       (message: IMessage) => {
-         try {
-             const chatMessage: ChatMessage = JSON.parse(message.body);
-             this.messagesSubject.next(chatMessage);
-         } catch (e) { console.error('[WebSocket] Failed to parse chat message:', e); }
-       },
-       { id: `room-${roomId}-msg-sub`, ...subscriptionHeaders }
-     );
-     console.log(`[WebSocket] Subscribed to ${messageDestination}`);
-
      // Subscribe to typing events
      const typingDestination = `/topic/typing/${roomId}`;
      this.roomTypingSubscription = this.client.subscribe(
        typingDestination,
        (message: IMessage) => {
           try {
-             const typingEvent: TypingEvent = JSON.parse(message.body);
+             const digest: TypingDigest = JSON.parse(message.body);
              const currentUser = this.authService.currentUserValue;
-             if (typingEvent.username !== currentUser?.username) {
-                this.typingSubject.next(typingEvent);
-             }
+             const others = digest.usernames.filter(username => username !== currentUser?.username);
+             this.typingSubject.next({
+                roomId: digest.roomId,
+                username: others.join(', '),
+                typing: others.length > 0
+             });
           } catch (e) { console.error('[WebSocket] Failed to parse typing message:', e); }
        },
        { id: `room-${roomId}-typing-sub`, ...subscriptionHeaders }
@@ -285,9 +327,46 @@ export class WebsocketService implements OnDestroy {
          { id: `room-${roomId}-presence-sub`, ...subscriptionHeaders }
      );
      console.log(`[WebSocket] Subscribed to ${presenceDestination}`);
+
+     // Subscribe to new chat messages last, so no presence change is missed after the snapshot
+     const messageDestination = `/topic/chat/${roomId}`;
+     // A reconnect asks for the messages missed since the newest one seen, opening a room for a snapshot
+     const stateHeaders: StompHeaders = this.lastSeenMessageId
+         ? { 'last-seen-id': this.lastSeenMessageId }
+         : { snapshot: String(SNAPSHOT_MESSAGES) };
+     this.roomMessageSubscription = this.client.subscribe(
+       messageDestination,
+       (message: IMessage) => {
+         try {
+             if (message.headers['snapshot'] === 'true') {
+                 this.handleRoomSnapshot(JSON.parse(message.body));
+                 return;
+             }
+             const chatMessage: ChatMessage = JSON.parse(message.body);
+             this.noteSeen(chatMessage);
+             this.messagesSubject.next(chatMessage);
+             if (message.headers['catch-up-has-more'] === 'true') {
+                 console.log(`[WebSocket] Missed more messages in ${roomId} than the server replays`);
+                 this.catchUpIncompleteSubject.next(roomId);
+             }
+         } catch (e) { console.error('[WebSocket] Failed to parse chat message:', e); }
+       },
+       { id: `room-${roomId}-msg-sub`, ...subscriptionHeaders, ...stateHeaders }
+     );
+     console.log(`[WebSocket] Subscribed to ${messageDestination}`);
   }
 
 
+  private handleRoomSnapshot(snapshot: RoomSnapshot): void {
+      if (snapshot.roomId !== this.currentRoomSubject.value) {
+          return;
+      }
+      console.log(`[WebSocket] Received snapshot of room ${snapshot.roomId}: ${snapshot.messages.content.length} messages, ${snapshot.onlineUsers.length} online`);
+      this.markMessagesSeen(snapshot.messages.content);
+      this.currentRoomPresenceSubject.next(snapshot.onlineUsers.map(username => ({ username, online: true })));
+      this.roomSnapshotSubject.next(snapshot);
+  }
+
   private handleRoomPresenceUpdate(message: IMessage): void {
       try {
           const update: PresenceEvent = JSON.parse(message.body);
@@ -309,6 +388,18 @@ export class WebsocketService implements OnDestroy {
       }
 
 
+  /** Records messages of the current room loaded over REST, so a reconnect only replays what came after them. */
+  public markMessagesSeen(messages: ChatMessage[]): void {
+      messages.forEach(message => this.noteSeen(message));
+  }
+
+  private noteSeen(message: ChatMessage): void {
+      if (message.id && message.roomId === this.currentRoomSubject.value
+          && (!this.lastSeenMessageId || compareMessageIds(message.id, this.lastSeenMessageId) > 0)) {
+          this.lastSeenMessageId = message.id;
+      }
+  }
+
   public leaveCurrentRoom(): void {
     const roomToLeave = this.currentRoomSubject.value;
       if (roomToLeave) {
@@ -321,11 +412,12 @@ export class WebsocketService implements OnDestroy {
           this.currentRoomPresenceSubject.next([]);
           this.currentRoomSubject.next(null);
       }
+      this.lastSeenMessageId = undefined;
   }
 
   // --- Sending Actions ---
 
-  public async sendMessage(message: Omit<ChatMessage, 'sender' | 'timestamp' | 'id' | 'roomId'>): Promise<void> {
+  public async sendMessage(message: Omit<ChatMessage, 'sender' | 'timestamp' | 'id' | 'roomId' | 'clientMessageId'>): Promise<void> {
       const currentRoomId = this.currentRoomSubject.value;
       if (!currentRoomId) {
           console.error('Cannot send message - not currently in a room.');
@@ -348,15 +440,31 @@ export class WebsocketService implements OnDestroy {
           ...message,
           roomId: currentRoomId,
           sender: currentUser.username,
-          timestamp: new Date().toISOString()
+          timestamp: new Date().toISOString(),
+          clientMessageId: crypto.randomUUID()
       };
 
+      // The server answers with a RECEIPT once Kafka has accepted (or rejected) the message
+      const receiptId = `msg-${completeMessage.clientMessageId}`;
+      const delivered = new Promise<void>((resolve, reject) => {
+          const timeout = setTimeout(() => reject(new Error('No delivery receipt received')), 10000);
+          this.client.watchForReceipt(receiptId, (frame: IFrame) => {
+              clearTimeout(timeout);
+              if (frame.headers['delivery-status'] === 'ok') {
+                  resolve();
+              } else {
+                  reject(new Error(frame.headers['delivery-error'] || 'Message delivery failed'));
+              }
+          });
+      });
+
       console.log('[WebSocket] Publishing message:', completeMessage);
       this.client.publish({
           destination: '/app/chat.sendMessage',
           body: JSON.stringify(completeMessage),
-          headers: this.getAuthHeaders()
+          headers: { ...this.getAuthHeaders(), receipt: receiptId }
       });
+      return delivered;
   }
 
   public async sendTyping(isTyping: boolean): Promise<void> {